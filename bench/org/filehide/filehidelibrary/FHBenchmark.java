@@ -0,0 +1,206 @@
+package org.filehide.filehidelibrary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmark of hiding, extracting, opening and checking the password of FHFiles, for comparing releases.
+ * <p>
+ * Hiding, extracting and opening are run for every combination of payload size, carrier size and encryption, checking the password does not depend on them.
+ * Build with {@code mvn -P jmh package} and run with {@code java -jar target/benchmarks.jar FHBenchmark [-p payload=4k,1g] [-rf json]},
+ * sizes may end with k, m or g.
+ * @author alex1s
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(2)
+public class FHBenchmark {
+
+	/**
+	 * The password of encrypted FHFiles.
+	 */
+	private static final String PASSWORD = "password";
+
+	// MARK states
+
+	/**
+	 * A FHFile with a payload hidden in a carrier, and the files to hide it again.
+	 * @author alex1s
+	 */
+	@State(Scope.Benchmark)
+	public static class Hidden {
+
+		/**
+		 * The size of the payload.
+		 */
+		@Param({"4k", "1m", "64m"})
+		public String payload;
+		/**
+		 * The size of the carrier.
+		 */
+		@Param({"0", "1m"})
+		public String carrier;
+		/**
+		 * Weather the payload is encrypted.
+		 */
+		@Param({"false", "true"})
+		public boolean encrypted;
+
+		Path directory;
+		File payloadFile;
+		File carrierFile;
+		File hidden;
+		File destination;
+		FHFile fhFile;
+
+		@Setup(Level.Trial)
+		public void setup() throws Exception {
+			this.directory = Files.createTempDirectory("FHBenchmark");
+			this.payloadFile = file(this.directory.resolve("payload"), size(this.payload), 0);
+			this.carrierFile = file(this.directory.resolve("carrier"), size(this.carrier), 1);
+			this.hidden = this.directory.resolve("hidden").toFile();
+			this.destination = this.directory.resolve("destination").toFile();
+			this.fhFile = hide(this.payloadFile, this.carrierFile, this.hidden, this.encrypted);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			delete(this.directory);
+		}
+	}
+
+	/**
+	 * A small encrypted FHFile, for checking its password.
+	 * @author alex1s
+	 */
+	@State(Scope.Benchmark)
+	public static class Encrypted {
+
+		Path directory;
+		FHFile fhFile;
+
+		@Setup(Level.Trial)
+		public void setup() throws Exception {
+			this.directory = Files.createTempDirectory("FHBenchmark");
+			this.fhFile = hide(file(this.directory.resolve("payload"), 4096, 0), file(this.directory.resolve("carrier"), 0, 1), this.directory.resolve("hidden").toFile(), true);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			delete(this.directory);
+		}
+	}
+
+	// MARK benchmarks
+
+	@Benchmark
+	public FHFile hide(Hidden state) throws Exception {
+		return hide(state.payloadFile, state.carrierFile, state.destination, state.encrypted);
+	}
+
+	@Benchmark
+	public void extract(Hidden state, Blackhole blackhole) throws Exception {
+		if(state.encrypted) state.fhFile.extractHiddenData(state.destination, PASSWORD);
+		else state.fhFile.extractHiddenData(state.destination);
+		blackhole.consume(state.destination.length());
+	}
+
+	@Benchmark
+	public FHFile open(Hidden state) throws Exception {
+		return new FHFile(state.hidden);
+	}
+
+	@Benchmark
+	public boolean checkPassword(Encrypted state) throws Exception {
+		return state.fhFile.checkPassword(PASSWORD);
+	}
+
+	// MARK setup
+
+	/**
+	 * Hides a file inside a copy of the carrier.
+	 * @param payload the file to hide
+	 * @param carrier the file to hide in
+	 * @param destination location to save the result
+	 * @param encrypted weather the payload is encrypted
+	 * @return the created FHFile
+	 * @throws Exception if the file can not be hidden
+	 */
+	private static FHFile hide(File payload, File carrier, File destination, boolean encrypted) throws Exception {
+		return encrypted ? FHFile.hide(payload, carrier, destination, PASSWORD) : FHFile.hide(payload, carrier, destination);
+	}
+
+	/**
+	 * Creates a file of random bytes.
+	 * @param path the location of the file
+	 * @param size the number of bytes
+	 * @param seed the seed of the random bytes
+	 * @return the file
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static File file(Path path, long size, long seed) throws IOException {
+		Random random = new Random(seed);
+		byte[] block = new byte[1024 * 1024];
+		try(RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+			file.setLength(0);
+			for(long written = 0; written < size; written += block.length) {
+				random.nextBytes(block);
+				file.write(block, 0, (int) Math.min(block.length, size - written));
+			}
+		}
+		return path.toFile();
+	}
+
+	/**
+	 * Deletes a directory and the files in it.
+	 * @param directory the directory
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void delete(Path directory) throws IOException {
+		try(Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	/**
+	 * Parses a size.
+	 * @param size the size, may end with k, m or g
+	 * @return the size in bytes
+	 */
+	private static long size(String size) {
+		size = size.toLowerCase(Locale.ROOT);
+		long unit = 1;
+		switch(size.charAt(size.length() - 1)) {
+		case 'k': unit = 1L << 10; break;
+		case 'm': unit = 1L << 20; break;
+		case 'g': unit = 1L << 30; break;
+		default: break;
+		}
+		return unit * Long.parseLong(unit == 1 ? size : size.substring(0, size.length() - 1));
+	}
+}
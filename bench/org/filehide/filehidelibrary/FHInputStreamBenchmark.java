@@ -0,0 +1,108 @@
+package org.filehide.filehidelibrary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Throughput benchmark of {@link FHInputStream}.
+ * <p>
+ * Measures byte-at-a-time and bulk reads of an unencrypted and an encrypted FHFile.
+ * Usage: {@code FHInputStreamBenchmark [payload size in MiB] [runs]}
+ * @author alex1s
+ */
+public class FHInputStreamBenchmark {
+
+	/**
+	 * The size of the array used for bulk reads.
+	 */
+	private static final int BULK_SIZE = 8192;
+
+	public static void main(String[] args) throws Exception {
+		int mebibytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		File directory = Files.createTempDirectory("FHInputStreamBenchmark").toFile();
+		File payload = new File(directory, "payload");
+		byte[] bytes = new byte[mebibytes * 1024 * 1024];
+		new Random(0).nextBytes(bytes);
+		Files.write(payload.toPath(), bytes);
+
+		File unencrypted = new File(directory, "unencrypted");
+		File encrypted = new File(directory, "encrypted");
+		Files.write(unencrypted.toPath(), new byte[1024]);
+		Files.write(encrypted.toPath(), new byte[1024]);
+		FHFile plainFile = FHFile.hide(payload, unencrypted);
+		FHFile cryptFile = FHFile.hide(payload, encrypted, "password");
+
+		System.out.printf("payload: %d MiB, best of %d runs%n", mebibytes, runs);
+		report("unencrypted read()", runs, () -> readBytes(new FHInputStream(plainFile)));
+		report("unencrypted read(byte[" + BULK_SIZE + "])", runs, () -> readBulk(new FHInputStream(plainFile)));
+		byte[] password = "password".getBytes(FHCipher.CHARSET);
+		report("encrypted read()", runs, () -> readBytes(new FHInputStream(cryptFile, cryptFile.contentCipher(password))));
+		report("encrypted read(byte[" + BULK_SIZE + "])", runs, () -> readBulk(new FHInputStream(cryptFile, cryptFile.contentCipher(password))));
+
+		for(File file : directory.listFiles())
+			file.delete();
+		directory.delete();
+	}
+
+	/**
+	 * A benchmarked operation.
+	 */
+	private interface Operation {
+		long run() throws IOException;
+	}
+
+	/**
+	 * Runs the operation and prints its best throughput.
+	 * @param name the name of the operation
+	 * @param runs the number of runs
+	 * @param operation the operation
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void report(String name, int runs, Operation operation) throws IOException {
+		long best = Long.MAX_VALUE;
+		long bytes = 0;
+		for(int i = 0; i < runs; i++) {
+			long start = System.nanoTime();
+			bytes = operation.run();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		System.out.printf("%-36s %10.1f MiB/s (%d bytes read)%n", name, bytes / 1048576.0 / (best / 1e9), bytes);
+	}
+
+	/**
+	 * Reads the stream one byte at a time.
+	 * @param in the stream to read
+	 * @return the number of bytes read
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static long readBytes(InputStream in) throws IOException {
+		long count = 0;
+		try(InputStream stream = in) {
+			while(stream.read() != -1)
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Reads the stream in bulk.
+	 * @param in the stream to read
+	 * @return the number of bytes read
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static long readBulk(InputStream in) throws IOException {
+		long count = 0;
+		byte[] b = new byte[BULK_SIZE];
+		try(InputStream stream = in) {
+			int n;
+			while((n = stream.read(b)) != -1)
+				count += n;
+		}
+		return count;
+	}
+}
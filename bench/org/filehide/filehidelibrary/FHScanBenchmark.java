@@ -0,0 +1,89 @@
+package org.filehide.filehidelibrary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark of a cold scan against a warm rescan with a {@link FHScanIndex}.
+ * <p>
+ * Creates a tree of files, every tenth of them a FHFile, and scans it once without an index and then with the index saved by a previous scan.
+ * Usage: {@code FHScanBenchmark [files] [runs]}
+ * @author alex1s
+ */
+public class FHScanBenchmark {
+
+	/**
+	 * The number of files in each directory of the tree.
+	 */
+	private static final int FILES_PER_DIRECTORY = 100;
+
+	public static void main(String[] args) throws Exception {
+		int files = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		Path directory = Files.createTempDirectory("FHScanBenchmark");
+		Path tree = Files.createDirectory(directory.resolve("tree"));
+		Path payload = Files.write(directory.resolve("payload"), new byte[4096]);
+		Path indexFile = directory.resolve("index");
+		Random random = new Random(0);
+		for(int i = 0; i < files; i++) {
+			Path subdirectory = Files.createDirectories(tree.resolve("d" + i / FILES_PER_DIRECTORY));
+			byte[] bytes = new byte[1024 + random.nextInt(4096)];
+			random.nextBytes(bytes);
+			File file = Files.write(subdirectory.resolve("f" + i), bytes).toFile();
+			if(i % 10 == 0) FHFile.hide(payload.toFile(), file);
+		}
+
+		// the first scan builds the index used by the warm rescans
+		FHScanner scanner = new FHScanner();
+		FHScanIndex initial = new FHScanIndex();
+		scanner.scan(tree, initial, header -> {});
+		initial.save(indexFile);
+
+		System.out.printf("files: %d, best of %d runs%n", files, runs);
+		report("cold scan", runs, () -> scanner.scan(tree, header -> {}));
+		FHScanIndex warm = FHScanIndex.load(indexFile);
+		report("warm rescan", runs, () -> scanner.scan(tree, warm, header -> {}));
+		report("warm rescan (load, scan, save)", runs, () -> {
+			FHScanIndex index = FHScanIndex.load(indexFile);
+			FHScanner.Statistics statistics = scanner.scan(tree, index, header -> {});
+			index.save(indexFile);
+			return statistics;
+		});
+		System.out.printf("index file: %d bytes%n", Files.size(indexFile));
+
+		try(Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	/**
+	 * A benchmarked scan.
+	 */
+	private interface Scan {
+		FHScanner.Statistics run() throws IOException;
+	}
+
+	/**
+	 * Runs the scan and prints its best throughput.
+	 * @param name the name of the scan
+	 * @param runs the number of runs
+	 * @param scan the scan
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void report(String name, int runs, Scan scan) throws IOException {
+		long best = Long.MAX_VALUE;
+		FHScanner.Statistics statistics = null;
+		for(int i = 0; i < runs; i++) {
+			long start = System.nanoTime();
+			statistics = scan.run();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		System.out.printf("%-32s %10.0f files/s, %d ms (%s)%n", name, statistics.files() / (best / 1e9), best / 1000000, statistics);
+	}
+}
@@ -0,0 +1,274 @@
+package org.filehide.filehidelibrary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import org.filehide.filehidelibrary.FHCipher.OperationMode;
+
+/**
+ * Appends data to the hidden file of a FHFile without rewriting the data that is already hidden.
+ * <p>
+ * Unencrypted data is written where the end of the file was, followed by a new end. Encrypted data of version 0 continues the chain of blocks,
+ * only the last block is decrypted and encrypted again to remove its padding.
+ * <p>
+ * The chunks of later versions can not be continued with the nonce of the file, as encrypting another chunk with a nonce that has been used before
+ * would reveal the key stream. So the last chunk is decrypted, and its plain text is encrypted again together with the appended data with a new random nonce.
+ * The chunks since the last append form a segment, the segment table lists the index of the first chunk and the nonce of each segment:<br>
+ * 1. 4 byte two´s-complement integer: the number of segments<br>
+ * 2. for each segment the index of its first chunk as 8 byte two´s-complement long, followed by its 8 byte nonce<br>
+ * The table is encrypted with another new nonce as if it was the chunk with the index {@link FHChunkCipher#TOC_INDEX}, and stored after that nonce.
+ * <p>
+ * Appending is not atomic, if it is interrupted the file may not be a FHFile anymore.
+ * @author alex1s
+ */
+final class FHAppend {
+
+	/**
+	 * The number of bytes of a segment in the segment table.
+	 */
+	private static final int SEGMENT_BYTES = Long.BYTES + FHChunkCipher.NONCE_BYTES;
+
+	/**
+	 * Not instantiable.
+	 */
+	private FHAppend() {}
+
+	// MARK unencrypted
+
+	/**
+	 * Appends the data to an unencrypted hidden file.
+	 * @param header the header of the file, as read right before
+	 * @param out the channel of the file
+	 * @param data the data to append, read until its end
+	 * @return the number of bytes appended
+	 * @throws IOException if an I/O error occurs
+	 */
+	static long appendPlain(FHHeader header, FileChannel out, ReadableByteChannel data) throws IOException {
+		long position = header.offsetEnd();
+		long appended = FHChannels.transferAll(data, out, position);
+		if(appended == 0) return 0;
+		position += appended;
+		position += FHChannels.writeFully(out, FHFile.FHEnd(header.originalFileLength()), position);
+		out.truncate(position);
+		return appended;
+	}
+
+	// MARK version 0
+
+	/**
+	 * Appends the data to an encrypted hidden file of version 0.
+	 * @param header the header of the file, as read right before
+	 * @param out the channel of the file
+	 * @param data the data to append, read until its end
+	 * @param password the password the hidden file is encrypted with
+	 * @return the number of bytes appended
+	 * @throws IOException if an I/O error occurs or the hidden file can not be decrypted
+	 */
+	static long appendBlocks(FHHeader header, FileChannel out, ReadableByteChannel data, byte[] password) throws IOException {
+		ByteBuffer plainText = ByteBuffer.allocate(FHChannels.TRANSFER_BUFFER_SIZE);
+		long appended = read(data, plainText);
+		if(appended == 0) return 0;
+
+		// the last block holds the padding, its iv is the cipher text block before it
+		long position = header.offsetEnd() - FHCipher.BYTES;
+		int ivLength = position > header.offsetStart() ? FHCipher.BYTES : 0;
+		byte[] blocks = new byte[ivLength + FHCipher.BYTES];
+		FHChannels.readFully(out, ByteBuffer.wrap(blocks), position - ivLength);
+		byte[] iv = ivLength == 0 ? null : Arrays.copyOf(blocks, FHCipher.BYTES);
+
+		FHCipher decrypt = new FHCipher(OperationMode.DECRYPT_MODE, password);
+		FHCipher encrypt = new FHCipher(OperationMode.ENCRYPT_MODE, password);
+		decrypt.reinit(iv);
+		encrypt.reinit(iv);
+		byte[] cipherText = new byte[plainText.capacity() + 2 * FHCipher.BYTES];
+		try {
+			byte[] tail = decrypt.getCipher().doFinal(blocks, ivLength, FHCipher.BYTES);
+			int n = encrypt.getCipher().update(tail, 0, tail.length, cipherText, 0);
+			FHInstrumentation.crypted(FHCipher.BYTES + tail.length);
+			while(true) {
+				n += encrypt.getCipher().update(plainText.array(), 0, plainText.position(), cipherText, n);
+				FHInstrumentation.crypted(plainText.position());
+				position += FHChannels.writeFully(out, ByteBuffer.wrap(cipherText, 0, n), position);
+				if(plainText.hasRemaining()) break;
+				plainText.clear();
+				appended += read(data, plainText);
+				n = 0;
+			}
+			n = encrypt.getCipher().doFinal(cipherText, 0);
+			position += FHChannels.writeFully(out, ByteBuffer.wrap(cipherText, 0, n), position);
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e);
+		}
+
+		position += FHChannels.writeFully(out, FHFile.FHEnd(header.originalFileLength()), position);
+		out.truncate(position);
+		return appended;
+	}
+
+	// MARK chunks
+
+	/**
+	 * Appends the data to an encrypted hidden file with chunks.
+	 * @param header the header of the file, as read right before
+	 * @param out the channel of the file
+	 * @param data the data to append, read until its end
+	 * @param password the password the hidden file is encrypted with
+	 * @return the number of bytes appended
+	 * @throws IOException if an I/O error occurs, the hidden file can not be decrypted or its segment table is invalid
+	 */
+	static long appendChunks(FHHeader header, FileChannel out, ReadableByteChannel data, byte[] password) throws IOException {
+		int chunkSize = header.chunkSize();
+		int batch = Math.max(1, FHChunkCipher.POOL.getParallelism());
+		ByteBuffer first = FHBufferPool.borrow(batch * chunkSize);
+		ByteBuffer plainText = FHBufferPool.borrow((batch + 1) * chunkSize);
+		ByteBuffer cipherText = FHBufferPool.borrow((batch + 1) * (chunkSize + FHChunkCipher.TAG_BYTES));
+		long appended;
+		long position;
+		try {
+			// the plain text of the last chunk comes first, the data is read before it to leave the file untouched if there is none
+			appended = read(data, first);
+			if(appended == 0) return 0;
+
+			FHChunkCipher cipher = FHKeySlots.cipher(password, header.nonce(), chunkSize, header.flags(), header.cryptoBytes());
+			long chunks = (header.offsetEnd() - header.offsetStart() + chunkSize + FHChunkCipher.TAG_BYTES - 1) / (chunkSize + FHChunkCipher.TAG_BYTES);
+			long[] starts = {0};
+			byte[][] nonces = {header.nonce()};
+			if(header.segmented()) {
+				if(header.tocLength() > Integer.MAX_VALUE) throw new IOException(new FHFileCorruptException());
+				ByteBuffer table = ByteBuffer.allocate((int) header.tocLength());
+				FHChannels.readFully(out, table, header.offsetEnd());
+				table.flip();
+				FHChunkCipher segments = segments(cipher, table, chunks);
+				starts = segments.segmentStarts();
+				nonces = segments.segmentNonces();
+				cipher = segments;
+			}
+
+			// the last chunk is decrypted and removed
+			long index = chunks - 1;
+			position = header.offsetStart() + index * (chunkSize + FHChunkCipher.TAG_BYTES);
+			cipherText.limit((int) (header.offsetEnd() - position));
+			FHChannels.readFully(out, cipherText, position);
+			cipherText.flip();
+			try {
+				cipher.crypt(OperationMode.DECRYPT_MODE, index, true, cipherText, plainText);
+			} catch (GeneralSecurityException e) {
+				throw new IOException(e);
+			}
+			first.flip();
+			plainText.put(first);
+
+			// the new segment starts with it, segments that only consisted of the last chunk are dropped
+			byte[] nonce = FHChunkCipher.newNonce();
+			FHChunkCipher writer = cipher.withNonce(nonce);
+			int kept = Arrays.binarySearch(starts, index);
+			kept = kept < 0 ? -kept - 1 : kept;
+			starts = Arrays.copyOf(starts, kept + 1);
+			nonces = Arrays.copyOf(nonces, kept + 1);
+			starts[kept] = index;
+			nonces[kept] = nonce;
+
+			try {
+				boolean end = false;
+				while(!end) {
+					if(plainText.hasRemaining()) {
+						appended += read(data, plainText);
+						end = plainText.hasRemaining();
+					}
+					long written = Math.max(1, (plainText.position() + chunkSize - 1) / chunkSize);
+					if(index + written > FHChunkCipher.MAX_CHUNKS) throw new IOException("Too much data to hide in " + header.path());
+					plainText.flip();
+					cipherText.clear();
+					writer.crypt(OperationMode.ENCRYPT_MODE, index, plainText, end, cipherText);
+					position += FHChannels.writeFully(out, cipherText.flip(), position);
+					index += written;
+					plainText.clear();
+				}
+
+				// the segment table, its length and the end
+				ByteBuffer table = ByteBuffer.allocate(Integer.BYTES + starts.length * SEGMENT_BYTES);
+				table.putInt(starts.length);
+				for(int i = 0; i < starts.length; i++)
+					table.putLong(starts[i]).put(nonces[i]);
+				byte[] tableNonce = FHChunkCipher.newNonce();
+				byte[] encrypted = Arrays.copyOf(tableNonce, FHChunkCipher.NONCE_BYTES + table.capacity() + FHChunkCipher.TAG_BYTES);
+				cipher.withNonce(tableNonce).crypt(OperationMode.ENCRYPT_MODE, FHChunkCipher.TOC_INDEX, true, table.array(), 0, table.capacity(), encrypted, FHChunkCipher.NONCE_BYTES);
+				position += FHChannels.writeFully(out, ByteBuffer.wrap(encrypted), position);
+				position += FHChannels.writeFully(out, ByteBuffer.allocate(Long.BYTES).putLong(0, encrypted.length), position);
+			} catch (GeneralSecurityException e) {
+				throw new IOException(e);
+			}
+		} finally {
+			FHBufferPool.giveBack(first);
+			FHBufferPool.giveBack(plainText);
+			FHBufferPool.giveBack(cipherText);
+		}
+		position += FHChannels.writeFully(out, FHFile.FHEnd(header.originalFileLength()), position);
+		out.truncate(position);
+
+		// the version and the flags of files that have not been appended to before
+		if(!header.segmented()) {
+			int flags = header.flags() | FHFile.FLAG_SEGMENTED;
+			ByteBuffer versionAndFlags = ByteBuffer.allocate(2 * Integer.BYTES).putInt(FHFile.fileVersion(flags)).putInt(flags);
+			versionAndFlags.flip();
+			FHChannels.writeFully(out, versionAndFlags, header.originalFileLength() + FHFile.FH_START.length);
+		}
+		return appended;
+	}
+
+	/**
+	 * Reads the segment table of a file.
+	 * @param cipher the cipher of the file
+	 * @param table the segment table as stored in the file
+	 * @param chunks the number of chunks of the file
+	 * @return a cipher for the chunks of all segments
+	 * @throws IOException if the table can not be decrypted or is invalid
+	 */
+	static FHChunkCipher segments(FHChunkCipher cipher, ByteBuffer table, long chunks) throws IOException {
+		if(table.remaining() < FHChunkCipher.NONCE_BYTES + Integer.BYTES + FHChunkCipher.TAG_BYTES) throw new IOException(new FHFileCorruptException());
+		byte[] tableNonce = new byte[FHChunkCipher.NONCE_BYTES];
+		table.get(tableNonce);
+		byte[] plainText = new byte[table.remaining()];
+		ByteBuffer segments;
+		try {
+			int n = cipher.withNonce(tableNonce).crypt(OperationMode.DECRYPT_MODE, FHChunkCipher.TOC_INDEX, true, table.array(), table.position(), table.remaining(), plainText, 0);
+			segments = ByteBuffer.wrap(plainText, 0, n);
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e);
+		}
+
+		// the segments start at the first chunk and in ascending order
+		int count = segments.getInt();
+		if(count <= 0 || segments.remaining() != (long) count * SEGMENT_BYTES) throw new IOException(new FHFileCorruptException());
+		long[] starts = new long[count];
+		byte[][] nonces = new byte[count][FHChunkCipher.NONCE_BYTES];
+		for(int i = 0; i < count; i++) {
+			starts[i] = segments.getLong();
+			segments.get(nonces[i]);
+			if(i == 0 ? starts[i] != 0 : starts[i] <= starts[i - 1] || starts[i] >= chunks) throw new IOException(new FHFileCorruptException());
+		}
+		return cipher.withSegments(starts, nonces);
+	}
+
+	/**
+	 * Reads from the channel until the buffer is full or the channel ends.
+	 * @param data the channel to read from
+	 * @param buffer the buffer to fill
+	 * @return the number of bytes read
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static long read(ReadableByteChannel data, ByteBuffer buffer) throws IOException {
+		long read = 0;
+		while(buffer.hasRemaining()) {
+			int n = data.read(buffer);
+			if(n < 0) break;
+			read += n;
+		}
+		FHInstrumentation.read(read);
+		return read;
+	}
+}
@@ -0,0 +1,119 @@
+package org.filehide.filehidelibrary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.filehide.filehidelibrary.FHCipher.OperationMode;
+
+/**
+ * Writes the hidden content of a FHFile that is an archive of named entries.
+ * <p>
+ * Encrypted entries are read in batches of chunks, which are encrypted in parallel and written in order.
+ * @author alex1s
+ */
+final class FHArchive {
+
+	/**
+	 * Not instantiable.
+	 */
+	private FHArchive() {}
+
+	/**
+	 * Writes the head, the entries, the table of contents and the end of an archive.
+	 * @param out the channel of the file to hide the entries in
+	 * @param position the position to write to, the length of the original file
+	 * @param entries the files to hide by the names of their entries
+	 * @param password the password to encrypt the archive with, null if it should not be encrypted
+	 * @throws IOException if an I/O error occurs or the entries can not be encrypted
+	 */
+	static void write(FileChannel out, long position, Map<String, File> entries, byte[] password) throws IOException {
+		long originalFileLength = position;
+		int chunkSize = FHChunkCipher.DEFAULT_CHUNK_SIZE;
+
+		byte[] nonce = new byte[FHChunkCipher.NONCE_BYTES];
+		byte[] cryptoBytes = FHFile.FH_CRYPT;
+		int flags = FHFile.FLAG_ARCHIVE;
+		FHChunkCipher cipher = null;
+		if(password != null) {
+			nonce = FHChunkCipher.newNonce();
+			cryptoBytes = new byte[FHKeySlots.LENGTH];
+			flags |= FHFile.FLAG_KEY_SLOTS;
+			try {
+				cipher = FHKeySlots.create(password, nonce, chunkSize, cryptoBytes);
+			} catch (GeneralSecurityException e) {
+				throw new IOException(e);
+			}
+		}
+
+		position += FHChannels.writeFully(out, FHFile.FHHead(flags, chunkSize, nonce, cryptoBytes), position);
+		long offsetStart = position;
+
+		// the data of the entries
+		List<FHEntry> toc = new ArrayList<>(entries.size());
+		long chunk = 0;
+		int batch = Math.max(1, FHChunkCipher.POOL.getParallelism());
+		ByteBuffer plainText = cipher == null ? null : FHBufferPool.borrow(batch * chunkSize);
+		ByteBuffer cipherText = cipher == null ? null : FHBufferPool.borrow(batch * (chunkSize + FHChunkCipher.TAG_BYTES));
+		try {
+			for(Map.Entry<String, File> entry : entries.entrySet()) {
+				if(entry.getKey() == null || entry.getKey().isEmpty()) throw new IllegalArgumentException("Entries need a name");
+				try(FileChannel in = FileChannel.open(entry.getValue().toPath(), StandardOpenOption.READ)) {
+					long start = position;
+					long size = in.size();
+					long firstChunk = chunk;
+					if(cipher == null) {
+						FHChannels.transferFully(in, out, position, size);
+						position += size;
+					} else {
+						long read = 0;
+						do {
+							int n = (int) Math.min(plainText.capacity(), size - read);
+							plainText.clear().limit(n);
+							FHChannels.readFully(in, plainText, read);
+							plainText.flip();
+							read += n;
+							long chunks = Math.max(1, (n + chunkSize - 1) / chunkSize);
+							if(chunk + chunks > FHChunkCipher.MAX_CHUNKS) throw new IOException("Too much data to hide");
+							try {
+								cipherText.clear();
+								cipher.crypt(OperationMode.ENCRYPT_MODE, chunk, plainText, read == size, cipherText);
+								position += FHChannels.writeFully(out, cipherText.flip(), position);
+							} catch (GeneralSecurityException e) {
+								throw new IOException(e);
+							}
+							chunk += chunks;
+						} while(read < size);
+					}
+					toc.add(new FHEntry(entry.getKey(), start - offsetStart, position - start, 0, firstChunk, size));
+				}
+			}
+		} finally {
+			FHBufferPool.giveBack(plainText);
+			FHBufferPool.giveBack(cipherText);
+		}
+
+		// the table of contents and its length
+		ByteBuffer buffer = FHEntry.write(toc);
+		if(cipher != null) {
+			byte[] encrypted = new byte[buffer.limit() + FHChunkCipher.TAG_BYTES];
+			try {
+				cipher.crypt(OperationMode.ENCRYPT_MODE, FHChunkCipher.TOC_INDEX, true, buffer.array(), 0, buffer.limit(), encrypted, 0);
+			} catch (GeneralSecurityException e) {
+				throw new IOException(e);
+			}
+			buffer = ByteBuffer.wrap(encrypted);
+		}
+		long tocLength = buffer.limit();
+		position += FHChannels.writeFully(out, buffer, position);
+		position += FHChannels.writeFully(out, ByteBuffer.allocate(Long.BYTES).putLong(0, tocLength), position);
+
+		FHChannels.writeFully(out, FHFile.FHEnd(originalFileLength), position);
+	}
+}
@@ -0,0 +1,685 @@
+package org.filehide.filehidelibrary;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.filehide.filehidelibrary.FHCipher.OperationMode;
+
+/**
+ * Hides, extracts and probes FHFiles asynchronously with {@link AsynchronousFileChannel}s.
+ * <p>
+ * No thread waits for I/O: the reads and writes complete on the threads of the default asynchronous channel group,
+ * while the keys are derived and the chunks are de- and encrypted on the executor of the caller, each chunk as a task of its own.
+ * Batches of chunks are processed one after the other in buffers borrowed from the {@link FHBufferPool}, so a single operation only holds a few chunks in memory
+ * and many operations can be in flight with few threads.
+ * @author alex1s
+ */
+final class FHAsync {
+
+	/**
+	 * The number of chunks read, de- or encrypted and written at once.
+	 */
+	static final int BATCH_CHUNKS = 4;
+	/**
+	 * The size of the buffer unencrypted data is copied with.
+	 */
+	static final int BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * Not instantiable.
+	 */
+	private FHAsync() {}
+
+	// MARK probing
+
+	/**
+	 * Reads the header of a file, see {@link FHFile#probe(Path)}.
+	 * @param path the file to probe
+	 * @return the header of the file or empty if the file is not a readable FHFile, completes exceptionally if an I/O error occurs
+	 */
+	static CompletableFuture<Optional<FHHeader>> probe(Path path) {
+		long start = FHInstrumentation.start();
+		AsynchronousFileChannel channel;
+		try {
+			channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		return header(channel, path)
+				.whenComplete((header, e) -> {
+					close(channel);
+					FHInstrumentation.headerParsed(start);
+				})
+				.thenApply(header -> header.status() == FHHeader.Status.FH_FILE ? Optional.of(header) : Optional.empty());
+	}
+
+	/**
+	 * Reads the end and the head of a file, see {@link FHHeader#read(java.nio.channels.FileChannel, Path)}.
+	 * @param channel a channel of the file
+	 * @param path the path of the file
+	 * @return the header
+	 */
+	private static CompletableFuture<FHHeader> header(AsynchronousFileChannel channel, Path path) {
+		long size;
+		try {
+			size = channel.size();
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		ByteBuffer end = FHHeader.end(size);
+		CompletableFuture<Integer> readEnd = end == null ? CompletableFuture.completedFuture(0) : read(channel, end, size - end.capacity());
+		return readEnd.thenCompose(n -> {
+			ByteBuffer head = FHHeader.head(size, end);
+			if(head == null) return CompletableFuture.completedFuture(FHHeader.parse(path, size, end, null));
+			return read(channel, head, FHHeader.originalFileLength(end)).thenApply(m -> FHHeader.parse(path, size, end, head));
+		});
+	}
+
+	// MARK hiding
+
+	/**
+	 * Hides the data of a file inside a copy of another file, see {@link FHFile#hideAsync(Path, Path, Path, String, Executor)}.
+	 * <p>
+	 * If the destination is the carrier itself, the data is appended to it instead.
+	 * @param payload the file of the data to be hidden
+	 * @param carrier the file which should contain the hidden data
+	 * @param destination location to save the result
+	 * @param password the password to encrypt the hidden data with, null if it should not be encrypted
+	 * @param executor the executor to derive the key and encrypt the chunks on
+	 * @return the created FHFile, completes exceptionally if an I/O error occurs or the creation of the FHFile failed
+	 */
+	static CompletableFuture<FHFile> hide(Path payload, Path carrier, Path destination, byte[] password, Executor executor) {
+		long start = FHInstrumentation.start();
+		CompletableFuture<FHFile> result = CompletableFuture.supplyAsync(() -> new Hide(payload, carrier, destination, password, executor), executor)
+				.thenCompose(Hide::run);
+		return result.whenComplete((file, e) -> FHInstrumentation.operation(FHMetrics.Operation.HIDE, start));
+	}
+
+	/**
+	 * A single hiding of data, which copies the carrier and writes the head, the hidden data and the end.
+	 * @author alex1s
+	 */
+	private static final class Hide {
+
+		/**
+		 * location to save the result
+		 */
+		private final Path destination;
+		/**
+		 * weather the data is appended to the carrier
+		 */
+		private final boolean inPlace;
+		/**
+		 * the length of the carrier
+		 */
+		private final long originalFileLength;
+		/**
+		 * the executor to encrypt the chunks on
+		 */
+		private final Executor executor;
+		/**
+		 * the cipher to encrypt the chunks with, null if the data should not be encrypted
+		 */
+		private final FHChunkCipher cipher;
+		/**
+		 * the head of the hidden content
+		 */
+		private final ByteBuffer head;
+		/**
+		 * the channel of the carrier, null if the data is appended to it
+		 */
+		private AsynchronousFileChannel carrier;
+		/**
+		 * the channel of the data to be hidden
+		 */
+		private AsynchronousFileChannel payload;
+		/**
+		 * the channel of the result
+		 */
+		private AsynchronousFileChannel out;
+
+		/**
+		 * Opens the files and derives the key, which blocks the executor.
+		 * @param payload the file of the data to be hidden
+		 * @param carrier the file which should contain the hidden data
+		 * @param destination location to save the result
+		 * @param password the password to encrypt the hidden data with, null if it should not be encrypted
+		 * @param executor the executor to encrypt the chunks on
+		 */
+		Hide(Path payload, Path carrier, Path destination, byte[] password, Executor executor) {
+			this.destination = destination;
+			this.executor = executor;
+			try {
+				this.inPlace = Files.exists(destination) && Files.isSameFile(carrier, destination);
+				this.originalFileLength = Files.size(carrier);
+
+				if(password == null) {
+					this.cipher = null;
+					this.head = FHFile.FHHead();
+				} else {
+					byte[] nonce = FHChunkCipher.newNonce();
+					byte[] slots = new byte[FHKeySlots.LENGTH];
+					this.cipher = FHKeySlots.create(password, nonce, FHChunkCipher.DEFAULT_CHUNK_SIZE, slots);
+					this.head = FHFile.FHHead(FHFile.FLAG_KEY_SLOTS, FHChunkCipher.DEFAULT_CHUNK_SIZE, nonce, slots);
+				}
+
+				try {
+					this.payload = AsynchronousFileChannel.open(payload, StandardOpenOption.READ);
+					if(this.payload.size() > FHChunkCipher.MAX_CHUNKS * FHChunkCipher.DEFAULT_CHUNK_SIZE) throw new IOException("Too much data to hide");
+					if(!this.inPlace) this.carrier = AsynchronousFileChannel.open(carrier, StandardOpenOption.READ);
+					this.out = this.inPlace
+							? AsynchronousFileChannel.open(destination, StandardOpenOption.WRITE)
+							: AsynchronousFileChannel.open(destination, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+				} catch (IOException | RuntimeException e) {
+					close();
+					throw e;
+				}
+			} catch (IOException | GeneralSecurityException e) {
+				throw new CompletionException(e);
+			}
+		}
+
+		/**
+		 * Writes the result and checks it.
+		 * @return the created FHFile
+		 */
+		CompletableFuture<FHFile> run() {
+			long position = this.originalFileLength;
+			CompletableFuture<Long> copied = this.inPlace
+					? CompletableFuture.completedFuture(position)
+					: copy(this.carrier, 0, position, this.out, 0, this.executor).thenApply(n -> position);
+			return copied
+					.thenCompose(p -> write(this.out, this.head, p).thenApply(n -> p + n))
+					.thenCompose(p -> this.cipher == null
+							? copy(this.payload, 0, size(this.payload), this.out, p, this.executor).thenApply(n -> p + n)
+							: encrypt(p))
+					.thenCompose(p -> write(this.out, FHFile.FHEnd(this.originalFileLength), p))
+					.handle((n, e) -> {
+						close();
+						if(e != null) return this.<FHFile>undo(e);
+						return FHAsync.probe(this.destination).thenCompose(header -> header.isPresent()
+								? CompletableFuture.completedFuture(new FHFile(header.get()))
+								: this.<FHFile>undo(new FHFileCreationFailedException()));
+					})
+					.thenCompose(future -> future);
+		}
+
+		/**
+		 * Encrypts the data to be hidden in batches of chunks.
+		 * @param position the position of the first chunk in the result
+		 * @return the position after the last chunk
+		 */
+		private CompletableFuture<Long> encrypt(long position) {
+			int chunkSize = FHChunkCipher.DEFAULT_CHUNK_SIZE;
+			long length = size(this.payload);
+			ByteBuffer plainText = FHBufferPool.borrow(BATCH_CHUNKS * chunkSize);
+			ByteBuffer cipherText = FHBufferPool.borrow(BATCH_CHUNKS * (chunkSize + FHChunkCipher.TAG_BYTES));
+			long[] state = {0, position};
+
+			return repeat(() -> {
+				long read = state[0];
+				int n = (int) Math.min(plainText.capacity(), length - read);
+				boolean last = read + n == length;
+				long firstIndex = read / chunkSize;
+				return read(this.payload, plainText.clear().limit(n), read)
+						.thenCompose(m -> crypt(this.cipher, OperationMode.ENCRYPT_MODE, firstIndex, plainText.flip(), chunkSize, last, cipherText.clear(), this.executor))
+						.thenCompose(c -> write(this.out, cipherText, state[1]))
+						.thenApply(c -> {
+							state[0] += n;
+							state[1] += c;
+							return !last;
+						});
+			}, this.executor).whenComplete((v, e) -> {
+				FHBufferPool.giveBack(plainText);
+				FHBufferPool.giveBack(cipherText);
+			}).thenApply(v -> state[1]);
+		}
+
+		/**
+		 * Removes what has been written and fails.
+		 * @param <T> the type of the result
+		 * @param e the cause of the failure
+		 * @return a failed future
+		 */
+		private <T> CompletableFuture<T> undo(Throwable e) {
+			try {
+				if(this.inPlace) {
+					try(AsynchronousFileChannel channel = AsynchronousFileChannel.open(this.destination, StandardOpenOption.WRITE)) {
+						channel.truncate(this.originalFileLength);
+					}
+				} else {
+					Files.deleteIfExists(this.destination);
+				}
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			return CompletableFuture.failedFuture(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+		}
+
+		/**
+		 * Closes the channels.
+		 */
+		private void close() {
+			FHAsync.close(this.carrier);
+			FHAsync.close(this.payload);
+			FHAsync.close(this.out);
+		}
+	}
+
+	// MARK extracting
+
+	/**
+	 * Extracts the hidden data of a FHFile to a file and replaces any existing file.
+	 * <p>
+	 * Compressed and version 0 files are extracted by {@link FHFile#extract(java.io.File, byte[])} on the executor, as their frames and blocks depend on each other.
+	 * The extraction is reported to the {@link FHMetrics} when the future completes, whether it succeeded or not.
+	 * @param file the FHFile
+	 * @param destination the path to where the hidden data should be extracted to
+	 * @param password the password the hidden data is encrypted with, null if it is not encrypted
+	 * @param executor the executor to derive the key and decrypt the chunks on
+	 * @return completes when the hidden data has been extracted, exceptionally if an I/O error occurs, a chunk can not be decrypted or the file can not be extracted with or without the password
+	 */
+	static CompletableFuture<Void> extract(FHFile file, Path destination, byte[] password, Executor executor) {
+		long start = FHInstrumentation.start();
+		if(file.archive()) return extractFailed(new FHFileArchiveException(), start);
+		if(password == null && file.encrypted()) return extractFailed(new FHFileEncryptedException(), start);
+		if(password != null && !file.encrypted()) return extractFailed(new FHFileUnencryptedException(), start);
+
+		CompletableFuture<Void> result;
+		if(file.compressed() || (password != null && file.version() < 1)) {
+			result = CompletableFuture.runAsync(() -> {
+				try {
+					file.extract(destination.toFile(), password);
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
+			}, executor);
+			return result.whenComplete((v, e) -> FHInstrumentation.operation(FHMetrics.Operation.EXTRACT, start));
+		}
+
+		AsynchronousFileChannel in, out;
+		try {
+			in = AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				out = AsynchronousFileChannel.open(destination, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+			} catch (IOException e) {
+				close(in);
+				throw e;
+			}
+		} catch (IOException e) {
+			return extractFailed(e, start);
+		}
+
+		if(password == null) {
+			result = copy(in, file.offsetStart(), file.offsetEnd() - file.offsetStart(), out, 0, executor).thenApply(n -> null);
+		} else {
+			result = CompletableFuture.supplyAsync(() -> {
+						try {
+							return file.contentCipher(password);
+						} catch (IOException e) {
+							throw new CompletionException(e);
+						}
+					}, executor)
+					.thenCompose(cipher -> segments(file, in, cipher, executor))
+					.thenCompose(cipher -> decrypt(file, in, out, cipher, executor));
+		}
+		return result.whenComplete((v, e) -> {
+			close(in);
+			close(out);
+			FHInstrumentation.operation(FHMetrics.Operation.EXTRACT, start);
+		});
+	}
+
+	/**
+	 * Reports an extraction that failed before it started.
+	 * @param e the exception it failed with
+	 * @param start the time it started, from {@link FHInstrumentation#start()}
+	 * @return a future completed exceptionally with the exception
+	 */
+	private static CompletableFuture<Void> extractFailed(Exception e, long start) {
+		FHInstrumentation.operation(FHMetrics.Operation.EXTRACT, start);
+		return CompletableFuture.failedFuture(e);
+	}
+
+	/**
+	 * Reads the segment table of a FHFile if data has been appended to it.
+	 * @param file the FHFile
+	 * @param in the channel of the FHFile
+	 * @param cipher the cipher of the file
+	 * @param executor the executor to decrypt the table on
+	 * @return the cipher of the chunks
+	 */
+	private static CompletableFuture<FHChunkCipher> segments(FHFile file, AsynchronousFileChannel in, FHChunkCipher cipher, Executor executor) {
+		if(!file.segmented()) return CompletableFuture.completedFuture(cipher);
+		if(file.tocLength() > Integer.MAX_VALUE) return CompletableFuture.failedFuture(new IOException(new FHFileCorruptException()));
+
+		ByteBuffer table = ByteBuffer.allocate((int) file.tocLength());
+		long chunks = (file.offsetEnd() - file.offsetStart() + file.chunkSize() + FHChunkCipher.TAG_BYTES - 1) / (file.chunkSize() + FHChunkCipher.TAG_BYTES);
+		return read(in, table, file.offsetEnd()).thenApplyAsync(n -> {
+			table.flip();
+			try {
+				return FHAppend.segments(cipher, table, chunks);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Decrypts the chunks of a FHFile in batches.
+	 * @param file the FHFile
+	 * @param in the channel of the FHFile
+	 * @param out the channel of the destination
+	 * @param cipher the cipher of the chunks
+	 * @param executor the executor to decrypt the chunks on
+	 * @return completes when the chunks have been written
+	 */
+	private static CompletableFuture<Void> decrypt(FHFile file, AsynchronousFileChannel in, AsynchronousFileChannel out, FHChunkCipher cipher, Executor executor) {
+		int chunkSize = file.chunkSize();
+		int storedChunkSize = chunkSize + FHChunkCipher.TAG_BYTES;
+		long offsetStart = file.offsetStart();
+		long offsetEnd = file.offsetEnd();
+		ByteBuffer cipherText = FHBufferPool.borrow(BATCH_CHUNKS * storedChunkSize);
+		ByteBuffer plainText = FHBufferPool.borrow(BATCH_CHUNKS * chunkSize);
+		long[] state = {offsetStart, 0};
+
+		return repeat(() -> {
+			long position = state[0];
+			int n = (int) Math.min(cipherText.capacity(), offsetEnd - position);
+			boolean last = position + n == offsetEnd;
+			long firstIndex = (position - offsetStart) / storedChunkSize;
+			return read(in, cipherText.clear().limit(n), position)
+					.thenCompose(m -> crypt(cipher, OperationMode.DECRYPT_MODE, firstIndex, cipherText.flip(), storedChunkSize, last, plainText.clear(), executor))
+					.thenCompose(p -> write(out, plainText, state[1]))
+					.thenApply(p -> {
+						state[0] += n;
+						state[1] += p;
+						return !last;
+					});
+		}, executor).whenComplete((v, e) -> {
+			FHBufferPool.giveBack(cipherText);
+			FHBufferPool.giveBack(plainText);
+		});
+	}
+
+	// MARK chunks
+
+	/**
+	 * De- or encrypts a batch of chunks, each as a task of its own on the executor.
+	 * @param cipher the cipher
+	 * @param opmode weather to en- or decrypt
+	 * @param firstIndex the index of the first chunk
+	 * @param in the chunks one after the other, from its position to its limit, which is empty for a single empty chunk
+	 * @param inChunkSize the length of a chunk in the input, the last one may be shorter
+	 * @param last weather the last chunk of the batch is the last one of the file
+	 * @param out the buffer to write to from its position, large enough for all chunks
+	 * @param executor the executor to run the tasks on
+	 * @return the number of bytes written to the output, the positions of the buffers are not changed
+	 */
+	private static CompletableFuture<Integer> crypt(FHChunkCipher cipher, OperationMode opmode, long firstIndex, ByteBuffer in, int inChunkSize, boolean last, ByteBuffer out, Executor executor) {
+		int outChunkSize = opmode == OperationMode.ENCRYPT_MODE ? inChunkSize + FHChunkCipher.TAG_BYTES : inChunkSize - FHChunkCipher.TAG_BYTES;
+		int length = in.remaining();
+		int chunks = Math.max(1, (length + inChunkSize - 1) / inChunkSize);
+		List<CompletableFuture<Integer>> tasks = new ArrayList<>(chunks);
+		for(int i = 0; i < chunks; i++) {
+			final int chunk = i;
+			// every chunk works on its own view of the buffers
+			final ByteBuffer src = in.duplicate();
+			src.position(in.position() + chunk * inChunkSize).limit(in.position() + Math.min(length, (chunk + 1) * inChunkSize));
+			final ByteBuffer dst = out.duplicate();
+			dst.position(out.position() + chunk * outChunkSize);
+			tasks.add(CompletableFuture.supplyAsync(() -> {
+				try {
+					return cipher.crypt(opmode, firstIndex + chunk, last && chunk == chunks - 1, src, dst);
+				} catch (GeneralSecurityException e) {
+					throw new CompletionException(new IOException(e));
+				}
+			}, executor));
+		}
+		return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+			int written = 0;
+			for(CompletableFuture<Integer> task : tasks)
+				written += task.join();
+			out.limit(out.position() + written);
+			return written;
+		});
+	}
+
+	// MARK I/O
+
+	/**
+	 * Copies bytes from one channel to another, in steps of {@link #BUFFER_SIZE}.
+	 * @param in the channel to read from
+	 * @param position the position to read from
+	 * @param count the number of bytes to copy
+	 * @param out the channel to write to
+	 * @param outPosition the position to write to
+	 * @param executor the executor to continue on between the steps
+	 * @return the number of bytes copied
+	 */
+	private static CompletableFuture<Long> copy(AsynchronousFileChannel in, long position, long count, AsynchronousFileChannel out, long outPosition, Executor executor) {
+		ByteBuffer buffer = FHBufferPool.borrow(BUFFER_SIZE);
+		long[] copied = {0};
+		return repeat(() -> {
+			buffer.clear().limit((int) Math.min(buffer.capacity(), count - copied[0]));
+			return read(in, buffer, position + copied[0])
+					.thenCompose(n -> write(out, buffer.flip(), outPosition + copied[0]))
+					.thenApply(n -> (copied[0] += n) < count);
+		}, executor).whenComplete((v, e) -> FHBufferPool.giveBack(buffer)).thenApply(v -> copied[0]);
+	}
+
+	/**
+	 * Reads until a buffer is full.
+	 * @param channel the channel to read from
+	 * @param buffer the buffer to read into
+	 * @param position the position to read from
+	 * @return the number of bytes read, completes exceptionally if the end of the channel is reached before
+	 */
+	static CompletableFuture<Integer> read(AsynchronousFileChannel channel, ByteBuffer buffer, long position) {
+		return new Transfer(channel, buffer, position, false).start();
+	}
+
+	/**
+	 * Writes a whole buffer.
+	 * @param channel the channel to write to
+	 * @param buffer the buffer to write
+	 * @param position the position to write to
+	 * @return the number of bytes written
+	 */
+	static CompletableFuture<Integer> write(AsynchronousFileChannel channel, ByteBuffer buffer, long position) {
+		return new Transfer(channel, buffer, position, true).start();
+	}
+
+	/**
+	 * Completion handler that reads or writes the remaining bytes of a buffer, like {@link FHChannels#readFully(java.nio.channels.FileChannel, ByteBuffer, long)}.
+	 * @author alex1s
+	 */
+	private static final class Transfer implements CompletionHandler<Integer, Void> {
+
+		/**
+		 * the channel to read from or write to
+		 */
+		private final AsynchronousFileChannel channel;
+		/**
+		 * the buffer to read into or write from
+		 */
+		private final ByteBuffer buffer;
+		/**
+		 * the position of the first byte
+		 */
+		private final long position;
+		/**
+		 * weather to write instead of read
+		 */
+		private final boolean write;
+		/**
+		 * the number of bytes transferred, once all have been
+		 */
+		private final CompletableFuture<Integer> future = new CompletableFuture<>();
+		/**
+		 * the number of bytes transferred so far
+		 */
+		private int transferred = 0;
+
+		/**
+		 * Constructor for a transfer, which is started by {@link #start()}.
+		 * @param channel the channel to read from or write to
+		 * @param buffer the buffer to read into or write from
+		 * @param position the position of the first byte
+		 * @param write weather to write instead of read
+		 */
+		Transfer(AsynchronousFileChannel channel, ByteBuffer buffer, long position, boolean write) {
+			this.channel = channel;
+			this.buffer = buffer;
+			this.position = position;
+			this.write = write;
+		}
+
+		/**
+		 * Starts the transfer.
+		 * @return the number of bytes transferred
+		 */
+		CompletableFuture<Integer> start() {
+			next();
+			return this.future;
+		}
+
+		/**
+		 * Transfers the remaining bytes, or completes if there are none.
+		 */
+		private void next() {
+			if(!this.buffer.hasRemaining()) {
+				if(this.write) FHInstrumentation.written(this.transferred);
+				else FHInstrumentation.read(this.transferred);
+				this.future.complete(this.transferred);
+				return;
+			}
+			try {
+				if(this.write) this.channel.write(this.buffer, this.position + this.transferred, null, this);
+				else this.channel.read(this.buffer, this.position + this.transferred, null, this);
+			} catch (RuntimeException e) {
+				this.future.completeExceptionally(e);
+			}
+		}
+
+		@Override
+		public void completed(Integer result, Void attachment) {
+			if(result < 0) {
+				this.future.completeExceptionally(new EOFException());
+				return;
+			}
+			this.transferred += result;
+			next();
+		}
+
+		@Override
+		public void failed(Throwable e, Void attachment) {
+			this.future.completeExceptionally(e);
+		}
+	}
+
+	// MARK helper functions
+
+	/**
+	 * Runs steps one after the other until a step returns false.
+	 * <p>
+	 * Each step is started on the executor after the previous one has completed, so the stack does not grow with the number of steps.
+	 * @param step supplies the next step, which returns weather there are more steps
+	 * @param executor the executor to start the steps on
+	 * @return completes when the last step has completed, exceptionally if a step failed
+	 */
+	private static CompletableFuture<Void> repeat(Supplier<CompletableFuture<Boolean>> step, Executor executor) {
+		Repeat repeat = new Repeat(step, executor);
+		repeat.next();
+		return repeat.result;
+	}
+
+	/**
+	 * State of {@link FHAsync#repeat(Supplier, Executor)}.
+	 * @author alex1s
+	 */
+	private static final class Repeat implements BiConsumer<Boolean, Throwable> {
+
+		/**
+		 * supplies the next step
+		 */
+		private final Supplier<CompletableFuture<Boolean>> step;
+		/**
+		 * the executor to start the steps on
+		 */
+		private final Executor executor;
+		/**
+		 * completes when the last step has completed
+		 */
+		private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+		/**
+		 * Constructor for the state, the first step is started by {@link #next()}.
+		 * @param step supplies the next step
+		 * @param executor the executor to start the steps on
+		 */
+		Repeat(Supplier<CompletableFuture<Boolean>> step, Executor executor) {
+			this.step = step;
+			this.executor = executor;
+		}
+
+		/**
+		 * Starts the next step.
+		 */
+		void next() {
+			try {
+				this.step.get().whenCompleteAsync(this, this.executor);
+			} catch (RuntimeException e) {
+				this.result.completeExceptionally(e);
+			}
+		}
+
+		@Override
+		public void accept(Boolean more, Throwable e) {
+			if(e != null) this.result.completeExceptionally(e);
+			else if(more) next();
+			else this.result.complete(null);
+		}
+	}
+
+	/**
+	 * The size of a channel.
+	 * @param channel the channel
+	 * @return the size
+	 */
+	private static long size(AsynchronousFileChannel channel) {
+		try {
+			return channel.size();
+		} catch (IOException e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	/**
+	 * Closes a channel, ignoring errors as nothing is written on close.
+	 * @param channel the channel, may be null
+	 */
+	private static void close(AsynchronousFileChannel channel) {
+		if(channel == null) return;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+	}
+}
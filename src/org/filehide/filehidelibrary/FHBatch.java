@@ -0,0 +1,659 @@
+package org.filehide.filehidelibrary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs batches of hide and extract jobs in parallel.
+ * <p>
+ * The jobs are grouped by the device they write to and every device runs at most a limited number of jobs at once,
+ * so a slow device does not take all the threads and fast devices are not held back by it.
+ * A job that fails does not abort the batch, its exception is recorded in its result instead.
+ * @author alex1s
+ */
+public class FHBatch {
+
+	/**
+	 * The number of threads running jobs if nothing else is specified.
+	 */
+	public static final int DEFAULT_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * The number of jobs writing to the same device at once if nothing else is specified.
+	 */
+	public static final int DEFAULT_JOBS_PER_DEVICE = 4;
+
+	/**
+	 * The lane the current thread is handing on to the executor, so a lane that is run in the same thread can be told from one run by another thread.
+	 */
+	private static final ThreadLocal<Lane> HANDING_ON = new ThreadLocal<>();
+
+	/**
+	 * The executor running the jobs, null if every batch uses a pool of its own.
+	 */
+	private final Executor executor;
+	/**
+	 * The number of threads of the pool of a batch, if there is no executor.
+	 */
+	private final int threads;
+	/**
+	 * The number of jobs writing to the same device at once.
+	 */
+	private final int jobsPerDevice;
+
+	/**
+	 * Constructs a FHBatch using {@link #DEFAULT_THREADS} threads and {@link #DEFAULT_JOBS_PER_DEVICE} jobs per device.
+	 */
+	public FHBatch() {
+		this(DEFAULT_THREADS, DEFAULT_JOBS_PER_DEVICE);
+	}
+
+	/**
+	 * Constructs a FHBatch running every batch on a pool of its own.
+	 * @param threads the number of threads running jobs
+	 * @param jobsPerDevice the number of jobs writing to the same device at once
+	 */
+	public FHBatch(int threads, int jobsPerDevice) {
+		if(threads < 1 || jobsPerDevice < 1) throw new IllegalArgumentException();
+		this.executor = null;
+		this.threads = threads;
+		this.jobsPerDevice = jobsPerDevice;
+	}
+
+	/**
+	 * Constructs a FHBatch running the jobs on the given executor.
+	 * <p>
+	 * The executor is not shut down by the FHBatch. An executor starting a thread for every task, like one of virtual threads, may be used,
+	 * as the number of jobs running at once is still limited by the devices.
+	 * @param executor the executor running the jobs
+	 * @param jobsPerDevice the number of jobs writing to the same device at once
+	 */
+	public FHBatch(Executor executor, int jobsPerDevice) {
+		if(executor == null || jobsPerDevice < 1) throw new IllegalArgumentException();
+		this.executor = executor;
+		this.threads = 0;
+		this.jobsPerDevice = jobsPerDevice;
+	}
+
+	// MARK running
+
+	/**
+	 * Hides the same file inside many files and waits for all of them to finish, see {@link #fanOut(File, Map, String)}.
+	 * @param payload the file to hide
+	 * @param carriers the location to save the result to by every file to hide in, the file itself to hide in it directly
+	 * @return the results of the jobs, in the iteration order of the carriers, and the statistics of the batch
+	 * @throws IOException if the payload can not be read or the batch has been interrupted
+	 */
+	public Result fanOut(File payload, Map<File, File> carriers) throws IOException {
+		return fanOut(payload, carriers, null, null);
+	}
+
+	/**
+	 * Hides the same file encrypted inside many files and waits for all of them to finish.
+	 * <p>
+	 * The payload is read and encrypted only once into a spool next to the first result, whose content is then transferred by the kernel
+	 * after every carrier in parallel jobs. So the password is only derived once and the work per carrier is copying it.
+	 * The carriers are taken in the iteration order of the map, so a map with a defined order like a {@link java.util.LinkedHashMap} should be used
+	 * if the order of the results or the directory of the spool matter.
+	 * All results share the nonce, the content key and the key slots, so they can be recognized as holding the same hidden data.
+	 * Their passwords can still be changed one by one, as every key slot only ever holds the content key.
+	 * @param payload the file to hide
+	 * @param carriers the location to save the result to by every file to hide in, the file itself to hide in it directly
+	 * @param password the password to encrypt the hidden data with
+	 * @return the results of the jobs, in the iteration order of the carriers, and the statistics of the batch
+	 * @throws IOException if the payload can not be read or encrypted or the batch has been interrupted
+	 */
+	public Result fanOut(File payload, Map<File, File> carriers, String password) throws IOException {
+		if(password == null) throw new IllegalArgumentException();
+		return fanOut(payload, carriers, password, password.getBytes(FHCipher.CHARSET));
+	}
+
+	/**
+	 * Spools the payload and runs a hide job for every carrier.
+	 * @param payload the file to hide
+	 * @param carriers the location to save the result to by every file to hide in
+	 * @param password the password, null if the hidden data is not encrypted
+	 * @param passwordBytes the encoded password, null if the hidden data is not encrypted
+	 * @return the results of the jobs and the statistics of the batch
+	 * @throws IOException if the payload can not be spooled or the batch has been interrupted
+	 */
+	private Result fanOut(File payload, Map<File, File> carriers, String password, byte[] passwordBytes) throws IOException {
+		if(payload == null || carriers == null || carriers.isEmpty()) throw new IllegalArgumentException();
+		Path directory = carriers.values().iterator().next().getAbsoluteFile().toPath().getParent();
+		Path spool = FHFile.spool(payload, directory, passwordBytes);
+		try {
+			List<Job> jobs = new ArrayList<>(carriers.size());
+			for(Map.Entry<File, File> carrier : carriers.entrySet())
+				jobs.add(new Job(payload, carrier.getKey(), carrier.getValue(), password, spool));
+			return run(jobs);
+		} finally {
+			Files.deleteIfExists(spool);
+		}
+	}
+
+	/**
+	 * Runs a batch of jobs and waits for all of them to finish.
+	 * @param jobs the jobs
+	 * @return the results of the jobs, in the order of the jobs, and the statistics of the batch
+	 * @throws IOException if the batch has been interrupted
+	 */
+	public Result run(List<Job> jobs) throws IOException {
+		JobResult[] results = new JobResult[jobs.size()];
+		CountDownLatch done = new CountDownLatch(jobs.size());
+
+		// the jobs of every device are queued in a lane of their own
+		Map<FileStore, Lane> lanes = new HashMap<>();
+		Map<Path, FileStore> devices = new HashMap<>();
+		for(int i = 0; i < jobs.size(); i++)
+			lanes.computeIfAbsent(device(jobs.get(i), devices), device -> new Lane()).pending.add(i);
+
+		ExecutorService pool = this.executor == null ? newPool(this.threads) : null;
+		Executor executor = pool == null ? this.executor : pool;
+		long start = System.nanoTime();
+		try {
+			for(Lane lane : lanes.values())
+				for(int i = 0; i < this.jobsPerDevice && i < lane.pending.size(); i++)
+					executor.execute(() -> runLane(lane, jobs, results, done, executor));
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} finally {
+			if(pool != null) pool.shutdownNow();
+		}
+		return new Result(results, System.nanoTime() - start);
+	}
+
+	/**
+	 * Runs the next job of a lane and then hands the lane on to the executor again, so the threads are shared fairly between the devices.
+	 * <p>
+	 * An executor that runs the lane in the thread handing it on, like a direct one, does not run it there but leaves it to the loop of that thread,
+	 * so the stack does not grow with every job.
+	 * @param lane the lane
+	 * @param jobs the jobs of the batch
+	 * @param results receives the result of the job
+	 * @param done counted down for every finished job
+	 * @param executor the executor running the jobs
+	 */
+	private static void runLane(Lane lane, List<Job> jobs, JobResult[] results, CountDownLatch done, Executor executor) {
+		if(HANDING_ON.get() == lane) {
+			HANDING_ON.remove();
+			return;
+		}
+		Integer index;
+		while((index = lane.pending.poll()) != null) {
+			try {
+				results[index] = jobs.get(index).run();
+			} catch (Throwable e) {
+				// even an error like running out of memory only fails the job, the lane goes on and the batch does not wait for it forever
+				results[index] = new JobResult(jobs.get(index), null, 0, 0, e);
+			} finally {
+				done.countDown();
+			}
+			if(lane.pending.isEmpty()) return;
+			HANDING_ON.set(lane);
+			try {
+				executor.execute(() -> runLane(lane, jobs, results, done, executor));
+			} catch (RejectedExecutionException e) {
+				// the lane goes on in the current thread
+				HANDING_ON.remove();
+			}
+			if(HANDING_ON.get() == lane) {
+				HANDING_ON.remove();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Finds the device a job writes to.
+	 * @param job the job
+	 * @param devices the devices of the directories already looked up
+	 * @return the device, null if it could not be found
+	 */
+	private static FileStore device(Job job, Map<Path, FileStore> devices) {
+		Path directory;
+		try {
+			directory = job.destination.getAbsoluteFile().toPath().getParent();
+		} catch (InvalidPathException e) {
+			// the job will fail on its own
+			return null;
+		}
+		if(directory == null) return null;
+		return devices.computeIfAbsent(directory, key -> {
+			try {
+				return Files.getFileStore(key);
+			} catch (IOException e) {
+				// the job will fail on its own
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Creates the pool running a single batch.
+	 * @param threads the number of threads
+	 * @return the pool
+	 */
+	private static ExecutorService newPool(int threads) {
+		AtomicInteger threadNumber = new AtomicInteger();
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+				runnable -> {
+					Thread thread = new Thread(runnable, "FHBatch-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	/**
+	 * The jobs of a batch writing to the same device.
+	 * @author alex1s
+	 */
+	private static final class Lane {
+		/**
+		 * The indices of the jobs that have not been started yet.
+		 */
+		final Queue<Integer> pending = new ConcurrentLinkedQueue<>();
+	}
+
+	// MARK jobs
+
+	/**
+	 * A single job of a batch, hiding a file inside a file or extracting the hidden file of a FHFile.
+	 * @author alex1s
+	 */
+	public static final class Job {
+		/**
+		 * The file to hide or the FHFile to extract from.
+		 */
+		private final File source;
+		/**
+		 * The file to hide in, null for extract jobs.
+		 */
+		private final File carrier;
+		/**
+		 * The file to write the result to.
+		 */
+		private final File destination;
+		/**
+		 * The password, null if the hidden data is not encrypted.
+		 */
+		private final String password;
+		/**
+		 * The spool of the source, see {@link FHFile#hideSpooled(Path, Path, Path)}, null if the source has to be read by the job.
+		 */
+		private final Path spool;
+
+		/**
+		 * Constructs a job.
+		 * @param source the file to hide or the FHFile to extract from
+		 * @param carrier the file to hide in, null for extract jobs
+		 * @param destination the file to write the result to
+		 * @param password the password, null if the hidden data is not encrypted
+		 */
+		private Job(File source, File carrier, File destination, String password) {
+			this(source, carrier, destination, password, null);
+		}
+
+		/**
+		 * Constructs a job, which hides a spool if there is one.
+		 * @param source the file to hide or the FHFile to extract from
+		 * @param carrier the file to hide in, null for extract jobs
+		 * @param destination the file to write the result to
+		 * @param password the password, null if the hidden data is not encrypted
+		 * @param spool the spool of the source, null if the job reads the source itself
+		 */
+		private Job(File source, File carrier, File destination, String password, Path spool) {
+			if(source == null || destination == null) throw new IllegalArgumentException();
+			this.source = source;
+			this.carrier = carrier;
+			this.destination = destination;
+			this.password = password;
+			this.spool = spool;
+		}
+
+		/**
+		 * Creates a job hiding a file inside a copy of a file, see {@link FHFile#hide(File, File, File)}.
+		 * @param payload the file to hide
+		 * @param carrier the file to hide in, the same as the destination to hide in it directly
+		 * @param destination location to save the result
+		 * @return the job
+		 */
+		public static Job hide(File payload, File carrier, File destination) {
+			return new Job(payload, carrier, destination, null);
+		}
+
+		/**
+		 * Creates a job hiding a file inside a copy of a file and encrypting it, see {@link FHFile#hide(File, File, File, String)}.
+		 * @param payload the file to hide
+		 * @param carrier the file to hide in, the same as the destination to hide in it directly
+		 * @param destination location to save the result
+		 * @param password the password to encrypt the hidden data with
+		 * @return the job
+		 */
+		public static Job hide(File payload, File carrier, File destination, String password) {
+			if(password == null) throw new IllegalArgumentException();
+			return new Job(payload, carrier, destination, password);
+		}
+
+		/**
+		 * Creates a job extracting the hidden file of a FHFile, see {@link FHFile#extractHiddenData(File)}.
+		 * @param file the FHFile
+		 * @param destination location to save the hidden file
+		 * @return the job
+		 */
+		public static Job extract(File file, File destination) {
+			return new Job(file, null, destination, null);
+		}
+
+		/**
+		 * Creates a job extracting the encrypted hidden file of a FHFile, see {@link FHFile#extractHiddenData(File, String)}.
+		 * @param file the FHFile
+		 * @param destination location to save the hidden file
+		 * @param password the password to decrypt the hidden data with
+		 * @return the job
+		 */
+		public static Job extract(File file, File destination, String password) {
+			if(password == null) throw new IllegalArgumentException();
+			return new Job(file, null, destination, password);
+		}
+
+		/**
+		 * Runs the job.
+		 * @return the result of the job, containing the exception if it failed
+		 */
+		JobResult run() {
+			long start = System.nanoTime();
+			try {
+				FHFile file;
+				long bytes;
+				if(this.carrier != null) {
+					bytes = this.source.length();
+					if(this.spool != null) file = FHFile.hideSpooled(this.spool, this.carrier.toPath(), this.destination.toPath());
+					else file = this.password == null
+							? FHFile.hide(this.source, this.carrier, this.destination)
+							: FHFile.hide(this.source, this.carrier, this.destination, this.password);
+				} else {
+					file = new FHFile(this.source);
+					if(this.password == null) file.extractHiddenData(this.destination);
+					else file.extractHiddenData(this.destination, this.password);
+					bytes = this.destination.length();
+				}
+				return new JobResult(this, file, bytes, System.nanoTime() - start, null);
+			} catch (IOException | FHException | FHRuntimeException e) {
+				return new JobResult(this, null, 0, System.nanoTime() - start, e);
+			}
+		}
+
+		/**
+		 * Tells weather this is a hide job.
+		 * @return true if the job hides a file, false if it extracts one
+		 */
+		public boolean hide() {
+			return this.carrier != null;
+		}
+
+		/**
+		 * getter for source
+		 * @return the file to hide or the FHFile to extract from
+		 */
+		public File source() {
+			return this.source;
+		}
+
+		/**
+		 * getter for destination
+		 * @return the file the result is written to
+		 */
+		public File destination() {
+			return this.destination;
+		}
+
+		@Override
+		public String toString() {
+			return (hide() ? "hide " + this.source + " in " + this.carrier : "extract " + this.source) + " to " + this.destination;
+		}
+	}
+
+	/**
+	 * The result of a single job.
+	 * @author alex1s
+	 */
+	public static final class JobResult {
+		/**
+		 * The job.
+		 */
+		private final Job job;
+		/**
+		 * The FHFile created or extracted from, null if the job failed.
+		 */
+		private final FHFile file;
+		/**
+		 * The number of bytes hidden or extracted.
+		 */
+		private final long bytes;
+		/**
+		 * The duration of the job in nanoseconds.
+		 */
+		private final long nanos;
+		/**
+		 * The exception the job failed with, null if it succeeded.
+		 */
+		private final Throwable exception;
+
+		/**
+		 * Constructs the result of a job.
+		 * @param job the job
+		 * @param file the FHFile created or extracted from, null if the job failed
+		 * @param bytes the number of bytes hidden or extracted
+		 * @param nanos the duration of the job in nanoseconds
+		 * @param exception the exception the job failed with, null if it succeeded
+		 */
+		JobResult(Job job, FHFile file, long bytes, long nanos, Throwable exception) {
+			this.job = job;
+			this.file = file;
+			this.bytes = bytes;
+			this.nanos = nanos;
+			this.exception = exception;
+		}
+
+		/**
+		 * getter for job
+		 * @return the job
+		 */
+		public Job job() {
+			return this.job;
+		}
+
+		/**
+		 * getter for file
+		 * @return the FHFile created or extracted from, null if the job failed
+		 */
+		public FHFile file() {
+			return this.file;
+		}
+
+		/**
+		 * getter for bytes
+		 * @return the number of bytes hidden or extracted
+		 */
+		public long bytes() {
+			return this.bytes;
+		}
+
+		/**
+		 * getter for nanos
+		 * @return the duration of the job in nanoseconds
+		 */
+		public long nanos() {
+			return this.nanos;
+		}
+
+		/**
+		 * getter for exception
+		 * @return the exception the job failed with, usually an {@link IOException}, {@link FHException} or {@link FHRuntimeException}
+		 * but any other exception or error thrown by the job as well, null if it succeeded
+		 */
+		public Throwable exception() {
+			return this.exception;
+		}
+
+		/**
+		 * Tells weather the job succeeded.
+		 * @return true if the job succeeded
+		 */
+		public boolean succeeded() {
+			return this.exception == null;
+		}
+
+		@Override
+		public String toString() {
+			return this.job + (succeeded() ? ": " + this.bytes + " bytes" : ": " + this.exception);
+		}
+	}
+
+	// MARK statistics
+
+	/**
+	 * The results and statistics of a finished batch.
+	 * @author alex1s
+	 */
+	public static final class Result {
+		/**
+		 * The results of the jobs, in the order of the jobs.
+		 */
+		private final List<JobResult> results;
+		/**
+		 * The durations of the jobs in nanoseconds, sorted.
+		 */
+		private final long[] latencies;
+		/**
+		 * The number of jobs that failed.
+		 */
+		private final long failed;
+		/**
+		 * The number of bytes hidden or extracted.
+		 */
+		private final long bytes;
+		/**
+		 * The duration of the batch in nanoseconds.
+		 */
+		private final long nanos;
+
+		/**
+		 * Constructs the result of a batch.
+		 * @param results the results of the jobs, in the order of the jobs
+		 * @param nanos the duration of the batch in nanoseconds
+		 */
+		Result(JobResult[] results, long nanos) {
+			this.results = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(results)));
+			this.latencies = new long[results.length];
+			long failed = 0;
+			long bytes = 0;
+			for(int i = 0; i < results.length; i++) {
+				this.latencies[i] = results[i].nanos;
+				bytes += results[i].bytes;
+				if(!results[i].succeeded()) failed++;
+			}
+			Arrays.sort(this.latencies);
+			this.failed = failed;
+			this.bytes = bytes;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * getter for results
+		 * @return the results of the jobs, in the order of the jobs
+		 */
+		public List<JobResult> results() {
+			return this.results;
+		}
+
+		/**
+		 * getter for failed
+		 * @return the number of jobs that failed
+		 */
+		public long failed() {
+			return this.failed;
+		}
+
+		/**
+		 * getter for bytes
+		 * @return the number of bytes hidden or extracted
+		 */
+		public long bytes() {
+			return this.bytes;
+		}
+
+		/**
+		 * getter for nanos
+		 * @return the duration of the batch in nanoseconds
+		 */
+		public long nanos() {
+			return this.nanos;
+		}
+
+		/**
+		 * The throughput of the batch.
+		 * @return the number of megabytes (10^6 bytes) hidden or extracted per second
+		 */
+		public double megabytesPerSecond() {
+			return this.nanos == 0 ? 0 : this.bytes * 1e3 / this.nanos;
+		}
+
+		/**
+		 * The duration of the jobs at the given percentile, including the jobs that failed.
+		 * @param percentile the percentile, from 0 to 100
+		 * @return the duration in nanoseconds, 0 if the batch was empty
+		 */
+		public long latency(double percentile) {
+			if(percentile < 0 || percentile > 100) throw new IllegalArgumentException();
+			if(this.latencies.length == 0) return 0;
+			int rank = (int) Math.ceil(percentile / 100 * this.latencies.length);
+			return this.latencies[Math.max(0, rank - 1)];
+		}
+
+		/**
+		 * The median duration of the jobs.
+		 * @return the duration in nanoseconds
+		 */
+		public long p50() {
+			return latency(50);
+		}
+
+		/**
+		 * The 99th percentile of the durations of the jobs.
+		 * @return the duration in nanoseconds
+		 */
+		public long p99() {
+			return latency(99);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d jobs (%d failed), %d bytes, %.1f MB/s, p50 %.3f ms, p99 %.3f ms",
+					this.results.size(), this.failed, this.bytes, megabytesPerSecond(), p50() / 1e6, p99() / 1e6);
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package org.filehide.filehidelibrary;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of direct buffers shared by all hide and extract operations.
+ * <p>
+ * The channel based paths borrow their buffers from the pool and give them back once they are done, so in a steady state no buffers are allocated per operation.
+ * Every buffer size is a size class of its own, FileHide only uses a few of them (e.g. {@link FHChannels#TRANSFER_BUFFER_SIZE} and batches of chunks).
+ * The pool keeps at most {@link #capacity()} bytes of idle buffers, buffers given back beyond that are left to the garbage collector.
+ * @author alex1s
+ */
+public final class FHBufferPool {
+
+	/**
+	 * The number of bytes of idle buffers kept by default.
+	 */
+	public static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+
+	/**
+	 * The idle buffers by their capacity.
+	 */
+	private static final Map<Integer, Queue<ByteBuffer>> CLASSES = new ConcurrentHashMap<>();
+	/**
+	 * The number of bytes of idle buffers that may be kept.
+	 */
+	private static volatile long capacity = DEFAULT_CAPACITY;
+	/**
+	 * The number of bytes of idle buffers.
+	 */
+	private static final AtomicLong pooledBytes = new AtomicLong();
+
+	// MARK counters
+
+	/**
+	 * The number of buffers borrowed.
+	 */
+	private static final LongAdder borrowed = new LongAdder();
+	/**
+	 * The number of buffers borrowed that had to be allocated.
+	 */
+	private static final LongAdder allocated = new LongAdder();
+	/**
+	 * The number of buffers given back.
+	 */
+	private static final LongAdder returned = new LongAdder();
+	/**
+	 * The number of buffers given back that have not been kept, as the pool was full.
+	 */
+	private static final LongAdder dropped = new LongAdder();
+
+	/**
+	 * Not instantiable.
+	 */
+	private FHBufferPool() {}
+
+	// MARK configuration
+
+	/**
+	 * The number of bytes of idle buffers the pool keeps at most.
+	 * @return the capacity in bytes
+	 */
+	public static long capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Sets the number of bytes of idle buffers the pool keeps at most, idle buffers beyond it are released.
+	 * @param bytes the capacity in bytes, 0 to disable pooling
+	 */
+	public static void setCapacity(long bytes) {
+		if(bytes < 0) throw new IllegalArgumentException("negative capacity: " + bytes);
+		capacity = bytes;
+		for(Queue<ByteBuffer> buffers : CLASSES.values()) {
+			while(pooledBytes.get() > bytes) {
+				ByteBuffer buffer = buffers.poll();
+				if(buffer == null) break;
+				pooledBytes.addAndGet(-buffer.capacity());
+			}
+		}
+	}
+
+	/**
+	 * Releases all idle buffers.
+	 */
+	public static void clear() {
+		for(Queue<ByteBuffer> buffers : CLASSES.values()) {
+			ByteBuffer buffer;
+			while((buffer = buffers.poll()) != null)
+				pooledBytes.addAndGet(-buffer.capacity());
+		}
+	}
+
+	/**
+	 * A snapshot of the counters of the pool.
+	 * @return the stats
+	 */
+	public static Stats stats() {
+		return new Stats(borrowed.sum(), allocated.sum(), returned.sum(), dropped.sum(), pooledBytes.get());
+	}
+
+	// MARK borrowing
+
+	/**
+	 * Borrows a direct buffer from the pool, which has to be given back with {@link #giveBack(ByteBuffer)} once it is not used anymore.
+	 * @param capacity the capacity of the buffer
+	 * @return an empty buffer of exactly this capacity, in big endian byte order
+	 */
+	static ByteBuffer borrow(int capacity) {
+		borrowed.increment();
+		Queue<ByteBuffer> buffers = CLASSES.get(capacity);
+		ByteBuffer buffer = buffers == null ? null : buffers.poll();
+		if(buffer == null) {
+			allocated.increment();
+			return ByteBuffer.allocateDirect(capacity);
+		}
+		pooledBytes.addAndGet(-capacity);
+		return buffer.clear().order(ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * Gives a borrowed buffer back to the pool.
+	 * @param buffer the buffer, which must not be used anymore by the one giving it back, may be null
+	 */
+	static void giveBack(ByteBuffer buffer) {
+		if(buffer == null) return;
+		returned.increment();
+		if(!buffer.isDirect() || pooledBytes.addAndGet(buffer.capacity()) > capacity) {
+			if(buffer.isDirect()) pooledBytes.addAndGet(-buffer.capacity());
+			dropped.increment();
+			return;
+		}
+		CLASSES.computeIfAbsent(buffer.capacity(), c -> new ConcurrentLinkedQueue<>()).offer(buffer);
+	}
+
+	// MARK stats
+
+	/**
+	 * A snapshot of the counters of the {@link FHBufferPool}.
+	 * @author alex1s
+	 */
+	public static final class Stats {
+
+		/**
+		 * The number of buffers borrowed.
+		 */
+		private final long borrowed;
+		/**
+		 * The number of buffers borrowed that had to be allocated.
+		 */
+		private final long allocated;
+		/**
+		 * The number of buffers given back.
+		 */
+		private final long returned;
+		/**
+		 * The number of buffers given back that have not been kept.
+		 */
+		private final long dropped;
+		/**
+		 * The number of bytes of idle buffers.
+		 */
+		private final long pooledBytes;
+
+		/**
+		 * Constructor for a snapshot.
+		 * @param borrowed the number of buffers borrowed
+		 * @param allocated the number of buffers borrowed that had to be allocated
+		 * @param returned the number of buffers given back
+		 * @param dropped the number of buffers given back that have not been kept
+		 * @param pooledBytes the number of bytes of idle buffers
+		 */
+		private Stats(long borrowed, long allocated, long returned, long dropped, long pooledBytes) {
+			this.borrowed = borrowed;
+			this.allocated = allocated;
+			this.returned = returned;
+			this.dropped = dropped;
+			this.pooledBytes = pooledBytes;
+		}
+
+		/**
+		 * getter for borrowed
+		 * @return the number of buffers borrowed
+		 */
+		public long borrowed() {
+			return this.borrowed;
+		}
+
+		/**
+		 * getter for allocated
+		 * @return the number of buffers borrowed that had to be allocated, as the pool had none of their size
+		 */
+		public long allocated() {
+			return this.allocated;
+		}
+
+		/**
+		 * getter for returned
+		 * @return the number of buffers given back
+		 */
+		public long returned() {
+			return this.returned;
+		}
+
+		/**
+		 * getter for dropped
+		 * @return the number of buffers given back that have not been kept, as the pool was full
+		 */
+		public long dropped() {
+			return this.dropped;
+		}
+
+		/**
+		 * getter for pooledBytes
+		 * @return the number of bytes of idle buffers in the pool
+		 */
+		public long pooledBytes() {
+			return this.pooledBytes;
+		}
+
+		@Override
+		public String toString() {
+			return "FHBufferPool.Stats[borrowed=" + this.borrowed + ", allocated=" + this.allocated + ", returned=" + this.returned
+					+ ", dropped=" + this.dropped + ", pooledBytes=" + this.pooledBytes + "]";
+		}
+	}
+}
@@ -0,0 +1,367 @@
+package org.filehide.filehidelibrary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.BadPaddingException;
+
+import org.filehide.filehidelibrary.FHCipher.OperationMode;
+
+/**
+ * Read-only channel over the hidden data of a FHFile or over a single entry of an archive.
+ * <p>
+ * Positions are relative to the start of the hidden data, so {@link #position(long)} is O(1) and reads go directly to the matching range of the file.
+ * Encrypted hidden data is decrypted starting at the block that contains the position, using the previous block of cipher text as iv,
+ * or for files since version 1 chunk by chunk. Compressed hidden data is read frame by frame, every frame is decrypted and decompressed on its own.
+ * @author alex1s
+ */
+class FHChannel implements SeekableByteChannel {
+	/**
+	 * The number of bytes that are decrypted at once.
+	 */
+	static final int WINDOW_SIZE = 64 * 1024;
+
+	/**
+	 * The file which the hidden data will be read from.
+	 */
+	private final FHFile file;
+	/**
+	 * The channel of the file.
+	 */
+	private final FileChannel channel;
+	/**
+	 * The cipher without padding to decrypt the hidden data of a version 0 file with, null if the file is unencrypted.
+	 */
+	private final FHCipher cipher;
+	/**
+	 * The cipher to decrypt the chunks of a file since version 1 with, null if the file is unencrypted.
+	 */
+	private final FHChunkCipher chunkCipher;
+	/**
+	 * The frame table of compressed hidden data, null if the hidden data is not compressed.
+	 */
+	private final FHCompression.Frames frames;
+	/**
+	 * The offset in the file where the hidden data starts.
+	 */
+	private final long start;
+	/**
+	 * The offset in the file where the hidden data ends.
+	 */
+	private final long end;
+	/**
+	 * The index of the first chunk of the hidden data.
+	 */
+	private final long firstChunk;
+	/**
+	 * The number of bytes of hidden data.
+	 */
+	private final long size;
+	/**
+	 * The current position in the hidden data.
+	 */
+	private long position = 0;
+
+	/**
+	 * The cipher text of the window, starting with the block used as iv.
+	 */
+	private final byte[] cipherText;
+	/**
+	 * The decrypted window.
+	 */
+	private final byte[] plainText;
+	/**
+	 * The position in the hidden data where the window starts.
+	 */
+	private long windowStart = 0;
+	/**
+	 * The position in the hidden data where the window ends.
+	 */
+	private long windowEnd = 0;
+
+	//# MARK - init
+
+	/**
+	 * Constructs a FHChannel from a unencrypted FHFile.
+	 * @param file a unencrypted FHFile
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileEncryptedException if the file is encrypted
+	 */
+	FHChannel(FHFile file) throws IOException, FHFileEncryptedException {
+		this(file, file.offsetStart(), file.offsetEnd());
+	}
+
+	/**
+	 * Constructs a FHChannel over a range of a unencrypted FHFile, like an entry of an archive.
+	 * @param file a unencrypted FHFile
+	 * @param start the offset in the file where the range starts
+	 * @param end the offset in the file where the range ends
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileEncryptedException if the file is encrypted
+	 */
+	FHChannel(FHFile file, long start, long end) throws IOException, FHFileEncryptedException {
+		if(file.encrypted()) throw new FHFileEncryptedException();
+
+		this.file = file;
+		this.cipher = null;
+		this.chunkCipher = null;
+		this.frames = null;
+		this.cipherText = null;
+		this.plainText = null;
+		this.start = start;
+		this.end = end;
+		this.firstChunk = 0;
+		this.size = end - start;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	}
+
+	/**
+	 * Constructs a FHChannel from a encrypted FHFile and a FHCipher.
+	 * @param file a encrypted FHFile
+	 * @param cipher a FHCipher in decrypt mode without padding
+	 * @throws IOException if an I/O error occurs or the last block can not be decrypted
+	 * @throws FHFileUnencryptedException if the file is unencrypted
+	 */
+	FHChannel(FHFile file, FHCipher cipher) throws IOException, FHFileUnencryptedException {
+		if(!file.encrypted()) throw new FHFileUnencryptedException();
+
+		this.file = file;
+		this.cipher = cipher;
+		this.chunkCipher = null;
+		this.frames = null;
+		this.start = file.offsetStart();
+		this.end = file.offsetEnd();
+		this.firstChunk = 0;
+		this.cipherText = new byte[FHCipher.BYTES + WINDOW_SIZE];
+		this.plainText = new byte[WINDOW_SIZE];
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+		// the padding of the last block tells the length of the plain text
+		try {
+			long length = this.end - this.start;
+			decrypt(length - FHCipher.BYTES, FHCipher.BYTES);
+			int padding = this.plainText[FHCipher.BYTES - 1];
+			if(padding < 1 || padding > FHCipher.BYTES) throw new BadPaddingException();
+			for(int i = FHCipher.BYTES - padding; i < FHCipher.BYTES; i++)
+				if(this.plainText[i] != padding) throw new BadPaddingException();
+			this.size = length - padding;
+			this.windowEnd = Math.min(this.windowEnd, this.size);
+		} catch (IOException | GeneralSecurityException | RuntimeException e) {
+			this.channel.close();
+			throw e instanceof IOException ? (IOException) e : new IOException(e);
+		}
+	}
+
+	/**
+	 * Constructs a FHChannel from a encrypted FHFile with chunks and a FHChunkCipher.
+	 * @param file a encrypted FHFile since version 1
+	 * @param cipher the FHChunkCipher of the file
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileUnencryptedException if the file is unencrypted
+	 */
+	FHChannel(FHFile file, FHChunkCipher cipher) throws IOException, FHFileUnencryptedException {
+		this(file, cipher, file.offsetStart(), file.offsetEnd(), 0);
+	}
+
+	/**
+	 * Constructs a FHChannel over a range of chunks of a encrypted FHFile, like an entry of an archive.
+	 * @param file a encrypted FHFile since version 1
+	 * @param cipher the FHChunkCipher of the file
+	 * @param start the offset in the file where the first chunk starts
+	 * @param end the offset in the file where the last chunk ends
+	 * @param firstChunk the index of the first chunk
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileUnencryptedException if the file is unencrypted
+	 */
+	FHChannel(FHFile file, FHChunkCipher cipher, long start, long end, long firstChunk) throws IOException, FHFileUnencryptedException {
+		if(!file.encrypted()) throw new FHFileUnencryptedException();
+
+		this.file = file;
+		this.cipher = null;
+		this.chunkCipher = cipher;
+		this.frames = null;
+		this.start = start;
+		this.end = end;
+		this.firstChunk = firstChunk;
+		this.cipherText = new byte[file.chunkSize() + FHChunkCipher.TAG_BYTES];
+		this.plainText = new byte[file.chunkSize()];
+		this.size = FHChunkCipher.plainLength(end - start, file.chunkSize());
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	}
+
+	/**
+	 * Constructs a FHChannel from a compressed FHFile.
+	 * @param file a compressed FHFile
+	 * @param cipher the FHChunkCipher of the file, null if the file is unencrypted
+	 * @param frames the frame table of the file
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileEncryptedException if the file is encrypted but there is no cipher
+	 * @throws FHFileUnencryptedException if the file is unencrypted but there is a cipher
+	 */
+	FHChannel(FHFile file, FHChunkCipher cipher, FHCompression.Frames frames) throws IOException {
+		if(file.encrypted() && cipher == null) throw new FHFileEncryptedException();
+		if(!file.encrypted() && cipher != null) throw new FHFileUnencryptedException();
+
+		this.file = file;
+		this.cipher = null;
+		this.chunkCipher = cipher;
+		this.frames = frames;
+		this.start = file.offsetStart();
+		this.end = file.offsetEnd();
+		this.firstChunk = 0;
+		this.cipherText = new byte[file.chunkSize() + FHChunkCipher.TAG_BYTES];
+		this.plainText = new byte[file.chunkSize()];
+		this.size = frames.size();
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	}
+
+	//# MARK - SeekableByteChannel
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		if(this.position >= this.size) return -1;
+		int len = (int) Math.min(dst.remaining(), this.size - this.position);
+		if(len == 0) return 0;
+
+		if(this.plainText == null) {
+			int limit = dst.limit();
+			dst.limit(dst.position() + len);
+			try {
+				len = this.channel.read(dst, this.start + this.position);
+			} finally {
+				dst.limit(limit);
+			}
+			if(len < 0) return -1;
+			FHInstrumentation.read(len);
+			this.position += len;
+			return len;
+		}
+
+		int read = 0;
+		while(read < len) {
+			if(this.position < this.windowStart || this.position >= this.windowEnd) {
+				long blockStart = this.position / FHCipher.BYTES * FHCipher.BYTES;
+				try {
+					if(this.frames != null)
+						readFrame((int) (this.position / this.file.chunkSize()));
+					else if(this.chunkCipher != null)
+						decryptChunk(this.position / this.file.chunkSize());
+					else
+						decrypt(blockStart, (int) Math.min(WINDOW_SIZE, this.end - this.start - blockStart));
+				} catch (GeneralSecurityException e) {
+					throw new IOException(e);
+				}
+				this.windowEnd = Math.min(this.windowEnd, this.size);
+			}
+			int n = (int) Math.min(len - read, this.windowEnd - this.position);
+			dst.put(this.plainText, (int) (this.position - this.windowStart), n);
+			this.position += n;
+			read += n;
+		}
+		return read;
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public long position() throws IOException {
+		ensureOpen();
+		return this.position;
+	}
+
+	@Override
+	public SeekableByteChannel position(long newPosition) throws IOException {
+		ensureOpen();
+		if(newPosition < 0) throw new IllegalArgumentException();
+		this.position = newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		return this.size;
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	//# MARK - help
+
+	/**
+	 * Reads and decrypts whole blocks of the hidden data into the window.
+	 * @param blockStart the position in the hidden data of the first block, a multiple of the block size
+	 * @param length the number of bytes to decrypt, a multiple of the block size
+	 * @throws IOException if an I/O error occurs
+	 * @throws GeneralSecurityException if the blocks can not be decrypted
+	 */
+	private void decrypt(long blockStart, int length) throws IOException, GeneralSecurityException {
+		// the first block is decrypted with the iv derived from the password, every other block with the cipher text before it
+		int ivLength = blockStart == 0 ? 0 : FHCipher.BYTES;
+		FHChannels.readFully(this.channel, ByteBuffer.wrap(this.cipherText, 0, ivLength + length), this.start + blockStart - ivLength);
+		this.cipher.reinit(ivLength == 0 ? null : Arrays.copyOf(this.cipherText, FHCipher.BYTES));
+		this.cipher.getCipher().doFinal(this.cipherText, ivLength, length, this.plainText, 0);
+		FHInstrumentation.crypted(length);
+		this.windowStart = blockStart;
+		this.windowEnd = blockStart + length;
+	}
+
+	/**
+	 * Reads and decrypts a chunk into the window.
+	 * @param index the index of the chunk, relative to the first chunk of this channel
+	 * @throws IOException if an I/O error occurs
+	 * @throws GeneralSecurityException if the chunk can not be decrypted
+	 */
+	private void decryptChunk(long index) throws IOException, GeneralSecurityException {
+		long start = this.start + index * (this.file.chunkSize() + FHChunkCipher.TAG_BYTES);
+		int length = (int) Math.min(this.cipherText.length, this.end - start);
+		FHChannels.readFully(this.channel, ByteBuffer.wrap(this.cipherText, 0, length), start);
+		int n = this.chunkCipher.crypt(OperationMode.DECRYPT_MODE, this.firstChunk + index, start + length == this.end, this.cipherText, 0, length, this.plainText, 0);
+		this.windowStart = index * this.file.chunkSize();
+		this.windowEnd = this.windowStart + n;
+	}
+
+	/**
+	 * Reads, decrypts and decompresses a frame into the window.
+	 * @param index the index of the frame
+	 * @throws IOException if an I/O error occurs or the frame is invalid
+	 * @throws GeneralSecurityException if the frame can not be decrypted
+	 */
+	private void readFrame(int index) throws IOException, GeneralSecurityException {
+		FHChannels.readFully(this.channel, ByteBuffer.wrap(this.cipherText, 0, this.frames.storedLength(index)), this.start + this.frames.offset(index));
+		int n = FHCompression.decode(this.frames, index, this.chunkCipher, ByteBuffer.wrap(this.cipherText), ByteBuffer.wrap(this.plainText));
+		this.windowStart = (long) index * this.file.chunkSize();
+		this.windowEnd = this.windowStart + n;
+	}
+
+	/**
+	 * Checks wheather this channel is still open.
+	 * @throws ClosedChannelException if the channel has been closed
+	 */
+	private void ensureOpen() throws ClosedChannelException {
+		if(!this.channel.isOpen()) throw new ClosedChannelException();
+	}
+}
@@ -0,0 +1,169 @@
+package org.filehide.filehidelibrary;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Helper functions to move bytes between channels using positional I/O.
+ * <p>
+ * The transfer functions hand the copy to {@link FileChannel#transferTo(long, long, WritableByteChannel)} and
+ * {@link FileChannel#transferFrom(ReadableByteChannel, long, long)} so the kernel can do it without the bytes passing through the Java heap.
+ * All bytes moved are reported to the installed {@link FHMetrics}, transfers count as read and written.
+ * @author alex1s
+ */
+final class FHChannels {
+
+	/**
+	 * The size of the buffer used to transfer from channels of unknown length.
+	 */
+	static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Not instantiable.
+	 */
+	private FHChannels() {}
+
+	/**
+	 * Writes all remaining bytes of the buffer at the given position of the channel.
+	 * @param channel the channel to write to
+	 * @param buffer the bytes to write
+	 * @param position the position in the channel to write at
+	 * @return the number of bytes written
+	 * @throws IOException if an I/O error occurs
+	 */
+	static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		int written = 0;
+		while(buffer.hasRemaining())
+			written += channel.write(buffer, position + written);
+		FHInstrumentation.written(written);
+		return written;
+	}
+
+	/**
+	 * Reads bytes at the given position of the channel until the buffer is full.
+	 * @param channel the channel to read from
+	 * @param buffer the buffer to fill
+	 * @param position the position in the channel to read from
+	 * @return the number of bytes read
+	 * @throws EOFException if the end of the channel is reached before the buffer is full
+	 * @throws IOException if an I/O error occurs
+	 */
+	static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		int read = 0;
+		while(buffer.hasRemaining()) {
+			int n = channel.read(buffer, position + read);
+			if(n < 0) throw new EOFException();
+			read += n;
+		}
+		FHInstrumentation.read(read);
+		return read;
+	}
+
+	/**
+	 * Transfers {@code count} bytes starting at {@code position} of the source to the target channel.
+	 * @param source the channel to read from
+	 * @param position the position in the source to start at
+	 * @param count the number of bytes to transfer
+	 * @param target the channel to write to
+	 * @throws EOFException if the source ends before {@code count} bytes have been transferred
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void transferFully(FileChannel source, long position, long count, WritableByteChannel target) throws IOException {
+		while(count > 0) {
+			long n = source.transferTo(position, count, target);
+			if(n <= 0) throw new EOFException();
+			FHInstrumentation.read(n);
+			FHInstrumentation.written(n);
+			position += n;
+			count -= n;
+		}
+	}
+
+	/**
+	 * Transfers {@code count} bytes starting at {@code position} of a channel that is not a file channel, like a {@link FHChannel}, to the target channel.
+	 * <p>
+	 * The bytes pass through a buffer of bounded size borrowed from the {@link FHBufferPool}, only the writes are reported as the source reports its reads itself.
+	 * @param source the channel to read from, its position is changed
+	 * @param position the position in the source to start at
+	 * @param count the number of bytes to transfer
+	 * @param target the channel to write to
+	 * @throws EOFException if the source ends before {@code count} bytes have been transferred
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void transferFully(SeekableByteChannel source, long position, long count, WritableByteChannel target) throws IOException {
+		source.position(position);
+		ByteBuffer buffer = FHBufferPool.borrow(TRANSFER_BUFFER_SIZE);
+		try {
+			while(count > 0) {
+				buffer.clear().limit((int) Math.min(buffer.capacity(), count));
+				if(source.read(buffer) < 0) throw new EOFException();
+				buffer.flip();
+				int n = buffer.remaining();
+				while(buffer.hasRemaining()) target.write(buffer);
+				FHInstrumentation.written(n);
+				count -= n;
+			}
+		} finally {
+			FHBufferPool.giveBack(buffer);
+		}
+	}
+
+	/**
+	 * Transfers {@code count} bytes of the source to the target channel starting at {@code position} of the target.
+	 * @param source the channel to read from, read from its current position
+	 * @param target the channel to write to
+	 * @param position the position in the target to start at
+	 * @param count the number of bytes to transfer
+	 * @throws EOFException if the source ends before {@code count} bytes have been transferred
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void transferFully(ReadableByteChannel source, FileChannel target, long position, long count) throws IOException {
+		while(count > 0) {
+			long n = target.transferFrom(source, position, count);
+			if(n <= 0) throw new EOFException();
+			FHInstrumentation.read(n);
+			FHInstrumentation.written(n);
+			position += n;
+			count -= n;
+		}
+	}
+
+	/**
+	 * Transfers all remaining bytes of the source to the target channel starting at {@code position} of the target.
+	 * <p>
+	 * The length of the source does not have to be known, it is read until its end through a buffer of bounded size borrowed from the {@link FHBufferPool}.
+	 * File channels are still transferred by the kernel.
+	 * @param source the channel to read from, read from its current position
+	 * @param target the channel to write to
+	 * @param position the position in the target to start at
+	 * @return the number of bytes transferred
+	 * @throws IOException if an I/O error occurs
+	 */
+	static long transferAll(ReadableByteChannel source, FileChannel target, long position) throws IOException {
+		if(source instanceof FileChannel) {
+			FileChannel file = (FileChannel) source;
+			long count = Math.max(0, file.size() - file.position());
+			transferFully(source, target, position, count);
+			return count;
+		}
+
+		ByteBuffer buffer = FHBufferPool.borrow(TRANSFER_BUFFER_SIZE);
+		try {
+			long transferred = 0;
+			while(source.read(buffer) >= 0) {
+				buffer.flip();
+				FHInstrumentation.read(buffer.remaining());
+				transferred += writeFully(target, buffer, position + transferred);
+				buffer.clear();
+			}
+			return transferred;
+		} finally {
+			FHBufferPool.giveBack(buffer);
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package org.filehide.filehidelibrary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.CRC32C;
+
+/**
+ * The checksum table of FHFiles since version 6, which allows to check the hidden data for damage without the password and to locate the damage.
+ * <p>
+ * The bytes from the start of the hidden data to the start of the checksum table, which includes the table of contents of archives, the frame table
+ * of compressed files and the segment table, are split into blocks of the size of a stored chunk (see {@link #blockSize(int, boolean)}), the last block may be shorter.
+ * The checksum table holds the CRC32C of every block as 4 byte two´s-complement integer. It comes after the hidden data and the table of contents,
+ * and is followed by the length of the table of contents if the file has one, the length of the checksum table as 8 byte two´s-complement long and the end of the file.
+ * <p>
+ * The blocks are aligned with the chunks, so appending only changes the checksums of the last chunk and of the blocks after it.
+ * Checksums are computed in parallel on the {@link FHChunkCipher#POOL}.
+ * @author alex1s
+ */
+final class FHChecksums {
+
+	/**
+	 * The length of the checksum of a block.
+	 */
+	static final int BYTES = Integer.BYTES;
+	/**
+	 * The number of blocks checked by a task.
+	 */
+	private static final int BLOCKS_PER_TASK = 4;
+
+	/**
+	 * Not instantiable.
+	 */
+	private FHChecksums() {}
+
+	// MARK layout
+
+	/**
+	 * The size of the blocks of a file, the size of a stored chunk.
+	 * @param chunkSize the number of plain text bytes in a chunk
+	 * @param encrypted weather the file is encrypted, which adds the tag to every chunk
+	 * @return the size of a block
+	 */
+	static int blockSize(int chunkSize, boolean encrypted) {
+		return encrypted ? chunkSize + FHChunkCipher.TAG_BYTES : chunkSize;
+	}
+
+	/**
+	 * The length of the checksum table of a file.
+	 * @param covered the number of bytes from the start of the hidden data to the start of the checksum table
+	 * @param blockSize the size of a block
+	 * @return the length of the checksum table
+	 */
+	static long length(long covered, int blockSize) {
+		return (covered + blockSize - 1) / blockSize * BYTES;
+	}
+
+	/**
+	 * The largest number of bytes covered by a checksum table that fits together with the table into the given number of bytes, the inverse of {@link #length(long, int)}.
+	 * @param stored the number of bytes of the covered bytes and the checksum table
+	 * @param blockSize the size of a block
+	 * @return the number of covered bytes
+	 */
+	static long covered(long stored, int blockSize) {
+		long blocks = stored / (blockSize + BYTES);
+		long rest = stored - blocks * (blockSize + BYTES);
+		return blocks * blockSize + Math.max(0, rest - BYTES);
+	}
+
+	// MARK reading and writing
+
+	/**
+	 * Reads the checksum table of a file.
+	 * @param channel the channel of the file
+	 * @param position the offset in the file where the checksum table starts
+	 * @param length the length of the checksum table
+	 * @return the checksums of the blocks
+	 * @throws IOException if an I/O error occurs or the checksum table is too large
+	 */
+	static int[] read(FileChannel channel, long position, long length) throws IOException {
+		if(length > Integer.MAX_VALUE - 8) throw new IOException(new FHFileCorruptException());
+		ByteBuffer table = ByteBuffer.allocate((int) length);
+		FHChannels.readFully(channel, table, position);
+		table.flip();
+		int[] checksums = new int[table.remaining() / BYTES];
+		table.asIntBuffer().get(checksums);
+		return checksums;
+	}
+
+	/**
+	 * Writes the checksum table of a file, followed by the length of the table of contents, the length of the checksum table and the end of the file.
+	 * <p>
+	 * The file is truncated after its new end.
+	 * @param channel the channel of the file
+	 * @param start the offset in the file where the hidden data starts
+	 * @param end the offset in the file where the checksum table starts, the end of the table of contents or of the hidden data
+	 * @param blockSize the size of a block
+	 * @param known the checksums of the first blocks which have not changed, these blocks are not read again
+	 * @param tocLength the length of the table of contents, -1 if the file has none
+	 * @param originalFileLength the length of the file before the hidden data has been added
+	 * @param sync weather the checksum table is forced to the storage device before the end is written, and the end after it
+	 * @throws IOException if an I/O error occurs or the file has too many blocks
+	 */
+	static void write(FileChannel channel, long start, long end, int blockSize, int[] known, long tocLength, long originalFileLength, boolean sync) throws IOException {
+		long length = length(end - start, blockSize);
+		if(length > Integer.MAX_VALUE - 8) throw new IOException("Too many blocks to add checksums to " + channel);
+		int[] checksums = compute(channel, start, end, blockSize, known);
+
+		ByteBuffer table = ByteBuffer.allocate((int) length + 2 * Long.BYTES);
+		table.asIntBuffer().put(checksums);
+		table.position((int) length);
+		if(tocLength >= 0) table.putLong(tocLength);
+		table.putLong(length);
+		table.flip();
+		long position = end + FHChannels.writeFully(channel, table, end);
+		if(sync) channel.force(false);
+		position += FHChannels.writeFully(channel, FHFile.FHEnd(originalFileLength), position);
+		channel.truncate(position);
+		if(sync) channel.force(true);
+	}
+
+	// MARK checking
+
+	/**
+	 * Computes the checksums of the blocks of a file.
+	 * @param channel the channel of the file
+	 * @param start the offset in the file where the hidden data starts
+	 * @param end the offset in the file where the checksum table starts
+	 * @param blockSize the size of a block
+	 * @param known the checksums of the first blocks, which are taken instead of reading these blocks
+	 * @return the checksums of all blocks
+	 * @throws IOException if an I/O error occurs
+	 */
+	static int[] compute(FileChannel channel, long start, long end, int blockSize, int[] known) throws IOException {
+		int[] checksums = Arrays.copyOf(known, (int) (length(end - start, blockSize) / BYTES));
+		forEachBlock(channel, start, end, blockSize, known.length, checksums, null);
+		return checksums;
+	}
+
+	/**
+	 * Checks the blocks of a file against their checksums.
+	 * @param channel the channel of the file
+	 * @param start the offset in the file where the hidden data starts
+	 * @param end the offset in the file where the checksum table starts
+	 * @param blockSize the size of a block
+	 * @param checksums the checksums of the blocks, as read from the checksum table
+	 * @return the offsets in the file of the blocks whose checksum does not match, in ascending order
+	 * @throws IOException if an I/O error occurs
+	 */
+	static long[] damaged(FileChannel channel, long start, long end, int blockSize, int[] checksums) throws IOException {
+		boolean[] damaged = new boolean[checksums.length];
+		forEachBlock(channel, start, end, blockSize, 0, checksums, damaged);
+
+		long[] offsets = new long[checksums.length];
+		int n = 0;
+		for(int block = 0; block < damaged.length; block++)
+			if(damaged[block]) offsets[n++] = start + (long) block * blockSize;
+		return Arrays.copyOf(offsets, n);
+	}
+
+	/**
+	 * Computes the checksums of the blocks from {@code first} on in parallel, in batches of as many tasks as the pool has threads.
+	 * @param channel the channel of the file
+	 * @param start the offset in the file where the hidden data starts
+	 * @param end the offset in the file where the checksum table starts
+	 * @param blockSize the size of a block
+	 * @param first the first block to compute
+	 * @param checksums the checksums, which are set if {@code damaged} is null and compared otherwise
+	 * @param damaged set for the blocks whose checksum does not match, null to set the checksums
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void forEachBlock(FileChannel channel, long start, long end, int blockSize, int first, int[] checksums, boolean[] damaged) throws IOException {
+		int batch = Math.max(1, FHChunkCipher.POOL.getParallelism()) * BLOCKS_PER_TASK;
+		for(int block = first; block < checksums.length; block += batch) {
+			List<Callable<Integer>> tasks = new ArrayList<>();
+			for(int i = block; i < Math.min(checksums.length, block + batch); i += BLOCKS_PER_TASK) {
+				final int from = i;
+				final int to = Math.min(checksums.length, i + BLOCKS_PER_TASK);
+				tasks.add(() -> {
+					ByteBuffer buffer = FHBufferPool.borrow(blockSize);
+					try {
+						CRC32C crc = new CRC32C();
+						for(int b = from; b < to; b++) {
+							long position = start + (long) b * blockSize;
+							buffer.clear().limit((int) Math.min(blockSize, end - position));
+							FHChannels.readFully(channel, buffer, position);
+							buffer.flip();
+							crc.reset();
+							crc.update(buffer);
+							if(damaged == null) checksums[b] = (int) crc.getValue();
+							else damaged[b] = checksums[b] != (int) crc.getValue();
+						}
+						return 0;
+					} finally {
+						FHBufferPool.giveBack(buffer);
+					}
+				});
+			}
+			FHCompression.invokeAll(tasks);
+		}
+	}
+}
@@ -0,0 +1,384 @@
+package org.filehide.filehidelibrary;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.filehide.filehidelibrary.FHCipher.OperationMode;
+
+/**
+ * Cipher to de- and encrypt the chunks of FHFiles since version 1.
+ * <p>
+ * Every chunk is encrypted on its own with AES/GCM, so chunks can be de- and encrypted in any order and in parallel.
+ * The nonce of a chunk is the nonce of the file followed by the index of the chunk.
+ * Whether the chunk is the last one is authenticated as well, so a file can not be truncated at a chunk boundary unnoticed.
+ * <p>
+ * Data appended to a file is encrypted with a new nonce, so no nonce is ever used for two different chunks.
+ * The chunks of such a file are split into segments which each have their own nonce, see {@link FHAppend}.
+ * Since version 5 the chunks are encrypted with a random content key instead of the key of the password, see {@link FHKeySlots}.
+ * @author alex1s
+ */
+class FHChunkCipher {
+
+	// MARK constants
+
+	/**
+	 * The encryption algorithm used for the chunks.
+	 */
+	private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+	/**
+	 * The length of the authentication tag appended to every chunk.
+	 */
+	static final int TAG_BYTES = 16;
+	/**
+	 * The length of the nonce of a file.
+	 */
+	static final int NONCE_BYTES = 8;
+	/**
+	 * The number of plain text bytes in a chunk if nothing else is specified.
+	 */
+	static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+	/**
+	 * The largest number of plain text bytes in a chunk a FHFile may specify.
+	 */
+	static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+	/**
+	 * The largest number of chunks a file can have, the index is stored in 4 bytes and the indices from this one on are reserved for the tables and the crypto bytes,
+	 * so no chunk shares its nonce with them.
+	 */
+	static final long MAX_CHUNKS = 0xFFFFFFF0L;
+	/**
+	 * The index used to encrypt the FH_CRYPT.
+	 */
+	private static final long CRYPT_INDEX = 0xFFFFFFFFL;
+	/**
+	 * The index used to encrypt the table of contents of an archive, the chunks of its entries have lower indices.
+	 */
+	static final long TOC_INDEX = 0xFFFFFFFEL;
+
+	/**
+	 * The pool the chunks are de- and encrypted on.
+	 */
+	static final ForkJoinPool POOL = ForkJoinPool.commonPool();
+
+	/**
+	 * Source of the nonces for new files.
+	 */
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	/**
+	 * The secret key derived from the password, or the content key of a file with key slots.
+	 */
+	private final SecretKeySpec secretKeySpec;
+	/**
+	 * The nonce of the file.
+	 */
+	private final byte[] nonce;
+	/**
+	 * The number of plain text bytes in a chunk.
+	 */
+	private final int chunkSize;
+	/**
+	 * The index of the first chunk of each segment, null if the file has a single one.
+	 */
+	private final long[] segmentStarts;
+	/**
+	 * The nonce of each segment, null if the file has a single one.
+	 */
+	private final byte[][] segmentNonces;
+
+	/**
+	 * Constructs a FHChunkCipher using a byte array as password.
+	 * @param password password used to de- or encrypt data with
+	 * @param nonce the nonce of the file
+	 * @param chunkSize the number of plain text bytes in a chunk
+	 */
+	FHChunkCipher(byte[] password, byte[] nonce, int chunkSize) {
+		byte[] keyMaterial = FHKeyCache.keyMaterial(password);
+		this.secretKeySpec = new SecretKeySpec(keyMaterial, 0, FHCipher.BYTES, FHCipher.ALGORITHM);
+		Arrays.fill(keyMaterial, (byte) 0);
+		this.nonce = nonce.clone();
+		this.chunkSize = chunkSize;
+		this.segmentStarts = null;
+		this.segmentNonces = null;
+	}
+
+	/**
+	 * Constructs a FHChunkCipher with the chunk size of another one.
+	 * @param cipher the cipher whose chunk size to use
+	 * @param secretKeySpec the secret key
+	 * @param nonce the nonce of the file
+	 * @param segmentStarts the index of the first chunk of each segment, null if the file has a single one
+	 * @param segmentNonces the nonce of each segment, null if the file has a single one
+	 */
+	private FHChunkCipher(FHChunkCipher cipher, SecretKeySpec secretKeySpec, byte[] nonce, long[] segmentStarts, byte[][] segmentNonces) {
+		this.secretKeySpec = secretKeySpec;
+		this.nonce = nonce;
+		this.chunkSize = cipher.chunkSize;
+		this.segmentStarts = segmentStarts;
+		this.segmentNonces = segmentNonces;
+	}
+
+	/**
+	 * A cipher with the same nonce but another key, e.g. the content key of a file with key slots (see {@link FHKeySlots}).
+	 * @param key the key
+	 * @return the cipher
+	 */
+	FHChunkCipher withKey(byte[] key) {
+		return new FHChunkCipher(this, new SecretKeySpec(key, FHCipher.ALGORITHM), this.nonce, this.segmentStarts, this.segmentNonces);
+	}
+
+	/**
+	 * A cipher with the same key but another nonce, e.g. for data appended to the file.
+	 * @param nonce the nonce
+	 * @return the cipher
+	 */
+	FHChunkCipher withNonce(byte[] nonce) {
+		return new FHChunkCipher(this, this.secretKeySpec, nonce.clone(), null, null);
+	}
+
+	/**
+	 * A cipher with the same key for a file whose chunks are split into segments.
+	 * <p>
+	 * The crypto bytes are still de- and encrypted with the nonce of this cipher.
+	 * @param segmentStarts the index of the first chunk of each segment, in ascending order starting with 0
+	 * @param segmentNonces the nonce of each segment
+	 * @return the cipher
+	 */
+	FHChunkCipher withSegments(long[] segmentStarts, byte[][] segmentNonces) {
+		return new FHChunkCipher(this, this.secretKeySpec, this.nonce, segmentStarts.clone(), segmentNonces.clone());
+	}
+
+	/**
+	 * Generates a new random nonce for a file.
+	 * @return the nonce
+	 */
+	static byte[] newNonce() {
+		byte[] nonce = new byte[NONCE_BYTES];
+		RANDOM.nextBytes(nonce);
+		return nonce;
+	}
+
+	/**
+	 * getter for segmentStarts
+	 * @return the index of the first chunk of each segment, null if the file has a single one
+	 */
+	long[] segmentStarts() {
+		return this.segmentStarts;
+	}
+
+	/**
+	 * getter for segmentNonces
+	 * @return the nonce of each segment, null if the file has a single one
+	 */
+	byte[][] segmentNonces() {
+		return this.segmentNonces;
+	}
+
+	// MARK crypto bytes
+
+	/**
+	 * Encrypts the FH_CRYPT.
+	 * @return the crypto bytes of the file
+	 * @throws GeneralSecurityException if the encryption fails
+	 */
+	byte[] cryptoBytes() throws GeneralSecurityException {
+		byte[] cryptoBytes = new byte[FHFile.FH_CRYPT.length + TAG_BYTES];
+		crypt(OperationMode.ENCRYPT_MODE, CRYPT_INDEX, false, FHFile.FH_CRYPT, 0, FHFile.FH_CRYPT.length, cryptoBytes, 0);
+		return cryptoBytes;
+	}
+
+	/**
+	 * Checks wheather the crypto bytes of a file have been encrypted with the password of this cipher.
+	 * @param cryptoBytes the crypto bytes of the file
+	 * @return true if the password is correct, false if not
+	 */
+	boolean check(byte[] cryptoBytes) {
+		byte[] plain = new byte[cryptoBytes.length];
+		try {
+			int n = crypt(OperationMode.DECRYPT_MODE, CRYPT_INDEX, false, cryptoBytes, 0, cryptoBytes.length, plain, 0);
+			return Arrays.equals(FHFile.FH_CRYPT, Arrays.copyOf(plain, n));
+		} catch (GeneralSecurityException e) {
+			return false;
+		}
+	}
+
+	// MARK chunks
+
+	/**
+	 * De- or encrypts a single chunk.
+	 * @param opmode weather to en- or decrypt
+	 * @param index the index of the chunk
+	 * @param last weather the chunk is the last one of the file
+	 * @param in the input
+	 * @param inOffset the offset of the chunk in the input
+	 * @param length the length of the chunk in the input
+	 * @param out the output
+	 * @param outOffset the offset in the output to write to
+	 * @return the number of bytes written to the output
+	 * @throws GeneralSecurityException if the chunk can not be de- or encrypted, e.g. if it has been modified or the password is wrong
+	 */
+	int crypt(OperationMode opmode, long index, boolean last, byte[] in, int inOffset, int length, byte[] out, int outOffset) throws GeneralSecurityException {
+		int written = cipher(opmode, index, last).doFinal(in, inOffset, length, out, outOffset);
+		FHInstrumentation.crypted(length);
+		return written;
+	}
+
+	/**
+	 * De- or encrypts a single chunk from buffer to buffer.
+	 * <p>
+	 * Direct buffers are de- or encrypted without copying them to the Java heap.
+	 * @param opmode weather to en- or decrypt
+	 * @param index the index of the chunk
+	 * @param last weather the chunk is the last one of the file
+	 * @param in the chunk, from its position to its limit
+	 * @param out the buffer to write to, from its position
+	 * @return the number of bytes written to the output
+	 * @throws GeneralSecurityException if the chunk can not be de- or encrypted, e.g. if it has been modified or the password is wrong
+	 */
+	int crypt(OperationMode opmode, long index, boolean last, ByteBuffer in, ByteBuffer out) throws GeneralSecurityException {
+		int length = in.remaining();
+		int written = cipher(opmode, index, last).doFinal(in, out);
+		FHInstrumentation.crypted(length);
+		return written;
+	}
+
+	/**
+	 * Initializes the cipher of the current thread for a chunk.
+	 * @param opmode weather to en- or decrypt
+	 * @param index the index of the chunk
+	 * @param last weather the chunk is the last one of the file
+	 * @return the cipher
+	 * @throws GeneralSecurityException if the cipher can not be initialized
+	 */
+	private Cipher cipher(OperationMode opmode, long index, boolean last) throws GeneralSecurityException {
+		byte[] nonce = this.nonce;
+		if(this.segmentStarts != null && index < TOC_INDEX) {
+			int segment = Arrays.binarySearch(this.segmentStarts, index);
+			nonce = this.segmentNonces[segment < 0 ? -segment - 2 : segment];
+		}
+		byte[] iv = Arrays.copyOf(nonce, NONCE_BYTES + Integer.BYTES);
+		iv[NONCE_BYTES] = (byte) (index >>> 24);
+		iv[NONCE_BYTES + 1] = (byte) (index >>> 16);
+		iv[NONCE_BYTES + 2] = (byte) (index >>> 8);
+		iv[NONCE_BYTES + 3] = (byte) index;
+
+		Cipher cipher = FHCipher.threadCipher(TRANSFORMATION);
+		cipher.init(opmode.value(), this.secretKeySpec, new GCMParameterSpec(TAG_BYTES * Byte.SIZE, iv));
+		cipher.updateAAD(new byte[] {(byte) (last ? 1 : 0)});
+		return cipher;
+	}
+
+	/**
+	 * De- or encrypts consecutive chunks in parallel.
+	 * <p>
+	 * The chunks of the input follow each other without gaps and so do the chunks written to the output.
+	 * Every chunk except the last one of the input is full.
+	 * @param opmode weather to en- or decrypt
+	 * @param firstIndex the index of the first chunk
+	 * @param in the input
+	 * @param length the number of bytes of the input
+	 * @param last weather the last chunk of the input is the last one of the file
+	 * @param out the output
+	 * @return the number of bytes written to the output
+	 * @throws GeneralSecurityException if a chunk can not be de- or encrypted, e.g. if it has been modified or the password is wrong
+	 */
+	int crypt(OperationMode opmode, long firstIndex, byte[] in, int length, boolean last, byte[] out) throws GeneralSecurityException {
+		int inChunk = opmode == OperationMode.ENCRYPT_MODE ? this.chunkSize : this.chunkSize + TAG_BYTES;
+		int outChunk = opmode == OperationMode.ENCRYPT_MODE ? this.chunkSize + TAG_BYTES : this.chunkSize;
+		int chunks = Math.max(1, (length + inChunk - 1) / inChunk);
+
+		List<Callable<Integer>> tasks = new ArrayList<>(chunks);
+		for(int i = 0; i < chunks; i++) {
+			final int chunk = i;
+			final int chunkLength = Math.min(inChunk, length - chunk * inChunk);
+			tasks.add(() -> crypt(opmode, firstIndex + chunk, last && chunk == chunks - 1, in, chunk * inChunk, chunkLength, out, chunk * outChunk));
+		}
+		return invokeAll(tasks);
+	}
+
+	/**
+	 * De- or encrypts consecutive chunks in parallel from buffer to buffer.
+	 * <p>
+	 * The chunks of the input follow each other without gaps and so do the chunks written to the output.
+	 * Every chunk except the last one of the input is full. Direct buffers are de- or encrypted without copying them to the Java heap.
+	 * @param opmode weather to en- or decrypt
+	 * @param firstIndex the index of the first chunk
+	 * @param in the input, from its position to its limit, its position is moved to its limit
+	 * @param last weather the last chunk of the input is the last one of the file
+	 * @param out the buffer to write to, from its position, its position is moved past the bytes written
+	 * @return the number of bytes written to the output
+	 * @throws GeneralSecurityException if a chunk can not be de- or encrypted, e.g. if it has been modified or the password is wrong
+	 */
+	int crypt(OperationMode opmode, long firstIndex, ByteBuffer in, boolean last, ByteBuffer out) throws GeneralSecurityException {
+		int inChunk = opmode == OperationMode.ENCRYPT_MODE ? this.chunkSize : this.chunkSize + TAG_BYTES;
+		int outChunk = opmode == OperationMode.ENCRYPT_MODE ? this.chunkSize + TAG_BYTES : this.chunkSize;
+		int length = in.remaining();
+		int chunks = Math.max(1, (length + inChunk - 1) / inChunk);
+
+		// every chunk works on its own view of the buffers
+		List<Callable<Integer>> tasks = new ArrayList<>(chunks);
+		for(int i = 0; i < chunks; i++) {
+			final int chunk = i;
+			final ByteBuffer src = in.duplicate();
+			src.position(in.position() + chunk * inChunk).limit(in.position() + Math.min(length, (chunk + 1) * inChunk));
+			final ByteBuffer dst = out.duplicate();
+			dst.position(out.position() + chunk * outChunk);
+			tasks.add(() -> crypt(opmode, firstIndex + chunk, last && chunk == chunks - 1, src, dst));
+		}
+
+		int written = invokeAll(tasks);
+		in.position(in.limit());
+		out.position(out.position() + written);
+		return written;
+	}
+
+	/**
+	 * Runs the tasks of a batch on the pool.
+	 * @param tasks the tasks, each de- or encrypting a chunk
+	 * @return the sum of the bytes written by the tasks
+	 * @throws GeneralSecurityException if a chunk can not be de- or encrypted
+	 */
+	private static int invokeAll(List<Callable<Integer>> tasks) throws GeneralSecurityException {
+		int written = 0;
+		try {
+			for(Future<Integer> result : POOL.invokeAll(tasks))
+				written += result.get();
+		} catch (ExecutionException e) {
+			// the pool wraps checked exceptions of the tasks
+			for(Throwable cause = e.getCause(); cause != null; cause = cause.getCause())
+				if(cause instanceof GeneralSecurityException) throw (GeneralSecurityException) cause;
+			throw new FHRuntimeException(e.getCause().toString());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FHRuntimeException(e.toString());
+		}
+		return written;
+	}
+
+	// MARK lengths
+
+	/**
+	 * Computes the number of plain text bytes stored in the given number of bytes of chunks.
+	 * @param storedLength the number of bytes of chunks
+	 * @param chunkSize the number of plain text bytes in a chunk
+	 * @return the number of plain text bytes, negative if the stored length is not possible
+	 */
+	static long plainLength(long storedLength, int chunkSize) {
+		long chunks = (storedLength + chunkSize + TAG_BYTES - 1) / (chunkSize + TAG_BYTES);
+		long lastChunk = storedLength - (chunks - 1) * (chunkSize + TAG_BYTES);
+		if(chunks == 0 || chunks > MAX_CHUNKS || lastChunk < TAG_BYTES) return -1;
+		return storedLength - chunks * TAG_BYTES;
+	}
+}
@@ -4,9 +4,10 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
@@ -66,13 +67,13 @@ class FHCipher {
 	 */
 	private final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
 	/**
-	 * The algorithm used for the secret key.
+	 * The encryption algorithm used in this cipher when single blocks are de- or encrypted without padding.
 	 */
-	private final String ALGORITHM = "AES";
+	private final String TRANSFORMATION_NO_PADDING = "AES/CBC/NoPadding";
 	/**
-	 * The algorithm used to hash passwords with.
+	 * The algorithm used for the secret key.
 	 */
-	private final String HASH_ALGORITHM = "SHA-256";
+	static final String ALGORITHM = "AES";
 	
 	/**
 	 * The charset used to decode String-Passwords.
@@ -80,10 +81,35 @@ class FHCipher {
 	static final Charset CHARSET = StandardCharsets.UTF_8;
 	
 	/**
-	 * The cipher.
+	 * The cipher, null if the cipher of the current thread is used.
 	 */
 	private Cipher cipher;
 	
+	/**
+	 * The transformation of the cipher.
+	 */
+	private String transformation;
+	
+	/**
+	 * The ciphers of each thread by their transformation.
+	 */
+	private static final ThreadLocal<Map<String, Cipher>> THREAD_CIPHERS = ThreadLocal.withInitial(HashMap::new);
+	
+	/**
+	 * The operation mode the cipher has been initialized with.
+	 */
+	private OperationMode opmode;
+	
+	/**
+	 * The secret key the cipher has been initialized with.
+	 */
+	private SecretKeySpec secretKeySpec;
+	
+	/**
+	 * The iv derived from the password.
+	 */
+	private byte[] iv;
+	
 	/**
 	 * Constructs a FHCipher object using a string as password.
 	 * @param opmode the Operation mode to run the cipher with
@@ -99,21 +125,71 @@ class FHCipher {
 	 * @param password password used to de- or encrypt data with
 	 */
 	FHCipher(OperationMode opmode, byte[] password) {
+		this(opmode, password, true);
+	}
+	
+	/**
+	 * Constructs a FHCipher object using a byte array as password.
+	 * @param opmode the Operation mode to run the cipher with
+	 * @param password password used to de- or encrypt data with
+	 * @param padding false if the cipher should work on whole blocks without padding, so it can de- or encrypt any range of blocks
+	 */
+	FHCipher(OperationMode opmode, byte[] password, boolean padding) {
+		this(opmode, password, padding, false);
+	}
+	
+	/**
+	 * Constructs a FHCipher object using a byte array as password.
+	 * <p>
+	 * A shared FHCipher uses the cipher of the thread that is using it, which is reinitialized instead of creating a new one.
+	 * It may only be used for operations that are initialized and finished on the same thread without another FHCipher being used in between,
+	 * like {@code reinit} directly followed by {@code doFinal}.
+	 * @param opmode the Operation mode to run the cipher with
+	 * @param password password used to de- or encrypt data with
+	 * @param padding false if the cipher should work on whole blocks without padding, so it can de- or encrypt any range of blocks
+	 * @param shared true if the cipher of the current thread should be used
+	 */
+	FHCipher(OperationMode opmode, byte[] password, boolean padding, boolean shared) {
+		byte[] keyMaterial = FHKeyCache.keyMaterial(password);
+		this.opmode = opmode;
+		this.secretKeySpec = new SecretKeySpec(keyMaterial, 0, BYTES, ALGORITHM);
+		this.iv = Arrays.copyOfRange(keyMaterial, BYTES, 2 * BYTES);
+		Arrays.fill(keyMaterial, (byte) 0);
+		
+		this.transformation = padding ? TRANSFORMATION : TRANSFORMATION_NO_PADDING;
+		if(!shared) this.cipher = newCipher(this.transformation);
+		reinit(null);
+	}
+	
+	/**
+	 * Reinitializes the cipher with the same key but another iv.
+	 * <p>
+	 * In CBC mode the decryption can start at any block when the previous block of cipher text is used as iv.
+	 * @param iv the iv to continue with, {@code null} to use the iv derived from the password
+	 */
+	void reinit(byte[] iv) {
 		try {
-			SecretKeySpec secretKeySpec = new SecretKeySpec(getSecretKey(password), ALGORITHM);
-			IvParameterSpec ivParamterSpec = new IvParameterSpec(getIV(password));
-			this.cipher = Cipher.getInstance(TRANSFORMATION);
-			this.cipher.init(opmode.value(), secretKeySpec, ivParamterSpec);
-		} catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | InvalidAlgorithmParameterException ignored) {}
+			getCipher().init(this.opmode.value(), this.secretKeySpec, new IvParameterSpec(iv == null ? this.iv : iv));
+		} catch (InvalidKeyException | InvalidAlgorithmParameterException ignored) {}
 	}
 	
 	/**
-	 * Generates the iv, derived from the password.
-	 * @param password the password to derive the iv from
-	 * @return the iv
+	 * Derives the key material from a password.
+	 * <p>
+	 * The secret key are the first bytes of the SHA-256 hash of the password, the iv is derived from the secret key the same way.
+	 * @param password the password to derive the key material from
+	 * @return the secret key followed by the iv
 	 */
-	private byte[] getIV(byte[] password) {
-		return getSecretKey(getSecretKey(password));
+	static byte[] deriveKeyMaterial(byte[] password) {
+		long start = FHInstrumentation.start();
+		byte[] secretKey = getSecretKey(password);
+		byte[] iv = getSecretKey(secretKey);
+		byte[] keyMaterial = Arrays.copyOf(secretKey, 2 * BYTES);
+		System.arraycopy(iv, 0, keyMaterial, BYTES, BYTES);
+		Arrays.fill(secretKey, (byte) 0);
+		Arrays.fill(iv, (byte) 0);
+		FHInstrumentation.keyDerived(start);
+		return keyMaterial;
 	}
 	
 	/**
@@ -121,11 +197,30 @@ class FHCipher {
 	 * @param password the password to generate the secret key from
 	 * @return bytes to generate a valid secret key with
 	 */
-	private byte[] getSecretKey(byte[] password) {
+	private static byte[] getSecretKey(byte[] password) {
+		return Arrays.copyOf(FHKeyCache.digest(password), BYTES);
+	}
+	
+	/**
+	 * Returns the cipher of the current thread for the given transformation, which is reused as long as the thread lives.
+	 * @param transformation the transformation of the cipher
+	 * @return the cipher
+	 */
+	static Cipher threadCipher(String transformation) {
+		return THREAD_CIPHERS.get().computeIfAbsent(transformation, FHCipher::newCipher);
+	}
+	
+	/**
+	 * Creates a new cipher.
+	 * @param transformation the transformation of the cipher
+	 * @return the cipher
+	 */
+	private static Cipher newCipher(String transformation) {
 		try {
-			return Arrays.copyOf(MessageDigest.getInstance(HASH_ALGORITHM).digest(password), BYTES);
-		} catch (NoSuchAlgorithmException ignored) {}
-		return null;
+			return Cipher.getInstance(transformation);
+		} catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+			throw new FHRuntimeException(e.toString());
+		}
 	}
 	
 	/**
@@ -133,6 +228,6 @@ class FHCipher {
 	 * @return the cipher
 	 */
 	Cipher getCipher() {
-		return this.cipher;
+		return this.cipher != null ? this.cipher : threadCipher(this.transformation);
 	}
 }
\ No newline at end of file
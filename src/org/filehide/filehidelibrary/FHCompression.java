@@ -0,0 +1,348 @@
+package org.filehide.filehidelibrary;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.filehide.filehidelibrary.FHCipher.OperationMode;
+
+/**
+ * Compresses and decompresses the frames of compressed FHFiles.
+ * <p>
+ * The hidden file is split into chunks like for encryption. Every chunk is compressed on its own with {@link Deflater} (zlib format)
+ * and stored as a frame, or stored raw if it does not get at least {@link #MIN_SAVING} smaller, so media and other compressed data cost no space.
+ * If the hidden data is encrypted, every frame is then encrypted like a chunk that is not the last one, followed by its tag,
+ * as the frame table already records where the frames end.
+ * <p>
+ * The frames are followed by the frame table, which has following structure:<br>
+ * 1. 8 byte two´s-complement long: the length of the hidden file<br>
+ * 2. 4 byte two´s-complement integer: the number of frames, one for every chunk and at least one<br>
+ * 3. for every frame: 4 byte two´s-complement integer: the number of bytes the frame takes in the file, with the highest bit set if the frame is compressed
+ * <p>
+ * If the hidden data is encrypted, the frame table is encrypted as a whole like the table of contents of an archive, followed by its tag.
+ * @author alex1s
+ */
+final class FHCompression {
+
+	/**
+	 * The level of files that are not compressed.
+	 */
+	static final int NONE = -2;
+	/**
+	 * The fraction of a chunk, as divisor, that compression has to save at least to store the compressed frame.
+	 */
+	static final int MIN_SAVING = 8;
+	/**
+	 * The largest number of chunks stored raw without trying to compress them, after several chunks in a row could not be compressed.
+	 */
+	static final int MAX_SKIPPED_CHUNKS = 64;
+	/**
+	 * The bit of the length of a frame that is set if the frame is compressed.
+	 */
+	private static final int DEFLATED = 0x80000000;
+
+	/**
+	 * The deflaters of the current thread by level.
+	 */
+	private static final ThreadLocal<Deflater[]> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater[Deflater.BEST_COMPRESSION + 2]);
+	/**
+	 * The inflater of the current thread.
+	 */
+	private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+	/**
+	 * Not instantiable.
+	 */
+	private FHCompression() {}
+
+	/**
+	 * Checks a compression level.
+	 * @param level the level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION} or {@link Deflater#DEFAULT_COMPRESSION}
+	 * @return the level
+	 * @throws IllegalArgumentException if the level is not valid
+	 */
+	static int checkLevel(int level) {
+		if(level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)) throw new IllegalArgumentException("Invalid compression level " + level);
+		return level;
+	}
+
+	// MARK chunks
+
+	/**
+	 * Compresses a chunk if it gets at least {@link #MIN_SAVING} smaller.
+	 * @param level the compression level
+	 * @param in the chunk, from its position to its limit, its position is left unchanged
+	 * @param out the buffer to write to, from its position, which has to have room for the chunk
+	 * @return the number of bytes written to the output, -1 if the chunk should be stored raw, in which case the output contains garbage
+	 */
+	static int deflate(int level, ByteBuffer in, ByteBuffer out) {
+		int length = in.remaining();
+		if(length == 0) return -1;
+
+		Deflater[] deflaters = DEFLATERS.get();
+		Deflater deflater = deflaters[level + 1];
+		if(deflater == null) deflater = deflaters[level + 1] = new Deflater(level);
+		deflater.reset();
+		deflater.setInput(in.duplicate());
+		deflater.finish();
+
+		ByteBuffer dst = out.duplicate();
+		dst.limit(dst.position() + length - length / MIN_SAVING);
+		while(!deflater.finished()) {
+			if(!dst.hasRemaining()) return -1;
+			deflater.deflate(dst);
+		}
+		return dst.position() - out.position();
+	}
+
+	/**
+	 * Decompresses a chunk.
+	 * @param in the compressed chunk, from its position to its limit, its position is left unchanged
+	 * @param out the buffer to write the chunk to, from its position, its position is left unchanged
+	 * @param outLength the number of bytes of the chunk
+	 * @throws IOException if the compressed chunk is invalid or does not have the given length
+	 */
+	static void inflate(ByteBuffer in, ByteBuffer out, int outLength) throws IOException {
+		Inflater inflater = INFLATER.get();
+		inflater.reset();
+		inflater.setInput(in.duplicate());
+		ByteBuffer dst = out.duplicate();
+		dst.limit(dst.position() + outLength);
+		try {
+			while(dst.hasRemaining() && !inflater.finished()) {
+				int k = inflater.inflate(dst);
+				if(k == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+			}
+			int n = dst.position() - out.position();
+			// the end of the stream may only be read once the output is full, a valid frame ends exactly after the chunk
+			if(n == outLength && !inflater.finished() && inflater.inflate(new byte[1]) != 0) n++;
+			if(n != outLength || !inflater.finished() || inflater.getRemaining() != 0) throw new IOException("Invalid compressed frame");
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Reads a frame into its chunk, decrypting it first if the hidden data is encrypted.
+	 * @param frames the frame table
+	 * @param index the index of the frame
+	 * @param cipher the cipher to decrypt the frame with, null if the hidden data is unencrypted
+	 * @param stored the frame as stored in the file, from its position, overwritten if the frame is encrypted and compressed
+	 * @param out the buffer to write the chunk to, from its position
+	 * @return the number of bytes of the chunk
+	 * @throws IOException if the frame is invalid
+	 * @throws GeneralSecurityException if the frame can not be decrypted, e.g. if it has been modified or the password is wrong
+	 */
+	static int decode(Frames frames, int index, FHChunkCipher cipher, ByteBuffer stored, ByteBuffer out) throws IOException, GeneralSecurityException {
+		int length = frames.storedLength(index);
+		int plainLength = frames.plainLength(index);
+		ByteBuffer frame = stored.duplicate();
+		frame.limit(frame.position() + length);
+
+		if(!frames.deflated(index)) {
+			if(cipher != null) return cipher.crypt(OperationMode.DECRYPT_MODE, index, false, frame, out.duplicate());
+			out.duplicate().put(frame);
+			return length;
+		}
+
+		// encrypted frames are decrypted in place before they are decompressed
+		if(cipher != null) frame.limit(frame.position() + cipher.crypt(OperationMode.DECRYPT_MODE, index, false, frame.duplicate(), stored.duplicate()));
+		inflate(frame, out, plainLength);
+		return plainLength;
+	}
+
+	/**
+	 * Runs the tasks of a batch of frames on the pool of {@link FHChunkCipher}.
+	 * @param tasks the tasks, each working on a frame
+	 * @return the sum of the results of the tasks
+	 * @throws IOException if a frame is invalid or can not be de- or encrypted
+	 */
+	static int invokeAll(List<Callable<Integer>> tasks) throws IOException {
+		int sum = 0;
+		try {
+			for(Future<Integer> result : FHChunkCipher.POOL.invokeAll(tasks))
+				sum += result.get();
+		} catch (ExecutionException e) {
+			// the pool wraps checked exceptions of the tasks
+			for(Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+				if(cause instanceof IOException) throw (IOException) cause;
+				if(cause instanceof GeneralSecurityException) throw new IOException(cause);
+			}
+			throw new FHRuntimeException(e.getCause().toString());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FHRuntimeException(e.toString());
+		}
+		return sum;
+	}
+
+	// MARK frame table
+
+	/**
+	 * The frame table of a compressed FHFile.
+	 * @author alex1s
+	 */
+	static final class Frames {
+		/**
+		 * The number of bytes of the hidden file.
+		 */
+		private final long size;
+		/**
+		 * The number of bytes of the hidden file in each chunk.
+		 */
+		private final int chunkSize;
+		/**
+		 * The lengths of the frames, with {@link FHCompression#DEFLATED} set for compressed frames.
+		 */
+		private final int[] lengths;
+		/**
+		 * The offsets of the frames relative to the start of the hidden data, followed by the end of the last frame.
+		 */
+		private final long[] offsets;
+
+		/**
+		 * Constructs a frame table.
+		 * @param size the number of bytes of the hidden file
+		 * @param chunkSize the number of bytes of the hidden file in each chunk
+		 * @param lengths the lengths of the frames, with {@link FHCompression#DEFLATED} set for compressed frames
+		 */
+		private Frames(long size, int chunkSize, int[] lengths) {
+			this.size = size;
+			this.chunkSize = chunkSize;
+			this.lengths = lengths;
+			this.offsets = new long[lengths.length + 1];
+			for(int i = 0; i < lengths.length; i++)
+				this.offsets[i + 1] = this.offsets[i] + (lengths[i] & ~DEFLATED);
+		}
+
+		/**
+		 * The length of the frame table.
+		 * @param frames the number of frames
+		 * @return the number of bytes of the unencrypted frame table
+		 */
+		static int tableLength(int frames) {
+			return Long.BYTES + Integer.BYTES + frames * Integer.BYTES;
+		}
+
+		/**
+		 * Reads a frame table.
+		 * @param table the frame table, decrypted if the hidden data is encrypted
+		 * @param hiddenDataLength the number of bytes of all frames
+		 * @param chunkSize the number of bytes of the hidden file in each chunk
+		 * @param encrypted weather the frames are encrypted
+		 * @return the frame table
+		 * @throws FHFileCorruptException if the frame table is invalid
+		 */
+		static Frames read(ByteBuffer table, long hiddenDataLength, int chunkSize, boolean encrypted) throws FHFileCorruptException {
+			try {
+				long size = table.getLong();
+				int count = table.getInt();
+				if(size < 0 || count != Math.max(1, (size + chunkSize - 1) / chunkSize) || count != table.remaining() / Integer.BYTES || table.remaining() % Integer.BYTES != 0)
+					throw new FHFileCorruptException();
+
+				int overhead = encrypted ? FHChunkCipher.TAG_BYTES : 0;
+				int[] lengths = new int[count];
+				long total = 0;
+				for(int i = 0; i < count; i++) {
+					lengths[i] = table.getInt();
+					int length = lengths[i] & ~DEFLATED;
+					int plainLength = (int) Math.min(chunkSize, size - (long) i * chunkSize);
+					// raw frames hold the whole chunk, compressed frames are smaller
+					if((lengths[i] & DEFLATED) == 0 ? length != plainLength + overhead : length < overhead || length - overhead >= plainLength)
+						throw new FHFileCorruptException();
+					total += length;
+				}
+				if(total != hiddenDataLength) throw new FHFileCorruptException();
+				return new Frames(size, chunkSize, lengths);
+			} catch (BufferUnderflowException e) {
+				throw new FHFileCorruptException();
+			}
+		}
+
+		/**
+		 * Writes a frame table.
+		 * @param size the number of bytes of the hidden file
+		 * @param lengths the lengths of the frames, with the highest bit set for compressed frames
+		 * @param count the number of frames
+		 * @return the frame table, ready to be written or encrypted
+		 */
+		static ByteBuffer write(long size, int[] lengths, int count) {
+			ByteBuffer table = ByteBuffer.allocate(tableLength(count));
+			table.putLong(size).putInt(count);
+			for(int i = 0; i < count; i++)
+				table.putInt(lengths[i]);
+			table.flip();
+			return table;
+		}
+
+		/**
+		 * Encodes the length of a frame for the frame table.
+		 * @param length the number of bytes the frame takes in the file
+		 * @param deflated weather the frame is compressed
+		 * @return the length as written to the frame table
+		 */
+		static int encode(int length, boolean deflated) {
+			return deflated ? length | DEFLATED : length;
+		}
+
+		/**
+		 * getter for size
+		 * @return the number of bytes of the hidden file
+		 */
+		long size() {
+			return this.size;
+		}
+
+		/**
+		 * The number of frames.
+		 * @return the number of frames
+		 */
+		int count() {
+			return this.lengths.length;
+		}
+
+		/**
+		 * The offset of a frame.
+		 * @param index the index of the frame, the number of frames for the end of the last frame
+		 * @return the offset of the frame relative to the start of the hidden data
+		 */
+		long offset(int index) {
+			return this.offsets[index];
+		}
+
+		/**
+		 * The length of a frame in the file.
+		 * @param index the index of the frame
+		 * @return the number of bytes the frame takes in the file
+		 */
+		int storedLength(int index) {
+			return this.lengths[index] & ~DEFLATED;
+		}
+
+		/**
+		 * The length of the chunk of a frame.
+		 * @param index the index of the frame
+		 * @return the number of bytes of the hidden file in the frame
+		 */
+		int plainLength(int index) {
+			return (int) Math.min(this.chunkSize, this.size - (long) index * this.chunkSize);
+		}
+
+		/**
+		 * Tells weather a frame is compressed.
+		 * @param index the index of the frame
+		 * @return true if the frame is compressed, false if it is stored raw
+		 */
+		boolean deflated(int index) {
+			return (this.lengths[index] & DEFLATED) != 0;
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package org.filehide.filehidelibrary;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Describes a named entry of a FHFile that is an archive.
+ * <p>
+ * The table of contents of an archive has following structure:<br>
+ * 1. 4 byte two´s-complement integer: the number of entries<br>
+ * 2. for every entry: the length of its UTF-8 encoded name (4 bytes), the name, the offset of its data relative to the start of the hidden data (8 bytes),
+ * the length of its data (8 bytes) and its flags, reserved for later versions (4 bytes, 0)
+ * <p>
+ * The data of the entries follow each other in the order of the table of contents. If the archive is encrypted, the data of every entry is split into chunks
+ * like the hidden file of a single FHFile, and the chunks of all entries are numbered consecutively.
+ * The table of contents itself is then encrypted as a whole, followed by its tag.
+ * @author alex1s
+ */
+public final class FHEntry {
+
+	/**
+	 * The name of the entry.
+	 */
+	private final String name;
+	/**
+	 * The offset of the data of the entry relative to the start of the hidden data.
+	 */
+	private final long offset;
+	/**
+	 * The number of bytes the data of the entry takes in the file.
+	 */
+	private final long storedLength;
+	/**
+	 * The flags of the entry.
+	 */
+	private final int flags;
+	/**
+	 * The index of the first chunk of the entry, 0 if the archive is unencrypted.
+	 */
+	private final long firstChunk;
+	/**
+	 * The number of bytes of the entry once read.
+	 */
+	private final long size;
+
+	/**
+	 * Constructs an entry.
+	 * @param name the name of the entry
+	 * @param offset the offset of the data of the entry relative to the start of the hidden data
+	 * @param storedLength the number of bytes the data of the entry takes in the file
+	 * @param flags the flags of the entry
+	 * @param firstChunk the index of the first chunk of the entry, 0 if the archive is unencrypted
+	 * @param size the number of bytes of the entry once read
+	 */
+	FHEntry(String name, long offset, long storedLength, int flags, long firstChunk, long size) {
+		this.name = name;
+		this.offset = offset;
+		this.storedLength = storedLength;
+		this.flags = flags;
+		this.firstChunk = firstChunk;
+		this.size = size;
+	}
+
+	// MARK table of contents
+
+	/**
+	 * Reads a table of contents.
+	 * @param toc the table of contents, decrypted if the archive is encrypted
+	 * @param hiddenDataLength the number of bytes of the data of all entries
+	 * @param chunkSize the number of bytes of an entry in each chunk, 0 if the archive is unencrypted
+	 * @return the entries
+	 * @throws FHFileCorruptException if the table of contents is invalid
+	 * @throws IncompatibleFHFileVersionException if an entry has flags not supported by this version of FileHide
+	 */
+	static List<FHEntry> read(ByteBuffer toc, long hiddenDataLength, int chunkSize) throws FHFileCorruptException, IncompatibleFHFileVersionException {
+		try {
+			int count = toc.getInt();
+			if(count < 0 || count > toc.remaining() / (Integer.BYTES + 2 * Long.BYTES + Integer.BYTES)) throw new FHFileCorruptException();
+
+			List<FHEntry> entries = new ArrayList<>(count);
+			Set<String> names = new HashSet<>();
+			long previousEnd = 0;
+			long chunk = 0;
+			for(int i = 0; i < count; i++) {
+				int nameLength = toc.getInt();
+				if(nameLength <= 0 || nameLength > toc.remaining()) throw new FHFileCorruptException();
+				byte[] name = new byte[nameLength];
+				toc.get(name);
+				long offset = toc.getLong();
+				long storedLength = toc.getLong();
+				int flags = toc.getInt();
+				if(flags != 0) throw new IncompatibleFHFileVersionException();
+
+				// the data of the entries follow each other in order
+				if(offset < previousEnd || storedLength < 0 || storedLength > hiddenDataLength - offset) throw new FHFileCorruptException();
+				previousEnd = offset + storedLength;
+
+				long size = storedLength;
+				long chunks = 0;
+				if(chunkSize > 0) {
+					size = FHChunkCipher.plainLength(storedLength, chunkSize);
+					chunks = (storedLength + chunkSize + FHChunkCipher.TAG_BYTES - 1) / (chunkSize + FHChunkCipher.TAG_BYTES);
+					if(size < 0 || chunk + chunks > FHChunkCipher.MAX_CHUNKS) throw new FHFileCorruptException();
+				}
+
+				FHEntry entry = new FHEntry(new String(name, StandardCharsets.UTF_8), offset, storedLength, flags, chunk, size);
+				if(!names.add(entry.name)) throw new FHFileCorruptException();
+				entries.add(entry);
+				chunk += chunks;
+			}
+			if(toc.hasRemaining()) throw new FHFileCorruptException();
+			return Collections.unmodifiableList(entries);
+		} catch (BufferUnderflowException e) {
+			throw new FHFileCorruptException();
+		}
+	}
+
+	/**
+	 * Writes a table of contents.
+	 * @param entries the entries
+	 * @return the table of contents, ready to be written or encrypted
+	 */
+	static ByteBuffer write(List<FHEntry> entries) {
+		List<byte[]> names = new ArrayList<>(entries.size());
+		int length = Integer.BYTES;
+		for(FHEntry entry : entries) {
+			byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+			names.add(name);
+			length += Integer.BYTES + name.length + 2 * Long.BYTES + Integer.BYTES;
+		}
+
+		ByteBuffer toc = ByteBuffer.allocate(length);
+		toc.putInt(entries.size());
+		for(int i = 0; i < entries.size(); i++) {
+			FHEntry entry = entries.get(i);
+			toc.putInt(names.get(i).length).put(names.get(i)).putLong(entry.offset).putLong(entry.storedLength).putInt(entry.flags);
+		}
+		toc.flip();
+		return toc;
+	}
+
+	// MARK getters
+
+	/**
+	 * getter for name
+	 * @return the name of the entry
+	 */
+	public String name() {
+		return this.name;
+	}
+
+	/**
+	 * getter for size
+	 * @return the number of bytes of the entry once read
+	 */
+	public long size() {
+		return this.size;
+	}
+
+	/**
+	 * getter for offset
+	 * @return the offset of the data of the entry relative to the start of the hidden data
+	 */
+	long offset() {
+		return this.offset;
+	}
+
+	/**
+	 * getter for storedLength
+	 * @return the number of bytes the data of the entry takes in the file
+	 */
+	long storedLength() {
+		return this.storedLength;
+	}
+
+	/**
+	 * getter for flags
+	 * @return the flags of the entry
+	 */
+	int flags() {
+		return this.flags;
+	}
+
+	/**
+	 * getter for firstChunk
+	 * @return the index of the first chunk of the entry, 0 if the archive is unencrypted
+	 */
+	long firstChunk() {
+		return this.firstChunk;
+	}
+
+	@Override
+	public String toString() {
+		return "FHEntry[name=" + this.name + ", size=" + this.size + "]";
+	}
+}
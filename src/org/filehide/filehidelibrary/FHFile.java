@@ -1,11 +1,31 @@
 package org.filehide.filehidelibrary;
 
 import java.io.File;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
@@ -15,11 +35,48 @@ import org.filehide.filehidelibrary.FHCipher.OperationMode;
 /**
  * Class that describes a FHFile.
  * <p>
+ * A FHFIle (version 6) has the structure of version 5 and defines following flags:<br>
+ * {@code 16}: the hidden data and its table are followed by the checksum table (see {@link FHChecksums}), the length of the table (if the file has one) and the length of the checksum table
+ * as 8 byte two´s-complement long come after it, before the offset of the starting magic number. Checksums are added to a file with {@link #addChecksums()}.<br>
+ * Files without this flag are written as version 5 or lower.
+ * <p>
+ * A FHFIle (version 5) has the structure of version 4 and defines following flags:<br>
+ * {@code 8}: the hidden data is encrypted with a random content key. Instead of the encrypted FH_CRYPT the head holds the key slots (see {@link FHKeySlots}),
+ * so passwords can be changed, added and removed without encrypting the hidden data again. All encrypted files are written with key slots.<br>
+ * Files without this flag are written as version 4 or lower.
+ * <p>
+ * A FHFIle (version 4) has the structure of version 3 and defines following flags:<br>
+ * {@code 4}: data has been appended to the encrypted hidden file. Its chunks are split into segments that each have their own nonce,
+ * they are followed by the segment table (see {@link FHAppend}) and its length as 8 byte two´s-complement long. Archives and compressed files have no segments.<br>
+ * Files without this flag are written as version 3 or lower.
+ * <p>
+ * A FHFIle (version 3) has the structure of version 2 and defines following flags:<br>
+ * {@code 2}: the hidden file is compressed. Its chunks are stored as frames, which are followed by the frame table (see {@link FHCompression})
+ * and its length as 8 byte two´s-complement long, which come before the offset of the starting magic number. Archives can not be compressed.<br>
+ * Files without this flag are written as version 2 or 1.
+ * <p>
+ * A FHFIle (version 2) has the structure of version 1 and defines following flags:<br>
+ * {@code 1}: the file is an archive of named entries. The data of the entries is followed by the table of contents (see {@link FHEntry})
+ * and its length as 8 byte two´s-complement long, which come before the offset of the starting magic number.<br>
+ * Files without flags are written as version 1, so they can still be read by older versions of FileHide.
+ * <p>
+ * A FHFIle (version 1) has following structure:<br>
+ * 1. the bytes of the original file<br>
+ * 2. 10 bytes: starting magic number ({@code 0x41 0x6C 0x65 0x78 0x31 0x73 0x42 0x69 0x67 0x44})<br>
+ * 3. 4 byte two´s-complement integer: the FHFile´s version number<br>
+ * 4. 4 byte two´s-complement integer: flags, reserved for later versions (0)<br>
+ * 5. 4 byte two´s-complement integer: the chunk size, the number of bytes of the hidden file in each chunk<br>
+ * 6. 8 bytes: the nonce of the file<br>
+ * 7. 16 bytes: ({@code 0x46 0x48 0x43 0x72 0x79 0x70 0x74 0x00 0x00 0x00 0x00 0x00 0x00 0x00 0x00 0x00}) or 32 bytes: this value encrypted with AES/GCM (including its tag) if the file is encrypted<br>
+ * 8. the bytes of the hidden file, if the file is encrypted split into chunks that are each encrypted with AES/GCM and followed by their 16 byte tag<br>
+ * 9. 8 byte two´s-complement long: offset of the starting magic number (same as length of the original file)<br>
+ * 10. 13 bytes: ending magic number ({@code 0x41 0x6C 0x65 0x78 0x31 0x73 0x42 0x69 0x67 0x44 0x45 0x6E 0x64)
+ * <p>
  * A FHFIle (version 0) has following structure:<br>
  * 1. the bytes of the original file<br>
  * 2. 10 bytes: starting magic number ({@code 0x41 0x6C 0x65 0x78 0x31 0x73 0x42 0x69 0x67 0x44})<br>
  * 3. 4 byte two´s-complement integer: the FHFile´s version number<br>
- * 4. 16 bytes: ({@code 0x46 0x48 0x43 0x72 0x79 0x70 0x74 0x00 0x00 0x00 0x00 0x00 0x00 0x00 0x00 0x00}) or this value encrypted if the file is encrypted<br>
+ * 4. 16 bytes: ({@code 0x46 0x48 0x43 0x72 0x79 0x70 0x74 0x00 0x00 0x00 0x00 0x00 0x00 0x00 0x00 0x00}) or 32 bytes: this value encrypted (including its padding block) if the file is encrypted<br>
  * 5. the bytes of the hidden file<br>
  * 6. 8 byte two´s-complement long: offset of the starting magic number (same as length of the original file)<br>
  * 7. 13 bytes: ending magic number ({@code 0x41 0x6C 0x65 0x78 0x31 0x73 0x42 0x69 0x67 0x44 0x45 0x6E 0x64)
@@ -49,11 +106,44 @@ public class FHFile extends File {
 	/**
 	 * The current file version that is supported by this version of FileHide.
 	 */
-	static final int CURRENT_FILE_VERSION = 0;
+	static final int CURRENT_FILE_VERSION = 6;
+	
+	/**
+	 * The flag of files that are archives of named entries, since version 2.
+	 */
+	static final int FLAG_ARCHIVE = 1;
+	
+	/**
+	 * The flag of files whose hidden file is compressed, since version 3.
+	 */
+	static final int FLAG_COMPRESSED = 2;
+	
+	/**
+	 * The flag of encrypted files whose chunks are split into segments because data has been appended, since version 4.
+	 */
+	static final int FLAG_SEGMENTED = 4;
+	/**
+	 * The flag of encrypted files whose hidden data is encrypted with a content key held by key slots, since version 5.
+	 */
+	static final int FLAG_KEY_SLOTS = 8;
+	/**
+	 * The flag of files that have a checksum table, since version 6.
+	 */
+	static final int FLAG_CHECKSUMS = 16;
+	
+	/**
+	 * The flags that are supported by this version of FileHide.
+	 */
+	static final int SUPPORTED_FLAGS = FLAG_ARCHIVE | FLAG_COMPRESSED | FLAG_SEGMENTED | FLAG_KEY_SLOTS | FLAG_CHECKSUMS;
 	
 	
 	// MARK offsets
 	
+	/**
+	 * The length of the file before the hidden data has been added, which is the offset of the starting magic number.
+	 */
+	private long originalFileLength;
+	
 	/**
 	 * The offset that points to the beginning of the hidden data.
 	 */
@@ -65,6 +155,34 @@ public class FHFile extends File {
 	private long offsetEnd;
 	
 	
+	// MARK format
+	
+	/**
+	 * The version of the file.
+	 */
+	private int version;
+	
+	/**
+	 * The flags of the file. Only set since version 2.
+	 */
+	private int flags;
+	
+	/**
+	 * The length of the table of contents of archives, of the frame table of compressed files or of the segment table. Only set for these.
+	 */
+	private long tocLength;
+	
+	/**
+	 * The number of bytes of the hidden file in each chunk. Only set since version 1.
+	 */
+	private int chunkSize;
+	
+	/**
+	 * The nonce of the file. Only not null since version 1.
+	 */
+	private byte[] nonce;
+	
+	
 	// MARK crypt
 	
 	/**
@@ -97,79 +215,277 @@ public class FHFile extends File {
 	 */
 	public FHFile(File file) throws IOException, NotFHFileException, FHFileCorruptException, IncompatibleFHFileVersionException {
 		super(file.getCanonicalPath());
+		long start = FHInstrumentation.start();
+		try {
+			FHHeader header;
+			try(FileChannel channel = FileChannel.open(this.toPath(), StandardOpenOption.READ)) {
+				header = FHHeader.read(channel, this.toPath());
+			}
 		
-		RandomAccessFile raf = new RandomAccessFile(this, "r");
-		
-		// ending magic number
-		raf.seek(this.length() - FH_END.length);
-		byte[] end = new byte[FH_END.length];
-		raf.read(end);
-		if(!Arrays.equals(FH_END, end)) {
-			raf.close();
-			throw new NotFHFileException();
-		}
-		
-		// hidden data offset
-		this.offsetEnd = (this.length() - FH_END_LENGTH());
-		raf.seek(this.offsetEnd);
-		long originalFileLength = raf.readLong();
-		long hiddenDataLength = this.length() - originalFileLength - FH_HEAD_LENGTH() - FH_END_LENGTH();
-		if(hiddenDataLength <= 0) {
-			raf.close();
-			throw new FHFileCorruptException();
-		}
-		
-		// starting magic number
-		raf.seek(originalFileLength);
-		byte[] start = new byte[FH_START.length];
-		raf.read(start);
-		if(!Arrays.equals(FH_START, start)) {
-			raf.close();
-			throw new FHFileCorruptException();
-		}
-		
-		// file version
-		int fileVersion = raf.readInt();
-		if(fileVersion < 0) {
-			raf.close();
-			throw new FHFileCorruptException();
-		} else if(fileVersion != CURRENT_FILE_VERSION) {
-			raf.close();
-			throw new IncompatibleFHFileVersionException();
-		}
-		
-		// crypto bytes
-		byte[] cryptoBytes = new byte[FHCipher.BYTES];
-		raf.read(cryptoBytes);
-		if(!Arrays.equals(FH_CRYPT, cryptoBytes)) {
-			if(hiddenDataLength % 16 != 0) {
-				raf.close();
+			switch(header.status()) {
+			case NOT_FH_FILE:
+				throw new NotFHFileException();
+			case CORRUPT:
 				throw new FHFileCorruptException();
+			case INCOMPATIBLE_VERSION:
+				throw new IncompatibleFHFileVersionException();
+			default:
+				init(header);
 			}
-			this.cryptoBytes = cryptoBytes;
-			this.encrypted = true;
-		} else
-			this.encrypted = false;
-		
-		this.offsetStart = raf.getFilePointer();
-		
-		raf.close();
+		} finally {
+			FHInstrumentation.operation(FHMetrics.Operation.OPEN, start);
+		}
+	}
+	
+	/**
+	 * Constructor for a FHFile from a header that has been read before, see {@link #probe(Path)}.
+	 * <p>
+	 * The file is not read again, so the header should still describe it.
+	 * @param header the header of the FHFile
+	 */
+	public FHFile(FHHeader header) {
+		super(header.path().toString());
+		init(header);
+	}
+	
+	/**
+	 * Takes the structure of this FHFile from its header.
+	 * @param header the header of this FHFile
+	 */
+	private void init(FHHeader header) {
+		this.originalFileLength = header.originalFileLength();
+		this.offsetStart = header.offsetStart();
+		this.offsetEnd = header.offsetEnd();
+		this.version = header.version();
+		this.flags = header.flags();
+		this.tocLength = header.tocLength();
+		this.chunkSize = header.chunkSize();
+		this.nonce = header.nonce();
+		this.encrypted = header.encrypted();
+		this.cryptoBytes = header.cryptoBytes();
 	}
 	
 	
+	// MARK probing
+	
+	/**
+	 * Reads the header of a file if it is a FHFile.
+	 * <p>
+	 * Only the end and the head of the file are read, with one positional read each.
+	 * Unlike the constructor this does not throw if the file is not a FHFile, which makes it suitable to look for FHFiles among many files.
+	 * @param path the file to probe
+	 * @return the header of the file, or empty if the file is not a readable FHFile
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static Optional<FHHeader> probe(Path path) throws IOException {
+		FHHeader header;
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			header = FHHeader.read(channel, path);
+		}
+		return header.status() == FHHeader.Status.FH_FILE ? Optional.of(header) : Optional.empty();
+	}
+
+
+	// MARK recovery
+
+	/**
+	 * Searches a file whose end has been damaged or cut off for hidden data, so it can be extracted even though the file can not be opened as FHFile anymore.
+	 * <p>
+	 * The whole file is mapped into memory in windows which are searched in parallel for the starting magic number. Every head found is checked like when opening a FHFile,
+	 * the end of its hidden data is inferred from what is left of the end of the file. The header of a FHFile whose end is intact is returned as read.
+	 * If what is left of the end can as well be the last bytes of the hidden data, e.g. if the hidden data ends with zeros, a header is returned for every length
+	 * the hidden data can have, longest first. Use {@link #recover(Path, String)} to keep only the right one of encrypted hidden data.
+	 * Encrypted hidden data that has been cut itself can not be decrypted anymore, as the last chunk is authenticated.
+	 * The data of archives, compressed files and files that have been appended to can not be recovered, as their table is lost with the end.
+	 * <p>
+	 * The original file may contain heads before the one of the damaged FHFile and unencrypted hidden data may contain heads after it.
+	 * Use {@link #FHFile(FHHeader)} to extract the recovered hidden data. A recovered FHFile can only be read, hide the extracted data again to repair it.
+	 * @param path the damaged file
+	 * @return the headers of the FHFiles found, in the order of their heads in the file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static List<FHHeader> recover(Path path) throws IOException {
+		return recover(path, (byte[]) null);
+	}
+
+	/**
+	 * Searches a file whose end has been damaged or cut off for hidden data, like {@link #recover(Path)}, and decrypts the end of encrypted hidden data to find its length.
+	 * <p>
+	 * Of the lengths encrypted hidden data can have only the ones whose last chunk can be decrypted with the password are kept, which is the right one.
+	 * Hidden data of version 0 is checked by the padding of its last block, which may keep a wrong length by chance.
+	 * Heads of encrypted hidden data that can not be decrypted with the password are left out, unencrypted hidden data is returned as by {@link #recover(Path)}.
+	 * @param path the damaged file
+	 * @param password the password the hidden data is encrypted with
+	 * @return the headers of the FHFiles found, in the order of their heads in the file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static List<FHHeader> recover(Path path, String password) throws IOException {
+		return recover(path, password.getBytes(FHCipher.CHARSET));
+	}
+
+	/**
+	 * Searches a file whose end has been damaged or cut off for hidden data, see {@link #recover(Path, String)}.
+	 * @param path the damaged file
+	 * @param password the password the hidden data is encrypted with, null to keep all lengths
+	 * @return the headers of the FHFiles found, in the order of their heads in the file
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static List<FHHeader> recover(Path path, byte[] password) throws IOException {
+		long start = FHInstrumentation.start();
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return FHRecovery.recover(channel, path, password);
+		} finally {
+			FHInstrumentation.operation(FHMetrics.Operation.RECOVER, start);
+		}
+	}
+
+	
 	// MARK public functions
 	
 	/**
 	 * Deletes the data hidden inside of this file.
 	 * <p>
+	 * The file is truncated to its original length, so the head, the hidden data and the end are removed.
 	 * Note: Do not use this object anymore in any way after this method has been called.
-	 * @throws IOException if an I/O error occurs
+	 * @throws IOException if an I/O error occurs or this file has changed since it has been read
 	 */
 	public void deleteHiddenData() throws IOException {
+		hiddenDataDeleted();
+		try(FileChannel channel = FileChannel.open(this.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			readUnchanged(channel);
+			channel.truncate(this.originalFileLength);
+		}
+		this.hiddenDataDeleted = true;
+	}
+	
+	
+	// MARK replace hidden data
+	
+	/**
+	 * Replaces the hidden data of this FHFile with the data of a stream.
+	 * <p>
+	 * See {@link #replaceHiddenData(ReadableByteChannel)}.
+	 * @param payload the stream of the data to be hidden, read to its end but not closed
+	 * @throws IOException if an I/O error occurs or this file has changed since it has been read
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	public void replaceHiddenData(InputStream payload) throws IOException, FHFileCreationFailedException {
+		replaceHiddenData(Channels.newChannel(payload), null, false);
+	}
+	
+	/**
+	 * Replaces the hidden data of this FHFile with the data of a channel.
+	 * <p>
+	 * This file is truncated to its original length and the new head, data and end are written after it in a single pass,
+	 * so the bytes of the original file are neither read nor copied. If the replacement fails, the file is left without hidden data.
+	 * @param payload the channel of the data to be hidden, read to its end but not closed
+	 * @throws IOException if an I/O error occurs or this file has changed since it has been read
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	public void replaceHiddenData(ReadableByteChannel payload) throws IOException, FHFileCreationFailedException {
+		replaceHiddenData(payload, null, false);
+	}
+	
+	/**
+	 * Replaces the hidden data of this FHFile with the encrypted data of a stream.
+	 * <p>
+	 * See {@link #replaceHiddenData(ReadableByteChannel, String)}.
+	 * @param payload the stream of the data to be hidden, read to its end but not closed
+	 * @param password the password to encrypt the hidden data with
+	 * @throws IOException if an I/O error occurs or this file has changed since it has been read
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	public void replaceHiddenData(InputStream payload, String password) throws IOException, FHFileCreationFailedException {
+		replaceHiddenData(Channels.newChannel(payload), password.getBytes(FHCipher.CHARSET), false);
+	}
+	
+	/**
+	 * Replaces the hidden data of this FHFile with the encrypted data of a channel.
+	 * <p>
+	 * This file is truncated to its original length and the new head, data and end are written after it in a single pass,
+	 * so the bytes of the original file are neither read nor copied. If the replacement fails, the file is left without hidden data.
+	 * @param payload the channel of the data to be hidden, read to its end but not closed
+	 * @param password the password to encrypt the hidden data with
+	 * @throws IOException if an I/O error occurs or this file has changed since it has been read
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	public void replaceHiddenData(ReadableByteChannel payload, String password) throws IOException, FHFileCreationFailedException {
+		replaceHiddenData(payload, password.getBytes(FHCipher.CHARSET), false);
+	}
+	
+	/**
+	 * Replaces the hidden data of this FHFile with the data of a channel, so that it survives a crash of the system.
+	 * <p>
+	 * Like {@link #replaceHiddenData(ReadableByteChannel)}, but the truncation is forced to the storage device first and the new end is only written
+	 * once the new hidden data has been forced to it. After a crash the file is therefore either a FHFile with all of the new hidden data
+	 * or no FHFile at all, it never ends like a FHFile whose hidden data is incomplete. The original file is kept in any case.
+	 * If this FHFile has checksums, they are added to the new hidden data afterwards. Its end is removed for that, so a crash meanwhile leaves no FHFile,
+	 * whose new hidden data can still be found with {@link #recover(Path)}.
+	 * @param payload the channel of the data to be hidden, read to its end but not closed
+	 * @throws IOException if an I/O error occurs or this file has changed since it has been read
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	public void replaceHiddenDataDurably(ReadableByteChannel payload) throws IOException, FHFileCreationFailedException {
+		replaceHiddenData(payload, null, true);
+	}
+	
+	/**
+	 * Replaces the hidden data of this FHFile with the encrypted data of a channel, so that it survives a crash of the system.
+	 * <p>
+	 * Like {@link #replaceHiddenData(ReadableByteChannel, String)}, but the truncation is forced to the storage device first and the new end is only written
+	 * once the new hidden data has been forced to it. After a crash the file is therefore either a FHFile with all of the new hidden data
+	 * or no FHFile at all, it never ends like a FHFile whose hidden data is incomplete. The original file is kept in any case.
+	 * If this FHFile has checksums, they are added to the new hidden data afterwards. Its end is removed for that, so a crash meanwhile leaves no FHFile,
+	 * whose new hidden data can still be found with {@link #recover(Path)}.
+	 * @param payload the channel of the data to be hidden, read to its end but not closed
+	 * @param password the password to encrypt the hidden data with
+	 * @throws IOException if an I/O error occurs or this file has changed since it has been read
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	public void replaceHiddenDataDurably(ReadableByteChannel payload, String password) throws IOException, FHFileCreationFailedException {
+		replaceHiddenData(payload, password.getBytes(FHCipher.CHARSET), true);
+	}
+	
+	/**
+	 * Replaces the hidden data of this FHFile and reads the new header.
+	 * @param payload the channel of the data to be hidden
+	 * @param password the password to encrypt the hidden data with, null if it should not be encrypted
+	 * @param sync weather the truncation and the new hidden data are forced to the storage device before the new end is written, and the checksums before their end
+	 * @throws IOException if an I/O error occurs or this file has changed since it has been read
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	private void replaceHiddenData(ReadableByteChannel payload, byte[] password, boolean sync) throws IOException, FHFileCreationFailedException {
+		hiddenDataDeleted();
+		boolean checksums = this.checksums();
+		try(FileChannel channel = FileChannel.open(this.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			readUnchanged(channel);
+			// the old end is removed first, so it can not be left behind after the new data
+			channel.truncate(this.originalFileLength);
+			if(sync) channel.force(true);
+		}
+		
+		// the file is the carrier of the new hidden data now
 		this.hiddenDataDeleted = true;
-		RandomAccessFile raf = new RandomAccessFile(this, "w");
-		raf.setLength(this.offsetStart());
-		raf.close();
+		hideStream(payload, this.toPath(), this.toPath(), password, FHCompression.NONE, sync);
+		try(FileChannel channel = FileChannel.open(this.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			init(FHHeader.read(channel, this.toPath()));
+			this.hiddenDataDeleted = false;
+			if(checksums) addChecksums(channel, sync);
+		}
+	}
+	
+	/**
+	 * Reads the header of this file again and checks that it still describes this FHFile.
+	 * @param channel a channel of this file
+	 * @return the header
+	 * @throws IOException if an I/O error occurs or this file has changed since it has been read
+	 */
+	private FHHeader readUnchanged(FileChannel channel) throws IOException {
+		FHHeader header = FHHeader.read(channel, this.toPath());
+		if(header.status() != FHHeader.Status.FH_FILE || header.originalFileLength() != this.originalFileLength
+				|| header.offsetStart() != this.offsetStart || header.offsetEnd() != this.offsetEnd || header.flags() != this.flags)
+			throw new IOException(this + " has changed since it has been read");
+		return header;
 	}
 	
 	
@@ -191,15 +507,126 @@ public class FHFile extends File {
 	 * @return true if the password can be used, false if not
 	 */
 	private boolean checkPassword(byte[] password) {
+		long start = FHInstrumentation.start();
+		try {
+			hiddenDataDeleted();
+			if(!this.encrypted()) throw new FHFileUnencryptedException();
+			if(this.keySlots()) return FHKeySlots.find(this.cryptoBytes, new FHChunkCipher(password, this.nonce, this.chunkSize), new byte[FHKeySlots.KEY_BYTES]) >= 0;
+			if(this.version >= 1) return new FHChunkCipher(password, this.nonce, this.chunkSize).check(this.cryptoBytes);
+		
+			FHCipher cipher = new FHCipher(OperationMode.DECRYPT_MODE, password, true, true);
+			try {
+				return Arrays.equals(FH_CRYPT, cipher.getCipher().doFinal(this.cryptoBytes));
+			} catch (IllegalBlockSizeException | BadPaddingException e) {
+				return false;
+			}
+		} finally {
+			FHInstrumentation.operation(FHMetrics.Operation.CHECK_PASSWORD, start);
+		}
+	}
+	
+	
+	// MARK changing passwords
+	
+	/**
+	 * Changes a password of this FHFile.
+	 * <p>
+	 * Only the key slots in the head are rewritten, the hidden data is not encrypted again. The new password is put into an unused slot
+	 * and forced to the storage device before the slot of the old password is cleared, so the hidden data stays readable even if the system crashes in between.
+	 * @param password the password to change
+	 * @param newPassword the new password
+	 * @return true if the password has been changed, false if the password is wrong
+	 * @throws FHFileUnencryptedException if this FHFile is not encrypted
+	 * @throws FHFileNoKeySlotsException if this FHFile has no key slots
+	 * @throws IOException if an I/O error occurs or this file has been changed since it has been read
+	 */
+	public boolean changePassword(String password, String newPassword) throws IOException {
+		return changeKeySlots(password.getBytes(FHCipher.CHARSET), newPassword.getBytes(FHCipher.CHARSET), true);
+	}
+	
+	/**
+	 * Adds a password to this FHFile, the hidden data can then be decrypted with either of them.
+	 * <p>
+	 * Only a key slot in the head is written, the hidden data is not encrypted again.
+	 * @param password a password of this FHFile
+	 * @param newPassword the password to add
+	 * @return true if the password has been added, false if the password is wrong
+	 * @throws FHFileUnencryptedException if this FHFile is not encrypted
+	 * @throws FHFileNoKeySlotsException if this FHFile has no key slots or all of them are used
+	 * @throws IOException if an I/O error occurs or this file has been changed since it has been read
+	 */
+	public boolean addPassword(String password, String newPassword) throws IOException {
+		return changeKeySlots(password.getBytes(FHCipher.CHARSET), newPassword.getBytes(FHCipher.CHARSET), false);
+	}
+	
+	/**
+	 * Removes a password from this FHFile, which must have another one.
+	 * <p>
+	 * Only a key slot in the head is cleared, the hidden data is not encrypted again.
+	 * @param password the password to remove
+	 * @return true if the password has been removed, false if the password is wrong
+	 * @throws FHFileUnencryptedException if this FHFile is not encrypted
+	 * @throws FHFileNoKeySlotsException if this FHFile has no key slots or the password is its only one
+	 * @throws IOException if an I/O error occurs or this file has been changed since it has been read
+	 */
+	public boolean removePassword(String password) throws IOException {
+		return changeKeySlots(password.getBytes(FHCipher.CHARSET), null, true);
+	}
+	
+	/**
+	 * Puts a new password into an unused key slot, clears the key slot of a password, or both.
+	 * @param password a password of this FHFile
+	 * @param newPassword the password to put into an unused slot, null if none should be added
+	 * @param remove weather to clear the slot of the password
+	 * @return true if the slots have been changed, false if the password is wrong
+	 * @throws IOException if an I/O error occurs or this file has been changed since it has been read
+	 */
+	private boolean changeKeySlots(byte[] password, byte[] newPassword, boolean remove) throws IOException {
 		hiddenDataDeleted();
 		if(!this.encrypted()) throw new FHFileUnencryptedException();
-		FHCipher cipher = new FHCipher(OperationMode.DECRYPT_MODE, password);
-		try {
-			cipher.getCipher().doFinal(this.cryptoBytes);
-		} catch (IllegalBlockSizeException | BadPaddingException e) {
-			return false;
+		if(!this.keySlots()) throw new FHFileNoKeySlotsException();
+		
+		try(FileChannel channel = FileChannel.open(this.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			byte[] slots = readUnchanged(channel).cryptoBytes().clone();
+			byte[] contentKey = new byte[FHKeySlots.KEY_BYTES];
+			try {
+				int slot = FHKeySlots.find(slots, new FHChunkCipher(password, this.nonce, this.chunkSize), contentKey);
+				if(slot < 0) return false;
+				if(newPassword == null && FHKeySlots.count(slots) == 1) throw new FHFileNoKeySlotsException();
+				
+				if(newPassword != null) {
+					int free = FHKeySlots.free(slots);
+					// a password is only changed in place if there is no other slot
+					if(free < 0 && !remove) throw new FHFileNoKeySlotsException();
+					if(free < 0) free = slot;
+					FHKeySlots.put(slots, free, new FHChunkCipher(newPassword, this.nonce, this.chunkSize), contentKey);
+					writeKeySlot(channel, slots, free);
+					if(free == slot) remove = false;
+				}
+				if(remove) {
+					FHKeySlots.clear(slots, slot);
+					writeKeySlot(channel, slots, slot);
+				}
+			} catch (GeneralSecurityException e) {
+				throw new IOException(e);
+			} finally {
+				Arrays.fill(contentKey, (byte) 0);
+			}
+			this.cryptoBytes = slots;
+			return true;
 		}
-		return true;
+	}
+	
+	/**
+	 * Writes a key slot to the head of this FHFile and forces it to the storage device.
+	 * @param channel the channel of this file
+	 * @param slots the key slots
+	 * @param slot the number of the slot to write
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void writeKeySlot(FileChannel channel, byte[] slots, int slot) throws IOException {
+		FHChannels.writeFully(channel, ByteBuffer.wrap(slots, slot * FHKeySlots.SLOT_BYTES, FHKeySlots.SLOT_BYTES), this.originalFileLength + FHKeySlots.offset(slot));
+		channel.force(false);
 	}
 	
 	
@@ -207,16 +634,18 @@ public class FHFile extends File {
 	
 	/**
 	 * Extracts the hidden data of this FHFile to the given Path and replaces any existing files.
+	 * <p>
+	 * The hidden data is transferred directly from this file´s channel to the destination´s channel, so it does not pass through the Java heap.
 	 * @param destination
 	 * @throws IOException
 	 */
 	public void extractHiddenData(File destination) throws IOException {
-		hiddenDataDeleted();
-		if(this.encrypted()) throw new FHFileEncryptedException();
-		
-		FHInputStream in = new FHInputStream(this);
-		Files.copy(in, destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
-		in.close();
+		long start = FHInstrumentation.start();
+		try {
+			extract(destination, null);
+		} finally {
+			FHInstrumentation.operation(FHMetrics.Operation.EXTRACT, start);
+		}
 	}
 	
 	
@@ -233,153 +662,1317 @@ public class FHFile extends File {
 		extractHiddenData(destination, password.getBytes(FHCipher.CHARSET));
 	}
 	
-	/*
+	/**
 	 * Extracts the encrypted hidden data of this FHFile to the given Path and replaces any existing files.
-	 * @param to The path to where the hidden data should be extracted to
+	 * @param destination The path to where the hidden data should be extracted to
 	 * @param password The password whith which the hidden data is encrypted with.
 	 * @throws FHFileNotEncryptedException if this FHFile is not encrypted
 	 * @throws IOException if an I/O error occurs
 	 */
-	private void extractHiddenData(File destination, byte[] password) throws IOException {
+	void extractHiddenData(File destination, byte[] password) throws IOException {
+		long start = FHInstrumentation.start();
+		try {
+			extract(destination, password);
+		} finally {
+			FHInstrumentation.operation(FHMetrics.Operation.EXTRACT, start);
+		}
+	}
+	
+	/**
+	 * Extracts the hidden data of this FHFile to the given Path and replaces any existing files, without reporting the operation to the {@link FHMetrics}.
+	 * @param destination the path to where the hidden data should be extracted to
+	 * @param password the password the hidden data is encrypted with, null if it is not encrypted
+	 * @throws FHFileEncryptedException if this FHFile is encrypted but no password is given
+	 * @throws FHFileUnencryptedException if this FHFile is not encrypted but a password is given
+	 * @throws IOException if an I/O error occurs
+	 */
+	void extract(File destination, byte[] password) throws IOException {
 		hiddenDataDeleted();
-		if(!this.encrypted()) throw new FHFileUnencryptedException();
-		
+		if(this.archive()) throw new FHFileArchiveException();
+		if(password == null && this.encrypted()) throw new FHFileEncryptedException();
+		if(password != null && !this.encrypted()) throw new FHFileUnencryptedException();
+	
+		if(this.compressed()) {
+			extractFrames(destination, password == null ? null : contentCipher(password));
+			return;
+		}
+		if(password == null) {
+			try(FileChannel in = FileChannel.open(this.toPath(), StandardOpenOption.READ);
+					FileChannel out = FileChannel.open(destination.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				FHChannels.transferFully(in, this.offsetStart(), this.offsetEnd() - this.offsetStart(), out);
+			}
+			return;
+		}
+		if(this.version >= 1) {
+			extractChunks(destination, chunkCipher(password));
+			return;
+		}
+	
 		FHInputStream in = new FHInputStream(this, new FHCipher(OperationMode.DECRYPT_MODE, password));
 		Files.copy(in, destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
 		in.close();
 	}
 	
+	/**
+	 * Extracts the encrypted chunks of this FHFile to the given Path and replaces any existing files.
+	 * <p>
+	 * The chunks are read in batches into buffers borrowed from the {@link FHBufferPool}, which are decrypted in parallel and written in order.
+	 * @param destination The path to where the hidden data should be extracted to
+	 * @param cipher the cipher to decrypt the chunks with
+	 * @throws IOException if an I/O error occurs or a chunk can not be decrypted
+	 */
+	private void extractChunks(File destination, FHChunkCipher cipher) throws IOException {
+		int chunks = Math.max(1, FHChunkCipher.POOL.getParallelism());
+		ByteBuffer cipherText = FHBufferPool.borrow(chunks * (this.chunkSize + FHChunkCipher.TAG_BYTES));
+		ByteBuffer plainText = FHBufferPool.borrow(chunks * this.chunkSize);
+		
+		try(FileChannel in = FileChannel.open(this.toPath(), StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(destination.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long position = this.offsetStart();
+			long written = 0;
+			for(long index = 0; position < this.offsetEnd(); index += chunks) {
+				cipherText.clear().limit((int) Math.min(cipherText.capacity(), this.offsetEnd() - position));
+				position += FHChannels.readFully(in, cipherText, position);
+				cipherText.flip();
+				plainText.clear();
+				cipher.crypt(OperationMode.DECRYPT_MODE, index, cipherText, position == this.offsetEnd(), plainText);
+				written += FHChannels.writeFully(out, plainText.flip(), written);
+			}
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e);
+		} finally {
+			FHBufferPool.giveBack(cipherText);
+			FHBufferPool.giveBack(plainText);
+		}
+	}
 	
-	// MARK hide data in a file (inplace, not password protected)
 	
 	/**
-	 * Hides a file inside a file and saves the result at a given location without touching the file the other file will be hidden in.
-	 * @param origin the file which contains the data to be hidden
-	 * @param destination the file which should contain the hidden file (will be left untouched)
-	 * @param finalDestination location to save the result
-	 * @return the created FHFile
-	 * @throws IOException if an I/O error occurs
-	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 * Extracts the compressed hidden data of this FHFile to the given Path and replaces any existing files.
+	 * <p>
+	 * The frames are read in batches into buffers borrowed from the {@link FHBufferPool}, which are decrypted and decompressed in parallel and written in order.
+	 * @param destination The path to where the hidden data should be extracted to
+	 * @param cipher the cipher to decrypt the frames with, null if this FHFile is unencrypted
+	 * @throws IOException if an I/O error occurs or a frame is invalid or can not be decrypted
 	 */
-	public static FHFile hide(File origin, File destination, File finalDestination) throws IOException, FHFileCreationFailedException {
-		Files.copy(destination.toPath(), finalDestination.toPath(), StandardCopyOption.REPLACE_EXISTING);
-		try {
-			return hide(origin, finalDestination);
-		} catch (FHFileCreationFailedException e) {
-			// cleanup
-			Files.delete(finalDestination.toPath());
-			throw e;
+	private void extractFrames(File destination, FHChunkCipher cipher) throws IOException {
+		FHCompression.Frames frames = readFrames(cipher);
+		int batch = Math.max(1, FHChunkCipher.POOL.getParallelism());
+		ByteBuffer stored = FHBufferPool.borrow(batch * (this.chunkSize + FHChunkCipher.TAG_BYTES));
+		ByteBuffer plainText = FHBufferPool.borrow(batch * this.chunkSize);
+		
+		try(FileChannel in = FileChannel.open(this.toPath(), StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(destination.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long written = 0;
+			for(int first = 0; first < frames.count(); first += batch) {
+				int end = Math.min(frames.count(), first + batch);
+				long offset = frames.offset(first);
+				stored.clear().limit((int) (frames.offset(end) - offset));
+				FHChannels.readFully(in, stored, this.offsetStart + offset);
+				
+				// every frame works on its own view of the buffers
+				List<Callable<Integer>> tasks = new ArrayList<>(end - first);
+				for(int i = first; i < end; i++) {
+					final int frame = i;
+					final ByteBuffer src = stored.duplicate().position((int) (frames.offset(i) - offset));
+					final ByteBuffer dst = plainText.duplicate().clear().position((i - first) * this.chunkSize);
+					tasks.add(() -> FHCompression.decode(frames, frame, cipher, src, dst));
+				}
+				int plain = FHCompression.invokeAll(tasks);
+				plainText.clear().limit(plain);
+				written += FHChannels.writeFully(out, plainText, written);
+			}
+		} finally {
+			FHBufferPool.giveBack(stored);
+			FHBufferPool.giveBack(plainText);
 		}
 	}
 	
+	
 	/**
-	 * Hides a file inside a file.
-	 * @param origin the file which contains the data to be hidden
-	 * @param destination the file which should contain the hidden file
-	 * @return the created FHFile
-	 * @throws IOException if an I/O error occurs
-	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 * Creates the cipher of the chunks of this FHFile, which uses the content key if this FHFile has key slots.
+	 * @param password the password the hidden data is encrypted with
+	 * @return the cipher, without the segments of the chunks
+	 * @throws IOException if no key slot can be decrypted with the password
 	 */
-	public static FHFile hide(File origin, File destination) throws IOException, FHFileCreationFailedException {
-		long originalFileLegth = destination.length();
-		
-		FHOutputStream out = new FHOutputStream(destination);
-		Files.copy(origin.toPath(), out);
-		out.flush();
-		out.close();
+	FHChunkCipher contentCipher(byte[] password) throws IOException {
+		return FHKeySlots.cipher(password, this.nonce, this.chunkSize, this.flags, this.cryptoBytes);
+	}
+	
+	/**
+	 * Creates the cipher of the chunks of this FHFile, which reads the segment table if data has been appended.
+	 * @param password the password the hidden data is encrypted with
+	 * @return the cipher
+	 * @throws IOException if an I/O error occurs or the segment table can not be decrypted or is invalid
+	 */
+	private FHChunkCipher chunkCipher(byte[] password) throws IOException {
+		FHChunkCipher cipher = contentCipher(password);
+		if(!this.segmented()) return cipher;
 		
+		long chunks = (this.offsetEnd - this.offsetStart + this.chunkSize + FHChunkCipher.TAG_BYTES - 1) / (this.chunkSize + FHChunkCipher.TAG_BYTES);
 		try {
-			return new FHFile(new File(destination.toPath().toString()));
-		} catch (NotFHFileException | FHFileCorruptException | IncompatibleFHFileVersionException e) {
-			// cleanup
-			RandomAccessFile raf = new RandomAccessFile(destination, "rw");
-			raf.setLength(originalFileLegth);
-			raf.close();
-			
-			throw new FHFileCreationFailedException();
+			return FHAppend.segments(cipher, readTable(null), chunks);
+		} catch (FHFileCorruptException e) {
+			throw new IOException(e);
 		}
 	}
 	
 	
-	// MARK hide file in a file (passwordprotected)
+	// MARK append to hidden data
+	
+	/**
+	 * Appends the data of a stream to the hidden data of this FHFile.
+	 * <p>
+	 * Only the end of this file is rewritten, see {@link #append(ReadableByteChannel)}.
+	 * @param data the stream of the data to append, read to its end but not closed
+	 * @return the number of bytes appended
+	 * @throws FHFileEncryptedException if this FHFile is encrypted
+	 * @throws FHFileArchiveException if this FHFile is an archive
+	 * @throws FHFileCompressedException if the hidden data is compressed
+	 * @throws IOException if an I/O error occurs or this file has changed since it has been read
+	 */
+	public long append(InputStream data) throws IOException {
+		return append(Channels.newChannel(data));
+	}
+	
+	/**
+	 * Appends the data of a channel to the hidden data of this FHFile.
+	 * <p>
+	 * The data is written where the end of this file was, followed by a new end, so the time it takes depends on the length of the data only.
+	 * Appending is not atomic, if it is interrupted this file may not be a FHFile anymore.
+	 * @param data the channel of the data to append, read to its end but not closed
+	 * @return the number of bytes appended
+	 * @throws FHFileEncryptedException if this FHFile is encrypted
+	 * @throws FHFileArchiveException if this FHFile is an archive
+	 * @throws FHFileCompressedException if the hidden data is compressed
+	 * @throws IOException if an I/O error occurs or this file has changed since it has been read
+	 */
+	public long append(ReadableByteChannel data) throws IOException {
+		hiddenDataDeleted();
+		if(this.encrypted()) throw new FHFileEncryptedException();
+		return append(data, (byte[]) null);
+	}
+	
+	/**
+	 * Appends the data of a stream to the encrypted hidden data of this FHFile.
+	 * <p>
+	 * Only the end of this file is rewritten, see {@link #append(ReadableByteChannel, String)}.
+	 * @param data the stream of the data to append, read to its end but not closed
+	 * @param password The password whith which the hidden data is encrypted with.
+	 * @return the number of bytes appended
+	 * @throws FHFileUnencryptedException if this FHFile is not encrypted
+	 * @throws FHFileArchiveException if this FHFile is an archive
+	 * @throws FHFileCompressedException if the hidden data is compressed
+	 * @throws IOException if an I/O error occurs, the password is wrong or this file has changed since it has been read
+	 */
+	public long append(InputStream data, String password) throws IOException {
+		return append(Channels.newChannel(data), password);
+	}
+	
+	/**
+	 * Appends the data of a channel to the encrypted hidden data of this FHFile.
+	 * <p>
+	 * Only the last block or chunk of the hidden data is decrypted and encrypted again, followed by the data and a new end,
+	 * so the time it takes depends on the length of the data only. Chunks are continued with a new nonce, so no nonce is used twice.
+	 * Appending is not atomic, if it is interrupted this file may not be a FHFile anymore.
+	 * @param data the channel of the data to append, read to its end but not closed
+	 * @param password The password whith which the hidden data is encrypted with.
+	 * @return the number of bytes appended
+	 * @throws FHFileUnencryptedException if this FHFile is not encrypted
+	 * @throws FHFileArchiveException if this FHFile is an archive
+	 * @throws FHFileCompressedException if the hidden data is compressed
+	 * @throws IOException if an I/O error occurs, the password is wrong or this file has changed since it has been read
+	 */
+	public long append(ReadableByteChannel data, String password) throws IOException {
+		hiddenDataDeleted();
+		if(!this.encrypted()) throw new FHFileUnencryptedException();
+		return append(data, password.getBytes(FHCipher.CHARSET));
+	}
+	
+	/**
+	 * Appends the data of a channel to the hidden data of this FHFile and reads the new header.
+	 * @param data the channel of the data to append
+	 * @param password the password the hidden data is encrypted with, null if it is unencrypted
+	 * @return the number of bytes appended
+	 * @throws IOException if an I/O error occurs, the password is wrong or this file has changed since it has been read
+	 */
+	private long append(ReadableByteChannel data, byte[] password) throws IOException {
+		if(this.archive()) throw new FHFileArchiveException();
+		if(this.compressed()) throw new FHFileCompressedException();
+		if(password != null && !checkPassword(password)) throw new IOException("Wrong password for " + this);
+		
+		try(FileChannel channel = FileChannel.open(this.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			FHHeader header = readUnchanged(channel);
+			// the checksums of the blocks before the last chunk stay valid, the chunk itself is rewritten
+			int[] checksums = null;
+			if(this.checksums()) {
+				int[] table = FHChecksums.read(channel, this.offsetEnd + this.tocLength, checksumsLength());
+				checksums = Arrays.copyOf(table, (int) ((this.offsetEnd - this.offsetStart - 1) / blockSize()));
+			}
+			
+			long appended;
+			if(password == null) appended = FHAppend.appendPlain(header, channel, data);
+			else if(this.version == 0) appended = FHAppend.appendBlocks(header, channel, data, password);
+			else appended = FHAppend.appendChunks(header, channel, data, password);
+			if(checksums != null && appended > 0) writeChecksums(channel, checksums, password != null);
+			
+			header = FHHeader.read(channel, this.toPath());
+			if(header.status() != FHHeader.Status.FH_FILE) throw new IOException(this + " is not a FHFile anymore after appending");
+			init(header);
+			return appended;
+		}
+	}
+	
+	
+	// MARK checksums
+	
+	/**
+	 * Adds a checksum table to this FHFile, so its hidden data can be checked for damage with {@link #verify()}.
+	 * <p>
+	 * The hidden data is read once to compute the checksums in parallel, only the end of this file and its version and flags are written.
+	 * The checksums are kept up to date when data is appended or the hidden data is replaced.
+	 * Adding checksums is not atomic, if it is interrupted the file may not be a FHFile anymore. Nothing is done if this FHFile has checksums already.
+	 * @throws IncompatibleFHFileVersionException if this FHFile has been written in version 0, which can not hold checksums
+	 * @throws IOException if an I/O error occurs or this file has changed since it has been read
+	 */
+	public void addChecksums() throws IOException, IncompatibleFHFileVersionException {
+		hiddenDataDeleted();
+		if(this.version == 0) throw new IncompatibleFHFileVersionException();
+		if(this.checksums()) return;
+		
+		try(FileChannel channel = FileChannel.open(this.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			readUnchanged(channel);
+			addChecksums(channel, false);
+		}
+	}
+	
+	/**
+	 * Adds a checksum table to this FHFile and reads the new header.
+	 * <p>
+	 * The flags are written first, so an interrupted file is not mistaken for one whose hidden data ends with the checksums.
+	 * If the checksums are added durably, the end is removed before the flags are written and the new end is only written once the checksum table has been forced
+	 * to the storage device, so after a crash the file is either a FHFile with checksums or no FHFile at all.
+	 * @param channel a channel of this file, opened for reading and writing
+	 * @param sync weather the file is forced to the storage device between the steps
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void addChecksums(FileChannel channel, boolean sync) throws IOException {
+		boolean table = (this.flags & (FLAG_ARCHIVE | FLAG_COMPRESSED | FLAG_SEGMENTED)) != 0;
+		long end = channel.size() - FH_END_LENGTH() - (table ? Long.BYTES : 0);
+		long tocLength = table ? tocLength(channel, end) : -1;
+		if(sync) {
+			channel.truncate(end);
+			channel.force(true);
+		}
+		
+		int flags = this.flags | FLAG_CHECKSUMS;
+		ByteBuffer versionAndFlags = ByteBuffer.allocate(2 * Integer.BYTES).putInt(fileVersion(flags)).putInt(flags);
+		versionAndFlags.flip();
+		FHChannels.writeFully(channel, versionAndFlags, this.originalFileLength + FH_START.length);
+		channel.force(false);
+		FHChecksums.write(channel, this.offsetStart, end, blockSize(), new int[0], tocLength, this.originalFileLength, sync);
+		
+		FHHeader header = FHHeader.read(channel, this.toPath());
+		if(header.status() != FHHeader.Status.FH_FILE) throw new IOException(this + " is not a FHFile anymore after adding checksums");
+		init(header);
+	}
+	
+	/**
+	 * Writes the checksum table of this FHFile after its hidden data and table, which have just been written followed by the length of the table and the end.
+	 * @param channel a channel of this file, opened for reading and writing
+	 * @param known the checksums of the first blocks which have not changed
+	 * @param table weather the hidden data is followed by a table
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void writeChecksums(FileChannel channel, int[] known, boolean table) throws IOException {
+		long end = channel.size() - FH_END_LENGTH() - (table ? Long.BYTES : 0);
+		FHChecksums.write(channel, this.offsetStart, end, blockSize(), known, table ? tocLength(channel, end) : -1, this.originalFileLength, false);
+	}
+	
+	/**
+	 * Reads the length of the table of this FHFile, which follows the table.
+	 * @param channel a channel of this file
+	 * @param position the offset in this file of the length
+	 * @return the length of the table
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static long tocLength(FileChannel channel, long position) throws IOException {
+		ByteBuffer length = ByteBuffer.allocate(Long.BYTES);
+		FHChannels.readFully(channel, length, position);
+		return length.getLong(0);
+	}
+	
+	/**
+	 * Checks the hidden data of this FHFile against its checksums, which does not need the password of encrypted files.
+	 * <p>
+	 * The hidden data and its table are split into blocks of the size of a chunk, followed by its tag if this FHFile is encrypted (the last block may be shorter),
+	 * which are read and checked in parallel on a ForkJoinPool, so only the damaged blocks have to be looked at.
+	 * @return the offsets in this file of the blocks whose checksum does not match, in ascending order, empty if the hidden data is intact
+	 * @throws FHFileNoChecksumsException if this FHFile has no checksums
+	 * @throws IOException if an I/O error occurs
+	 */
+	public long[] verify() throws IOException {
+		hiddenDataDeleted();
+		if(!this.checksums()) throw new FHFileNoChecksumsException();
+		
+		long start = FHInstrumentation.start();
+		try(FileChannel channel = FileChannel.open(this.toPath(), StandardOpenOption.READ)) {
+			long end = this.offsetEnd + this.tocLength;
+			int[] checksums = FHChecksums.read(channel, end, checksumsLength());
+			return FHChecksums.damaged(channel, this.offsetStart, end, blockSize(), checksums);
+		} finally {
+			FHInstrumentation.operation(FHMetrics.Operation.VERIFY, start);
+		}
+	}
+	
+	/**
+	 * The size of the blocks that have a checksum.
+	 * @return the size of a stored chunk
+	 */
+	private int blockSize() {
+		return FHChecksums.blockSize(this.chunkSize, this.encrypted);
+	}
+	
+	/**
+	 * The length of the checksum table, which follows the hidden data and its table.
+	 * @return the length of the checksum table
+	 */
+	private long checksumsLength() {
+		return FHChecksums.length(this.offsetEnd + this.tocLength - this.offsetStart, blockSize());
+	}
+	
+	
+	// MARK random access to hidden data
+	
+	/**
+	 * Opens a read-only channel over the hidden data of this FHFile.
+	 * <p>
+	 * Positions of the channel are relative to the start of the hidden data and can be changed in O(1).
+	 * @return the channel
+	 * @throws FHFileEncryptedException if this FHFile is encrypted
+	 * @throws FHFileArchiveException if this FHFile is an archive
+	 * @throws IOException if an I/O error occurs
+	 */
+	public SeekableByteChannel openChannel() throws IOException {
+		hiddenDataDeleted();
+		if(this.archive()) throw new FHFileArchiveException();
+		if(this.compressed()) {
+			if(this.encrypted()) throw new FHFileEncryptedException();
+			return new FHChannel(this, null, readFrames(null));
+		}
+		return new FHChannel(this);
+	}
+	
+	/**
+	 * Opens a read-only channel over the encrypted hidden data of this FHFile.
+	 * <p>
+	 * Positions of the channel are relative to the start of the hidden data and can be changed in O(1).
+	 * Only the blocks, chunks or frames containing the bytes read are decrypted.
+	 * @param password The password whith which the hidden data is encrypted with.
+	 * @return the channel
+	 * @throws FHFileUnencryptedException if this FHFile is not encrypted
+	 * @throws FHFileArchiveException if this FHFile is an archive
+	 * @throws IOException if an I/O error occurs
+	 */
+	public SeekableByteChannel openChannel(String password) throws IOException {
+		hiddenDataDeleted();
+		if(this.archive()) throw new FHFileArchiveException();
+		if(this.compressed()) {
+			if(!this.encrypted()) throw new FHFileUnencryptedException();
+			FHChunkCipher cipher = contentCipher(password.getBytes(FHCipher.CHARSET));
+			return new FHChannel(this, cipher, readFrames(cipher));
+		}
+		if(this.version >= 1) return new FHChannel(this, chunkCipher(password.getBytes(FHCipher.CHARSET)));
+		return new FHChannel(this, new FHCipher(OperationMode.DECRYPT_MODE, password.getBytes(FHCipher.CHARSET), false, true));
+	}
+	
+	
+	/**
+	 * Extracts the bytes from {@code from} (inclusive) to {@code to} (exclusive) of the hidden data of this FHFile to a channel.
+	 * <p>
+	 * Only the requested range is read: it is transferred directly from this file´s channel, or for compressed hidden data read frame by frame starting at the frame containing {@code from}.
+	 * @param from the position in the hidden data of the first byte to extract
+	 * @param to the position in the hidden data after the last byte to extract, the end of the hidden data if it is beyond
+	 * @param destination the channel to write the bytes to, not closed
+	 * @return the number of bytes extracted
+	 * @throws IllegalArgumentException if {@code from} is negative or greater than {@code to}
+	 * @throws FHFileEncryptedException if this FHFile is encrypted
+	 * @throws FHFileArchiveException if this FHFile is an archive
+	 * @throws IOException if an I/O error occurs
+	 */
+	public long extractRange(long from, long to, WritableByteChannel destination) throws IOException {
+		if(from < 0 || to < from) throw new IllegalArgumentException("invalid range: [" + from + ", " + to + ")");
+		long start = FHInstrumentation.start();
+		try {
+			if(this.compressed() || this.archive()) {
+				try(SeekableByteChannel channel = openChannel()) {
+					return transferRange(channel, from, to, destination);
+				}
+			}
+			hiddenDataDeleted();
+			if(this.encrypted()) throw new FHFileEncryptedException();
+			
+			long count = Math.max(0, Math.min(to, this.offsetEnd() - this.offsetStart()) - from);
+			try(FileChannel in = FileChannel.open(this.toPath(), StandardOpenOption.READ)) {
+				FHChannels.transferFully(in, this.offsetStart() + from, count, destination);
+			}
+			return count;
+		} finally {
+			FHInstrumentation.operation(FHMetrics.Operation.EXTRACT, start);
+		}
+	}
+	
+	/**
+	 * Extracts the bytes from {@code from} (inclusive) to {@code to} (exclusive) of the encrypted hidden data of this FHFile to a channel.
+	 * <p>
+	 * Only the cipher text needed for the range is read and decrypted, starting at the block containing {@code from} with the previous block of cipher text as iv,
+	 * or for files since version 1 at the chunk or frame containing it.
+	 * @param from the position in the hidden data of the first byte to extract
+	 * @param to the position in the hidden data after the last byte to extract, the end of the hidden data if it is beyond
+	 * @param destination the channel to write the bytes to, not closed
+	 * @param password The password whith which the hidden data is encrypted with.
+	 * @return the number of bytes extracted
+	 * @throws IllegalArgumentException if {@code from} is negative or greater than {@code to}
+	 * @throws FHFileUnencryptedException if this FHFile is not encrypted
+	 * @throws FHFileArchiveException if this FHFile is an archive
+	 * @throws IOException if an I/O error occurs or the hidden data can not be decrypted
+	 */
+	public long extractRange(long from, long to, WritableByteChannel destination, String password) throws IOException {
+		if(from < 0 || to < from) throw new IllegalArgumentException("invalid range: [" + from + ", " + to + ")");
+		long start = FHInstrumentation.start();
+		try(SeekableByteChannel channel = openChannel(password)) {
+			return transferRange(channel, from, to, destination);
+		} finally {
+			FHInstrumentation.operation(FHMetrics.Operation.EXTRACT, start);
+		}
+	}
+	
+	/**
+	 * Transfers a range of a channel over the hidden data of this FHFile.
+	 * @param channel the channel over the hidden data
+	 * @param from the position of the first byte to transfer
+	 * @param to the position after the last byte to transfer, the end of the channel if it is beyond
+	 * @param destination the channel to write the bytes to
+	 * @return the number of bytes transferred
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static long transferRange(SeekableByteChannel channel, long from, long to, WritableByteChannel destination) throws IOException {
+		long count = Math.max(0, Math.min(to, channel.size()) - from);
+		FHChannels.transferFully(channel, from, count, destination);
+		return count;
+	}
+
+
+	// MARK publishing hidden data
+	
+	/**
+	 * Creates a publisher of the hidden data of this FHFile, which reads it on demand of its subscribers.
+	 * <p>
+	 * Every subscription reads the hidden data from the start. The buffers are only valid until {@code onNext} returns, see {@link FHPublisher}.
+	 * @param executor the executor to read the hidden data and signal the subscribers on
+	 * @return the publisher
+	 * @throws FHFileEncryptedException if this FHFile is encrypted
+	 * @throws FHFileArchiveException if this FHFile is an archive
+	 */
+	public Flow.Publisher<ByteBuffer> publisher(Executor executor) {
+		hiddenDataDeleted();
+		if(this.archive()) throw new FHFileArchiveException();
+		if(this.encrypted()) throw new FHFileEncryptedException();
+		return new FHPublisher(this::openChannel, Objects.requireNonNull(executor));
+	}
+	
+	/**
+	 * Creates a publisher of the encrypted hidden data of this FHFile, which reads and decrypts it on demand of its subscribers.
+	 * <p>
+	 * Every subscription reads the hidden data from the start and derives the key on the executor. The buffers are only valid until {@code onNext} returns, see {@link FHPublisher}.
+	 * @param password The password whith which the hidden data is encrypted with.
+	 * @param executor the executor to read and decrypt the hidden data and signal the subscribers on
+	 * @return the publisher
+	 * @throws FHFileUnencryptedException if this FHFile is not encrypted
+	 * @throws FHFileArchiveException if this FHFile is an archive
+	 */
+	public Flow.Publisher<ByteBuffer> publisher(String password, Executor executor) {
+		hiddenDataDeleted();
+		if(this.archive()) throw new FHFileArchiveException();
+		if(!this.encrypted()) throw new FHFileUnencryptedException();
+		Objects.requireNonNull(password);
+		return new FHPublisher(() -> openChannel(password), Objects.requireNonNull(executor));
+	}
+	
+	
+	// MARK entries of archives
+	
+	/**
+	 * Lists the entries of this FHFile if it is an archive.
+	 * <p>
+	 * Only the table of contents is read, with a single positional read.
+	 * @return the entries in the order they have been hidden
+	 * @throws FHFileNotArchiveException if this FHFile is not an archive
+	 * @throws FHFileEncryptedException if this FHFile is encrypted
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCorruptException if the table of contents is invalid
+	 * @throws IncompatibleFHFileVersionException if an entry is not supported by this version of FileHide
+	 */
+	public List<FHEntry> entries() throws IOException, FHFileCorruptException, IncompatibleFHFileVersionException {
+		hiddenDataDeleted();
+		if(!this.archive()) throw new FHFileNotArchiveException();
+		if(this.encrypted()) throw new FHFileEncryptedException();
+		return readEntries(null);
+	}
+	
+	/**
+	 * Lists the entries of this FHFile if it is an encrypted archive.
+	 * <p>
+	 * Only the table of contents is read, with a single positional read.
+	 * @param password The password whith which the archive is encrypted with.
+	 * @return the entries in the order they have been hidden
+	 * @throws FHFileNotArchiveException if this FHFile is not an archive
+	 * @throws FHFileUnencryptedException if this FHFile is not encrypted
+	 * @throws IOException if an I/O error occurs or the table of contents can not be decrypted
+	 * @throws FHFileCorruptException if the table of contents is invalid
+	 * @throws IncompatibleFHFileVersionException if an entry is not supported by this version of FileHide
+	 */
+	public List<FHEntry> entries(String password) throws IOException, FHFileCorruptException, IncompatibleFHFileVersionException {
+		hiddenDataDeleted();
+		if(!this.archive()) throw new FHFileNotArchiveException();
+		if(!this.encrypted()) throw new FHFileUnencryptedException();
+		return readEntries(contentCipher(password.getBytes(FHCipher.CHARSET)));
+	}
+	
+	/**
+	 * Opens a read-only channel over an entry of this FHFile if it is an archive.
+	 * <p>
+	 * Positions of the channel are relative to the start of the entry and can be changed in O(1).
+	 * @param name the name of the entry
+	 * @return the channel
+	 * @throws NoSuchFileException if the archive has no entry with this name
+	 * @throws FHFileNotArchiveException if this FHFile is not an archive
+	 * @throws FHFileEncryptedException if this FHFile is encrypted
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCorruptException if the table of contents is invalid
+	 * @throws IncompatibleFHFileVersionException if an entry is not supported by this version of FileHide
+	 */
+	public SeekableByteChannel openEntry(String name) throws IOException, FHFileCorruptException, IncompatibleFHFileVersionException {
+		FHEntry entry = entry(entries(), name);
+		long start = this.offsetStart + entry.offset();
+		return new FHChannel(this, start, start + entry.storedLength());
+	}
+	
+	/**
+	 * Opens a read-only channel over an entry of this FHFile if it is an encrypted archive.
+	 * <p>
+	 * Positions of the channel are relative to the start of the entry and can be changed in O(1).
+	 * Only the chunks containing the bytes read are decrypted.
+	 * @param name the name of the entry
+	 * @param password The password whith which the archive is encrypted with.
+	 * @return the channel
+	 * @throws NoSuchFileException if the archive has no entry with this name
+	 * @throws FHFileNotArchiveException if this FHFile is not an archive
+	 * @throws FHFileUnencryptedException if this FHFile is not encrypted
+	 * @throws IOException if an I/O error occurs or the table of contents can not be decrypted
+	 * @throws FHFileCorruptException if the table of contents is invalid
+	 * @throws IncompatibleFHFileVersionException if an entry is not supported by this version of FileHide
+	 */
+	public SeekableByteChannel openEntry(String name, String password) throws IOException, FHFileCorruptException, IncompatibleFHFileVersionException {
+		hiddenDataDeleted();
+		if(!this.archive()) throw new FHFileNotArchiveException();
+		if(!this.encrypted()) throw new FHFileUnencryptedException();
+		
+		FHChunkCipher cipher = contentCipher(password.getBytes(FHCipher.CHARSET));
+		FHEntry entry = entry(readEntries(cipher), name);
+		long start = this.offsetStart + entry.offset();
+		return new FHChannel(this, cipher, start, start + entry.storedLength(), entry.firstChunk());
+	}
+	
+	/**
+	 * Reads the table of contents of this archive.
+	 * @param cipher the cipher to decrypt the table of contents with, null if this archive is unencrypted
+	 * @return the entries
+	 * @throws IOException if an I/O error occurs or the table of contents can not be decrypted
+	 * @throws FHFileCorruptException if the table of contents is invalid
+	 * @throws IncompatibleFHFileVersionException if an entry is not supported by this version of FileHide
+	 */
+	private List<FHEntry> readEntries(FHChunkCipher cipher) throws IOException, FHFileCorruptException, IncompatibleFHFileVersionException {
+		return FHEntry.read(readTable(cipher), this.offsetEnd - this.offsetStart, cipher == null ? 0 : this.chunkSize);
+	}
+	
+	/**
+	 * Reads the frame table of this compressed FHFile.
+	 * @param cipher the cipher to decrypt the frame table with, null if this FHFile is unencrypted
+	 * @return the frame table
+	 * @throws IOException if an I/O error occurs, the frame table can not be decrypted or is invalid
+	 */
+	private FHCompression.Frames readFrames(FHChunkCipher cipher) throws IOException {
+		try {
+			return FHCompression.Frames.read(readTable(cipher), this.offsetEnd - this.offsetStart, this.chunkSize, cipher != null);
+		} catch (FHFileCorruptException e) {
+			throw new IOException(e);
+		}
+	}
+	
+	/**
+	 * Reads the table that follows the hidden data of archives and compressed files.
+	 * @param cipher the cipher to decrypt the table with, null if this FHFile is unencrypted
+	 * @return the table, decrypted
+	 * @throws IOException if an I/O error occurs or the table can not be decrypted
+	 * @throws FHFileCorruptException if the table is too short or too long
+	 */
+	private ByteBuffer readTable(FHChunkCipher cipher) throws IOException, FHFileCorruptException {
+		if(this.tocLength > Integer.MAX_VALUE) throw new FHFileCorruptException();
+		ByteBuffer toc = ByteBuffer.allocate((int) this.tocLength);
+		try(FileChannel in = FileChannel.open(this.toPath(), StandardOpenOption.READ)) {
+			FHChannels.readFully(in, toc, this.offsetEnd);
+		}
+		toc.flip();
+		
+		if(cipher != null) {
+			if(toc.limit() < FHChunkCipher.TAG_BYTES) throw new FHFileCorruptException();
+			byte[] plainText = new byte[toc.limit()];
+			try {
+				int n = cipher.crypt(OperationMode.DECRYPT_MODE, FHChunkCipher.TOC_INDEX, true, toc.array(), 0, toc.limit(), plainText, 0);
+				toc = ByteBuffer.wrap(plainText, 0, n);
+			} catch (GeneralSecurityException e) {
+				throw new IOException(e);
+			}
+		}
+		
+		return toc;
+	}
+	
+	/**
+	 * Finds an entry by its name.
+	 * @param entries the entries of this archive
+	 * @param name the name of the entry
+	 * @return the entry
+	 * @throws NoSuchFileException if there is no entry with this name
+	 */
+	private FHEntry entry(List<FHEntry> entries, String name) throws NoSuchFileException {
+		for(FHEntry entry : entries)
+			if(entry.name().equals(name)) return entry;
+		throw new NoSuchFileException(this.getPath(), null, "No entry named " + name);
+	}
+	
+	
+	// MARK hide data in a file (inplace, not password protected)
 	
 	/**
 	 * Hides a file inside a file and saves the result at a given location without touching the file the other file will be hidden in.
+	 * <p>
+	 * The result is written in a single pass, see {@link #hide(ReadableByteChannel, Path, Path)}.
+	 * @param origin the file which contains the data to be hidden
+	 * @param destination the file which should contain the hidden file (will be left untouched)
+	 * @param finalDestination location to save the result
+	 * @return the created FHFile
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	public static FHFile hide(File origin, File destination, File finalDestination) throws IOException, FHFileCreationFailedException {
+		try(FileChannel in = FileChannel.open(origin.toPath(), StandardOpenOption.READ)) {
+			return hideStream(in, destination.toPath(), finalDestination.toPath(), null);
+		}
+	}
+	
+	/**
+	 * Hides a file inside a file.
+	 * <p>
+	 * The head and the end are written with positional writes and the hidden data is transferred directly from the origin´s channel, so it does not pass through the Java heap.
+	 * @param origin the file which contains the data to be hidden
+	 * @param destination the file which should contain the hidden file
+	 * @return the created FHFile
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	public static FHFile hide(File origin, File destination) throws IOException, FHFileCreationFailedException {
+		long start = FHInstrumentation.start();
+		try {
+			long originalFileLegth = destination.length();
+		
+			try(FileChannel in = FileChannel.open(origin.toPath(), StandardOpenOption.READ);
+					FileChannel out = FileChannel.open(destination.toPath(), StandardOpenOption.WRITE)) {
+				originalFileLegth = out.size();
+				long position = originalFileLegth;
+				position += FHChannels.writeFully(out, FHHead(), position);
+				long hiddenDataLength = in.size();
+				FHChannels.transferFully(in, out, position, hiddenDataLength);
+				position += hiddenDataLength;
+				FHChannels.writeFully(out, FHEnd(originalFileLegth), position);
+			}
+		
+			try {
+				return new FHFile(new File(destination.toPath().toString()));
+			} catch (NotFHFileException | FHFileCorruptException | IncompatibleFHFileVersionException e) {
+				// cleanup
+				RandomAccessFile raf = new RandomAccessFile(destination, "rw");
+				raf.setLength(originalFileLegth);
+				raf.close();
+			
+				throw new FHFileCreationFailedException();
+			}
+		} finally {
+			FHInstrumentation.operation(FHMetrics.Operation.HIDE, start);
+		}
+	}
+	
+	
+	// MARK hide file in a file (passwordprotected)
+	
+	/**
+	 * Hides a file inside a file and saves the result at a given location without touching the file the other file will be hidden in.
+	 * @param origin the file which contains the data to be hidden
+	 * @param toBehiddenIn the file which should contain the hidden file (will be left untouched)
+	 * @param finalDestination location to save the result
+	 * @param password the password to encrypt the hidden data with
+	 * @return the created FHFile
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	public static FHFile hide(File origin, File destionation, File finalDestination, String password) throws IOException, FHFileCreationFailedException {
+		return hide(origin, destionation, finalDestination, password.getBytes(FHCipher.CHARSET));
+	}
+	
+	/**
+	 * Hides a file inside a file and saves the result at a given location without touching the file the other file will be hidden in.
+	 * @param origin the file which contains the data to be hidden
+	 * @param toBehiddenIn the file which should contain the hidden file (will be left untouched)
+	 * @param finalDestination location to save the result
+	 * @param password the password to encrypt the hidden data with
+	 * @return the created FHFile
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	private static FHFile hide(File origin, File destionation, File finalDestination, byte[] password) throws IOException, FHFileCreationFailedException {
+		try(FileChannel in = FileChannel.open(origin.toPath(), StandardOpenOption.READ)) {
+			return hideStream(in, destionation.toPath(), finalDestination.toPath(), password);
+		}
+	}
+	
+	/**
+	 * Hides a file inside a file.
+	 * @param origin the file which contains the data to be hidden
+	 * @param toBeHiddenIn the file which should contain the hidden file
+	 * @param password the password to encrypt the hidden data with
+	 * @return the created FHFile
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	public static FHFile hide(File origin, File destination, String password) throws IOException, FHFileCreationFailedException {
+		return hide(origin, destination, password.getBytes(FHCipher.CHARSET));
+	}
+	
+	/**
+	 * Hides a file inside a file.
+	 * @param origin the file which contains the data to be hidden
+	 * @param toBeHiddenIn the file which should contain the hidden file
+	 * @param password the password to encrypt the hidden data with
+	 * @return the created FHFile
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	private static FHFile hide(File origin, File destination, byte[] password) throws IOException, FHFileCreationFailedException {
+		long start = FHInstrumentation.start();
+		try {
+			long originalFileLength = destination.length();
+		
+			try(FileChannel in = FileChannel.open(origin.toPath(), StandardOpenOption.READ);
+					FHOutputStream out = new FHOutputStream(destination, password)) {
+				out.transferFrom(in);
+			}
+		
+			try {
+				return new FHFile(destination);
+			} catch (NotFHFileException | FHFileCorruptException | IncompatibleFHFileVersionException e) {
+				// cleanup
+				RandomAccessFile raf = new RandomAccessFile(destination, "rw");
+				raf.setLength(originalFileLength);
+				raf.close();
+			
+				throw new FHFileCreationFailedException();
+			}
+		} finally {
+			FHInstrumentation.operation(FHMetrics.Operation.HIDE, start);
+		}
+	}
+	
+	// MARK hide streamed data
+	
+	/**
+	 * Hides the data of a stream inside a copy of a file.
+	 * <p>
+	 * The carrier, the head, the data and the end are written to the destination in a single pass with bounded memory, so the length of the data does not have to be known.
+	 * The stream is read to its end but not closed.
+	 * @param payload the stream of the data to be hidden
+	 * @param carrier the file which should contain the hidden data (will be left untouched unless it is the destination)
+	 * @param destination location to save the result, replaced if it exists
+	 * @return the created FHFile
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	public static FHFile hide(InputStream payload, Path carrier, Path destination) throws IOException, FHFileCreationFailedException {
+		return hideStream(Channels.newChannel(payload), carrier, destination, null);
+	}
+	
+	/**
+	 * Hides the data of a stream encrypted inside a copy of a file.
+	 * <p>
+	 * The carrier, the head, the data and the end are written to the destination in a single pass with bounded memory, so the length of the data does not have to be known.
+	 * The stream is read to its end but not closed.
+	 * @param payload the stream of the data to be hidden
+	 * @param carrier the file which should contain the hidden data (will be left untouched unless it is the destination)
+	 * @param destination location to save the result, replaced if it exists
+	 * @param password the password to encrypt the hidden data with
+	 * @return the created FHFile
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	public static FHFile hide(InputStream payload, Path carrier, Path destination, String password) throws IOException, FHFileCreationFailedException {
+		return hideStream(Channels.newChannel(payload), carrier, destination, password.getBytes(FHCipher.CHARSET));
+	}
+	
+	/**
+	 * Hides the data of a channel inside a copy of a file.
+	 * <p>
+	 * The carrier, the head, the data and the end are written to the destination in a single pass with bounded memory, so the length of the data does not have to be known.
+	 * The carrier and file channels are transferred by the kernel. The channel is read to its end but not closed.
+	 * @param payload the channel of the data to be hidden, read from its current position
+	 * @param carrier the file which should contain the hidden data (will be left untouched unless it is the destination)
+	 * @param destination location to save the result, replaced if it exists
+	 * @return the created FHFile
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	public static FHFile hide(ReadableByteChannel payload, Path carrier, Path destination) throws IOException, FHFileCreationFailedException {
+		return hideStream(payload, carrier, destination, null);
+	}
+	
+	/**
+	 * Hides the data of a channel encrypted inside a copy of a file.
+	 * <p>
+	 * The carrier, the head, the data and the end are written to the destination in a single pass with bounded memory, so the length of the data does not have to be known.
+	 * The channel is read to its end but not closed.
+	 * @param payload the channel of the data to be hidden, read from its current position
+	 * @param carrier the file which should contain the hidden data (will be left untouched unless it is the destination)
+	 * @param destination location to save the result, replaced if it exists
+	 * @param password the password to encrypt the hidden data with
+	 * @return the created FHFile
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	public static FHFile hide(ReadableByteChannel payload, Path carrier, Path destination, String password) throws IOException, FHFileCreationFailedException {
+		return hideStream(payload, carrier, destination, password.getBytes(FHCipher.CHARSET));
+	}
+	
+	// MARK hide compressed data
+	
+	/**
+	 * Hides the data of a channel compressed inside a copy of a file.
+	 * <p>
+	 * Every chunk of the data is compressed on its own and stored raw if it can not be compressed, so data that is already compressed costs little time.
+	 * The channel is read to its end but not closed.
+	 * @param payload the channel of the data to be hidden, read from its current position
+	 * @param carrier the file which should contain the hidden data (will be left untouched unless it is the destination)
+	 * @param destination location to save the result, replaced if it exists
+	 * @param level the compression level, from {@link java.util.zip.Deflater#BEST_SPEED} to {@link java.util.zip.Deflater#BEST_COMPRESSION} or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}
+	 * @return the created FHFile
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	public static FHFile hideCompressed(ReadableByteChannel payload, Path carrier, Path destination, int level) throws IOException, FHFileCreationFailedException {
+		return hideStream(payload, carrier, destination, null, FHCompression.checkLevel(level));
+	}
+	
+	/**
+	 * Hides the data of a channel compressed and encrypted inside a copy of a file.
+	 * <p>
+	 * Every chunk of the data is compressed on its own and stored raw if it can not be compressed, so data that is already compressed costs little time.
+	 * The chunks are compressed before they are encrypted. The channel is read to its end but not closed.
+	 * @param payload the channel of the data to be hidden, read from its current position
+	 * @param carrier the file which should contain the hidden data (will be left untouched unless it is the destination)
+	 * @param destination location to save the result, replaced if it exists
+	 * @param password the password to encrypt the hidden data with
+	 * @param level the compression level, from {@link java.util.zip.Deflater#BEST_SPEED} to {@link java.util.zip.Deflater#BEST_COMPRESSION} or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}
+	 * @return the created FHFile
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	public static FHFile hideCompressed(ReadableByteChannel payload, Path carrier, Path destination, String password, int level) throws IOException, FHFileCreationFailedException {
+		return hideStream(payload, carrier, destination, password.getBytes(FHCipher.CHARSET), FHCompression.checkLevel(level));
+	}
+	
+	/**
+	 * Hides a file compressed inside a copy of a file, see {@link #hideCompressed(ReadableByteChannel, Path, Path, int)}.
 	 * @param origin the file which contains the data to be hidden
-	 * @param toBehiddenIn the file which should contain the hidden file (will be left untouched)
+	 * @param destination the file which should contain the hidden file (will be left untouched unless it is the final destination)
 	 * @param finalDestination location to save the result
-	 * @param password the password to encrypt the hidden data with
+	 * @param level the compression level, from {@link java.util.zip.Deflater#BEST_SPEED} to {@link java.util.zip.Deflater#BEST_COMPRESSION} or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}
 	 * @return the created FHFile
 	 * @throws IOException if an I/O error occurs
 	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
 	 */
-	public static FHFile hide(File origin, File destionation, File finalDestination, String password) throws IOException, FHFileCreationFailedException {
-		return hide(origin, destionation, finalDestination, password.getBytes(FHCipher.CHARSET));
+	public static FHFile hideCompressed(File origin, File destination, File finalDestination, int level) throws IOException, FHFileCreationFailedException {
+		try(FileChannel in = FileChannel.open(origin.toPath(), StandardOpenOption.READ)) {
+			return hideCompressed(in, destination.toPath(), finalDestination.toPath(), level);
+		}
 	}
 	
 	/**
-	 * Hides a file inside a file and saves the result at a given location without touching the file the other file will be hidden in.
+	 * Hides a file compressed and encrypted inside a copy of a file, see {@link #hideCompressed(ReadableByteChannel, Path, Path, String, int)}.
 	 * @param origin the file which contains the data to be hidden
-	 * @param toBehiddenIn the file which should contain the hidden file (will be left untouched)
+	 * @param destination the file which should contain the hidden file (will be left untouched unless it is the final destination)
 	 * @param finalDestination location to save the result
 	 * @param password the password to encrypt the hidden data with
+	 * @param level the compression level, from {@link java.util.zip.Deflater#BEST_SPEED} to {@link java.util.zip.Deflater#BEST_COMPRESSION} or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}
 	 * @return the created FHFile
 	 * @throws IOException if an I/O error occurs
 	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
 	 */
-	private static FHFile hide(File origin, File destionation, File finalDestination, byte[] password) throws IOException, FHFileCreationFailedException {
-		Files.copy(origin.toPath(), finalDestination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	public static FHFile hideCompressed(File origin, File destination, File finalDestination, String password, int level) throws IOException, FHFileCreationFailedException {
+		try(FileChannel in = FileChannel.open(origin.toPath(), StandardOpenOption.READ)) {
+			return hideCompressed(in, destination.toPath(), finalDestination.toPath(), password, level);
+		}
+	}
+	
+	// MARK single pass hiding
+	
+	/**
+	 * Hides the data of a channel inside a copy of a file in a single pass without compressing it.
+	 * @param payload the channel of the data to be hidden
+	 * @param carrier the file which should contain the hidden data
+	 * @param destination location to save the result
+	 * @param password the password to encrypt the hidden data with, null if it should not be encrypted
+	 * @return the created FHFile
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	private static FHFile hideStream(ReadableByteChannel payload, Path carrier, Path destination, byte[] password) throws IOException, FHFileCreationFailedException {
+		return hideStream(payload, carrier, destination, password, FHCompression.NONE);
+	}
+	
+	/**
+	 * Hides the data of a channel inside a copy of a file in a single pass.
+	 * <p>
+	 * If the destination is the carrier itself, the data is appended to it instead.
+	 * @param payload the channel of the data to be hidden
+	 * @param carrier the file which should contain the hidden data
+	 * @param destination location to save the result
+	 * @param password the password to encrypt the hidden data with, null if it should not be encrypted
+	 * @param level the compression level, {@link FHCompression#NONE} if the data should not be compressed
+	 * @return the created FHFile
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	private static FHFile hideStream(ReadableByteChannel payload, Path carrier, Path destination, byte[] password, int level) throws IOException, FHFileCreationFailedException {
+		return hideStream(payload, carrier, destination, password, level, false);
+	}
+	
+	/**
+	 * Hides the data of a channel inside a copy of a file in a single pass.
+	 * <p>
+	 * If the destination is the carrier itself, the data is appended to it instead.
+	 * @param payload the channel of the data to be hidden
+	 * @param carrier the file which should contain the hidden data
+	 * @param destination location to save the result
+	 * @param password the password to encrypt the hidden data with, null if it should not be encrypted
+	 * @param level the compression level, {@link FHCompression#NONE} if the data should not be compressed
+	 * @param sync weather the hidden data is forced to the storage device before the end is written, and the end after it
+	 * @return the created FHFile
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	private static FHFile hideStream(ReadableByteChannel payload, Path carrier, Path destination, byte[] password, int level, boolean sync) throws IOException, FHFileCreationFailedException {
+		long start = FHInstrumentation.start();
 		try {
-			return hide(origin, finalDestination, password);
-		} catch (FHFileCreationFailedException e) {
-			// cleanup
-			Files.delete(finalDestination.toPath());
+			boolean inPlace = Files.exists(destination) && Files.isSameFile(carrier, destination);
+			long originalFileLength = Files.size(carrier);
+		
+			try {
+				try(FileChannel out = inPlace
+						? FileChannel.open(destination, StandardOpenOption.WRITE)
+						: FileChannel.open(destination, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+					if(!inPlace) {
+						try(FileChannel in = FileChannel.open(carrier, StandardOpenOption.READ)) {
+							FHChannels.transferFully(in, 0, originalFileLength, out);
+						}
+					}
+				
+					if(password == null && level == FHCompression.NONE) {
+						long position = originalFileLength;
+						position += FHChannels.writeFully(out, FHHead(), position);
+						position += FHChannels.transferAll(payload, out, position);
+						if(sync) out.force(false);
+						FHChannels.writeFully(out, FHEnd(originalFileLength), position);
+						if(sync) out.force(true);
+					} else {
+						// the chunks are collected, compressed and encrypted in batches by the stream, which appends to the same channel
+						try(FHOutputStream stream = new FHOutputStream(destination.toFile(), out, password, level)) {
+							stream.sync(sync);
+							stream.transferFrom(payload);
+						}
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				// cleanup
+				undoStream(destination, inPlace, originalFileLength);
+				throw e;
+			}
+		
+			try {
+				return new FHFile(destination.toFile());
+			} catch (NotFHFileException | FHFileCorruptException | IncompatibleFHFileVersionException e) {
+				// cleanup
+				undoStream(destination, inPlace, originalFileLength);
+				throw new FHFileCreationFailedException();
+			}
+		} finally {
+			FHInstrumentation.operation(FHMetrics.Operation.HIDE, start);
+		}
+	}
+	
+	/**
+	 * Removes what has been written by a failed {@link #hideStream(ReadableByteChannel, Path, Path, byte[], int)}.
+	 * @param destination the location of the result
+	 * @param inPlace weather the data has been appended to the carrier
+	 * @param originalFileLength the length of the carrier
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void undoStream(Path destination, boolean inPlace, long originalFileLength) throws IOException {
+		if(!inPlace) {
+			Files.deleteIfExists(destination);
+			return;
+		}
+		try(FileChannel out = FileChannel.open(destination, StandardOpenOption.WRITE)) {
+			out.truncate(originalFileLength);
+		}
+	}
+	
+	
+	// MARK hide the same data in many files
+	
+	/**
+	 * Writes the hidden content of a payload once to a new temporary file, from which it can be hidden in many files with {@link #hideSpooled(Path, Path, Path)}.
+	 * <p>
+	 * The head, the chunks and the end are written like to a carrier of length 0. Only the end depends on the carrier, so everything before it is the same in every file.
+	 * All files the spool is hidden in share the nonce and, if the payload is encrypted, the content key and the key slots.
+	 * @param payload the file to hide
+	 * @param directory the directory to create the spool in
+	 * @param password the password to encrypt the hidden data with, null if it should not be encrypted
+	 * @return the spool, which has to be deleted by the caller
+	 * @throws IOException if an I/O error occurs
+	 */
+	static Path spool(File payload, Path directory, byte[] password) throws IOException {
+		Path spool = Files.createTempFile(directory, payload.getName(), ".spool");
+		try(FileChannel in = FileChannel.open(payload.toPath(), StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(spool, StandardOpenOption.WRITE);
+				FHOutputStream stream = new FHOutputStream(spool.toFile(), out, password, FHCompression.NONE)) {
+			stream.transferFrom(in);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(spool);
 			throw e;
 		}
+		return spool;
 	}
 	
 	/**
-	 * Hides a file inside a file.
-	 * @param origin the file which contains the data to be hidden
-	 * @param toBeHiddenIn the file which should contain the hidden file
-	 * @param password the password to encrypt the hidden data with
+	 * Hides the content of a spool inside a copy of a file, see {@link #spool(File, Path, byte[])}.
+	 * <p>
+	 * The carrier and the content of the spool are transferred to the destination by the kernel, followed by the end of the carrier, so nothing is encrypted again.
+	 * If the destination is the carrier itself, the content is appended to it instead.
+	 * @param spool the spool
+	 * @param carrier the file which should contain the hidden data
+	 * @param destination location to save the result
 	 * @return the created FHFile
 	 * @throws IOException if an I/O error occurs
 	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
 	 */
-	public static FHFile hide(File origin, File destination, String password) throws IOException, FHFileCreationFailedException {
-		return hide(origin, destination, password.getBytes(FHCipher.CHARSET));
+	static FHFile hideSpooled(Path spool, Path carrier, Path destination) throws IOException, FHFileCreationFailedException {
+		long start = FHInstrumentation.start();
+		try {
+			boolean inPlace = Files.exists(destination) && Files.isSameFile(carrier, destination);
+			long originalFileLength = Files.size(carrier);
+			
+			try(FileChannel in = FileChannel.open(spool, StandardOpenOption.READ);
+					FileChannel out = inPlace
+						? FileChannel.open(destination, StandardOpenOption.WRITE)
+						: FileChannel.open(destination, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				if(!inPlace) {
+					try(FileChannel original = FileChannel.open(carrier, StandardOpenOption.READ)) {
+						FHChannels.transferFully(original, 0, originalFileLength, out);
+					}
+				}
+				long content = in.size() - FH_END_LENGTH();
+				out.position(originalFileLength);
+				FHChannels.transferFully(in, 0, content, out);
+				FHChannels.writeFully(out, FHEnd(originalFileLength), originalFileLength + content);
+			} catch (IOException | RuntimeException e) {
+				// cleanup
+				undoStream(destination, inPlace, originalFileLength);
+				throw e;
+			}
+			
+			try {
+				return new FHFile(destination.toFile());
+			} catch (NotFHFileException | FHFileCorruptException | IncompatibleFHFileVersionException e) {
+				// cleanup
+				undoStream(destination, inPlace, originalFileLength);
+				throw new FHFileCreationFailedException();
+			}
+		} finally {
+			FHInstrumentation.operation(FHMetrics.Operation.HIDE, start);
+		}
 	}
 	
+
+	// MARK hide files in a file as archive
+	
 	/**
-	 * Hides a file inside a file.
-	 * @param origin the file which contains the data to be hidden
-	 * @param toBeHiddenIn the file which should contain the hidden file
-	 * @param password the password to encrypt the hidden data with
+	 * Hides several files inside a file as archive of named entries.
+	 * <p>
+	 * The entries can be listed and opened one by one without reading the others, see {@link #entries()} and {@link #openEntry(String)}.
+	 * @param entries the files to hide by the names of their entries, in the order they should be hidden
+	 * @param destination the file which should contain the hidden files
 	 * @return the created FHFile
 	 * @throws IOException if an I/O error occurs
 	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
 	 */
-	private static FHFile hide(File origin, File destination, byte[] password) throws IOException, FHFileCreationFailedException {
-		long originalFileLength = destination.length();
+	public static FHFile hide(Map<String, File> entries, File destination) throws IOException, FHFileCreationFailedException {
+		return hideArchive(entries, destination, null);
+	}
+	
+	/**
+	 * Hides several files inside a file as encrypted archive of named entries.
+	 * <p>
+	 * The entries can be listed and opened one by one without reading the others, see {@link #entries(String)} and {@link #openEntry(String, String)}.
+	 * @param entries the files to hide by the names of their entries, in the order they should be hidden
+	 * @param destination the file which should contain the hidden files
+	 * @param password the password to encrypt the archive with
+	 * @return the created FHFile
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	public static FHFile hide(Map<String, File> entries, File destination, String password) throws IOException, FHFileCreationFailedException {
+		return hideArchive(entries, destination, password.getBytes(FHCipher.CHARSET));
+	}
+	
+	/**
+	 * Hides several files inside a file as archive of named entries.
+	 * @param entries the files to hide by the names of their entries, in the order they should be hidden
+	 * @param destination the file which should contain the hidden files
+	 * @param password the password to encrypt the archive with, null if it should not be encrypted
+	 * @return the created FHFile
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileCreationFailedException if the creation of the FHFile failed
+	 */
+	private static FHFile hideArchive(Map<String, File> entries, File destination, byte[] password) throws IOException, FHFileCreationFailedException {
+		long start = FHInstrumentation.start();
+		try {
+			long originalFileLength;
 		
-		FHOutputStream out = new FHOutputStream(destination, password);
-		Files.copy(origin.toPath(), out);
-		out.flush();
-		out.close();
+			try(FileChannel out = FileChannel.open(destination.toPath(), StandardOpenOption.WRITE)) {
+				originalFileLength = out.size();
+				try {
+					FHArchive.write(out, originalFileLength, entries, password);
+				} catch (IOException | RuntimeException e) {
+					// cleanup
+					out.truncate(originalFileLength);
+					throw e;
+				}
+			}
 		
-		try {
-			return new FHFile(destination);
-		} catch (NotFHFileException | FHFileCorruptException | IncompatibleFHFileVersionException e) {
-			// cleanup
-			RandomAccessFile raf = new RandomAccessFile(destination, "rw");
-			raf.setLength(originalFileLength);
-			raf.close();
+			try {
+				return new FHFile(destination);
+			} catch (NotFHFileException | FHFileCorruptException | IncompatibleFHFileVersionException e) {
+				// cleanup
+				RandomAccessFile raf = new RandomAccessFile(destination, "rw");
+				raf.setLength(originalFileLength);
+				raf.close();
 			
-			throw new FHFileCreationFailedException();
+				throw new FHFileCreationFailedException();
+			}
+		} finally {
+			FHInstrumentation.operation(FHMetrics.Operation.HIDE, start);
 		}
 	}
 	
+	// MARK asynchronous
+	
+	/**
+	 * Reads the header of a file if it is a FHFile, without blocking the calling thread.
+	 * @param path the file to probe
+	 * @return the header of the file or empty if the file is not a readable FHFile, completes exceptionally if an I/O error occurs
+	 * @see #probe(Path)
+	 */
+	public static CompletableFuture<Optional<FHHeader>> probeAsync(Path path) {
+		return FHAsync.probe(path);
+	}
+	
+	/**
+	 * Hides a file inside a copy of another file, without blocking the calling thread.
+	 * <p>
+	 * If the destination is the carrier itself, the data is appended to it instead.
+	 * @param payload the file to be hidden
+	 * @param carrier the file which should contain the hidden data
+	 * @param destination location to save the result
+	 * @param executor the executor to run the work on that is not I/O
+	 * @return the created FHFile, completes exceptionally if an I/O error occurs or with a {@link FHFileCreationFailedException} if the creation of the FHFile failed
+	 */
+	public static CompletableFuture<FHFile> hideAsync(Path payload, Path carrier, Path destination, Executor executor) {
+		return FHAsync.hide(payload, carrier, destination, null, Objects.requireNonNull(executor));
+	}
+	
+	/**
+	 * Hides a file password protected inside a copy of another file, without blocking the calling thread.
+	 * <p>
+	 * The key is derived and the chunks are encrypted on the executor, see {@link FHAsync}.
+	 * @param payload the file to be hidden
+	 * @param carrier the file which should contain the hidden data
+	 * @param destination location to save the result
+	 * @param password the password to encrypt the hidden data with
+	 * @param executor the executor to derive the key and encrypt the chunks on
+	 * @return the created FHFile, completes exceptionally if an I/O error occurs or with a {@link FHFileCreationFailedException} if the creation of the FHFile failed
+	 */
+	public static CompletableFuture<FHFile> hideAsync(Path payload, Path carrier, Path destination, String password, Executor executor) {
+		return FHAsync.hide(payload, carrier, destination, password.getBytes(FHCipher.CHARSET), Objects.requireNonNull(executor));
+	}
+	
+	/**
+	 * Extracts the hidden data of this FHFile to the given Path and replaces any existing files, without blocking the calling thread.
+	 * @param destination the path to where the hidden data should be extracted to
+	 * @param executor the executor to run the work on that is not I/O
+	 * @return completes when the hidden data has been extracted, exceptionally if an I/O error occurs,
+	 * with a {@link FHFileEncryptedException} if this FHFile is encrypted or with a {@link FHFileArchiveException} if it is an archive
+	 */
+	public CompletableFuture<Void> extractAsync(Path destination, Executor executor) {
+		hiddenDataDeleted();
+		return FHAsync.extract(this, destination, null, Objects.requireNonNull(executor));
+	}
+	
+	/**
+	 * Extracts the encrypted hidden data of this FHFile to the given Path and replaces any existing files, without blocking the calling thread.
+	 * <p>
+	 * The key is derived and the chunks are decrypted on the executor, see {@link FHAsync}.
+	 * @param destination the path to where the hidden data should be extracted to
+	 * @param password the password the hidden data is encrypted with
+	 * @param executor the executor to derive the key and decrypt the chunks on
+	 * @return completes when the hidden data has been extracted, exceptionally if an I/O error occurs or the password is wrong,
+	 * with a {@link FHFileUnencryptedException} if this FHFile is not encrypted or with a {@link FHFileArchiveException} if it is an archive
+	 */
+	public CompletableFuture<Void> extractAsync(Path destination, String password, Executor executor) {
+		hiddenDataDeleted();
+		return FHAsync.extract(this, destination, password.getBytes(FHCipher.CHARSET), Objects.requireNonNull(executor));
+	}
+	
+	/**
+	 * Checks wheather the given password string can be used to decrypt the hidden data of this file, deriving the key on the executor.
+	 * @param password the password string to check
+	 * @param executor the executor to derive the key on
+	 * @return true if the password can be used, false if not
+	 * @throws FHFileUnencryptedException if the FHFile is not encrypted
+	 */
+	public CompletableFuture<Boolean> checkPasswordAsync(String password, Executor executor) {
+		if(!this.encrypted()) throw new FHFileUnencryptedException();
+		byte[] bytes = password.getBytes(FHCipher.CHARSET);
+		return CompletableFuture.supplyAsync(() -> checkPassword(bytes), executor);
+	}
+	
 	// MARK getters
 	
 	/**
@@ -401,6 +1994,96 @@ public class FHFile extends File {
 	}
 	
 	
+	/**
+	 * getter for version
+	 * @return
+	 */
+	int version() {
+		hiddenDataDeleted();
+		return this.version;
+	}
+	
+	/**
+	 * getter for flags
+	 * @return
+	 */
+	int flags() {
+		hiddenDataDeleted();
+		return this.flags;
+	}
+	
+	/**
+	 * Weather this FHFile is an archive of named entries instead of a single hidden file.
+	 * @return true if this FHFile is an archive
+	 */
+	public boolean archive() {
+		hiddenDataDeleted();
+		return (this.flags & FLAG_ARCHIVE) != 0;
+	}
+	
+	/**
+	 * Weather the hidden file of this FHFile is compressed.
+	 * @return true if the hidden file is compressed
+	 */
+	public boolean compressed() {
+		hiddenDataDeleted();
+		return (this.flags & FLAG_COMPRESSED) != 0;
+	}
+	
+	/**
+	 * Weather data has been appended to the encrypted hidden file of this FHFile, which splits its chunks into segments.
+	 * @return true if the chunks are split into segments
+	 */
+	boolean segmented() {
+		hiddenDataDeleted();
+		return (this.flags & FLAG_SEGMENTED) != 0;
+	}
+	
+	/**
+	 * Weather the hidden data of this FHFile is encrypted with a content key held by key slots, which allows to change its passwords.
+	 * @return true if this FHFile has key slots
+	 */
+	public boolean keySlots() {
+		hiddenDataDeleted();
+		return (this.flags & FLAG_KEY_SLOTS) != 0;
+	}
+	
+	/**
+	 * Weather this FHFile has a checksum table, which allows to check its hidden data for damage with {@link #verify()}.
+	 * @return true if this FHFile has checksums
+	 */
+	public boolean checksums() {
+		hiddenDataDeleted();
+		return (this.flags & FLAG_CHECKSUMS) != 0;
+	}
+	
+	/**
+	 * getter for tocLength
+	 * @return
+	 */
+	long tocLength() {
+		hiddenDataDeleted();
+		return this.tocLength;
+	}
+	
+	/**
+	 * getter for chunkSize
+	 * @return
+	 */
+	int chunkSize() {
+		hiddenDataDeleted();
+		return this.chunkSize;
+	}
+	
+	/**
+	 * getter for nonce
+	 * @return
+	 */
+	byte[] nonce() {
+		hiddenDataDeleted();
+		return this.nonce;
+	}
+	
 	/**
 	 * getter for encrypted
 	 * @return
@@ -422,20 +2105,81 @@ public class FHFile extends File {
 	// MARK - computed constants
 	
 	/**
-	 * The length of the head of the hidden content.
+	 * The length of the head of unencrypted hidden content.
 	 * @return
 	 */
-	int FH_HEAD_LENGTH() {
-		return FH_START.length + Integer.BYTES + FHCipher.BYTES;
+	static int FH_HEAD_LENGTH() {
+		return FH_START.length + 3 * Integer.BYTES + FHChunkCipher.NONCE_BYTES + FH_CRYPT.length;
 	}
 	/**
 	 * The length of the end of the hidden content.
 	 * @return
 	 */
-	int FH_END_LENGTH() {
+	static int FH_END_LENGTH() {
 		return Long.BYTES + FH_END.length;
 	}
 	
+	/**
+	 * The head of unencrypted hidden content.
+	 * @return a buffer containing the head, ready to be written
+	 */
+	static ByteBuffer FHHead() {
+		return FHHead(FHChunkCipher.DEFAULT_CHUNK_SIZE, new byte[FHChunkCipher.NONCE_BYTES], FH_CRYPT);
+	}
+	
+	/**
+	 * The head of hidden content.
+	 * @param chunkSize the number of bytes of the hidden file in each chunk
+	 * @param nonce the nonce of the file
+	 * @param cryptoBytes the FH_CRYPT, encrypted if the hidden content is encrypted
+	 * @return a buffer containing the head, ready to be written
+	 */
+	static ByteBuffer FHHead(int chunkSize, byte[] nonce, byte[] cryptoBytes) {
+		return FHHead(0, chunkSize, nonce, cryptoBytes);
+	}
+	
+	/**
+	 * The head of hidden content with flags.
+	 * @param flags the flags of the file
+	 * @param chunkSize the number of bytes of the hidden file in each chunk
+	 * @param nonce the nonce of the file
+	 * @param cryptoBytes the FH_CRYPT, encrypted if the hidden content is encrypted
+	 * @return a buffer containing the head, ready to be written
+	 */
+	static ByteBuffer FHHead(int flags, int chunkSize, byte[] nonce, byte[] cryptoBytes) {
+		ByteBuffer head = ByteBuffer.allocate(FH_HEAD_LENGTH() - FH_CRYPT.length + cryptoBytes.length);
+		head.put(FH_START).putInt(fileVersion(flags)).putInt(flags).putInt(chunkSize).put(nonce).put(cryptoBytes);
+		head.flip();
+		return head;
+	}
+	
+	/**
+	 * The oldest file version that supports the given flags.
+	 * @param flags the flags of the file
+	 * @return the file version to write
+	 */
+	static int fileVersion(int flags) {
+		int version = 1;
+		if((flags & FLAG_ARCHIVE) != 0) version = Math.max(version, 2);
+		if((flags & FLAG_COMPRESSED) != 0) version = Math.max(version, 3);
+		if((flags & FLAG_SEGMENTED) != 0) version = Math.max(version, 4);
+		if((flags & FLAG_KEY_SLOTS) != 0) version = Math.max(version, 5);
+		if((flags & FLAG_CHECKSUMS) != 0) version = Math.max(version, 6);
+		return version;
+	}
+	
+	/**
+	 * The end of the hidden content.
+	 * @param originalFileLength the length of the file before the hidden content has been added
+	 * @return a buffer containing the end, ready to be written
+	 */
+	static ByteBuffer FHEnd(long originalFileLength) {
+		ByteBuffer end = ByteBuffer.allocate(FH_END_LENGTH());
+		end.putLong(originalFileLength).put(FH_END);
+		end.flip();
+		return end;
+	}
+	
 	// MARK helper functions
 	
 	/**
@@ -0,0 +1,19 @@
+package org.filehide.filehidelibrary;
+
+/**
+ * Signals an attempt to read a {@link FHFile} which is an archive as single hidden file.
+ * 
+ * <p> This exception will be thrown by the functions reading the hidden file, like {@link FHFile#extractHiddenData(java.io.File)}, when the {@link FHFile} contains several entries. For archives use {@link FHFile#entries()} and {@link FHFile#openEntry(String)} instead.
+ * @author alex1s
+ */
+@SuppressWarnings("serial")
+public class FHFileArchiveException extends FHRuntimeException {
+
+	/**
+	 * Constructs a {@code FHFileArchiveException} with a appropriate detail message. The string s can be retrieved later by the {@link #getMessage()} method.
+	 */
+	FHFileArchiveException() {
+		super("The FHFile is an archive. Its entries have to be read one by one.");
+	}
+
+}
@@ -0,0 +1,19 @@
+package org.filehide.filehidelibrary;
+
+/**
+ * Signals an attempt to change the hidden file of a {@link FHFile} which is compressed.
+ *
+ * <p> This exception will be thrown by {@link FHFile#append(java.io.InputStream)} when the hidden file is compressed, as its frames can not be continued. Hide the whole data again instead.
+ * @author alex1s
+ */
+@SuppressWarnings("serial")
+public class FHFileCompressedException extends FHRuntimeException {
+
+	/**
+	 * Constructs a {@code FHFileCompressedException} with a appropriate detail message. The string s can be retrieved later by the {@link #getMessage()} method.
+	 */
+	FHFileCompressedException() {
+		super("The hidden file of the FHFile is compressed and can not be changed.");
+	}
+
+}
@@ -0,0 +1,17 @@
+package org.filehide.filehidelibrary;
+
+/**
+ * Signals an attempt to verify a {@link FHFile} which has no checksums.
+ *
+ * <p> This exception will be thrown by {@link FHFile#verify()} when the FHFile has no checksum table. Add one with {@link FHFile#addChecksums()} first.
+ * @author alex1s
+ */
+@SuppressWarnings("serial")
+public class FHFileNoChecksumsException extends FHRuntimeException {
+	/**
+	 * Constructs a {@code FHFileNoChecksumsException} with a appropriate detail message. The string s can be retrieved later by the {@link #getMessage()} method.
+	 */
+	FHFileNoChecksumsException() {
+		super("The FHFile has no checksums.");
+	}
+}
@@ -0,0 +1,20 @@
+package org.filehide.filehidelibrary;
+
+/**
+ * Signals an attempt to change the passwords of a {@link FHFile} which has no key slots to change.
+ *
+ * <p> This exception will be thrown by {@link FHFile#changePassword(String, String)}, {@link FHFile#addPassword(String, String)} and {@link FHFile#removePassword(String)}
+ * when the FHFile has been written before version 5, when all of its key slots are used or when its last password should be removed. Hide the data again instead.
+ * @author alex1s
+ */
+@SuppressWarnings("serial")
+public class FHFileNoKeySlotsException extends FHRuntimeException {
+
+	/**
+	 * Constructs a {@code FHFileNoKeySlotsException} with a appropriate detail message. The string s can be retrieved later by the {@link #getMessage()} method.
+	 */
+	FHFileNoKeySlotsException() {
+		super("The FHFile has no key slot to change its passwords with.");
+	}
+
+}
@@ -0,0 +1,19 @@
+package org.filehide.filehidelibrary;
+
+/**
+ * Signals an attempt to read the entries of a {@link FHFile} which is not an archive.
+ * 
+ * <p> This exception will be thrown by {@link FHFile#entries()} and {@link FHFile#openEntry(String)} when the {@link FHFile} contains a single hidden file. For these files use {@link FHFile#extractHiddenData(java.io.File)} instead.
+ * @author alex1s
+ */
+@SuppressWarnings("serial")
+public class FHFileNotArchiveException extends FHRuntimeException {
+
+	/**
+	 * Constructs a {@code FHFileNotArchiveException} with a appropriate detail message. The string s can be retrieved later by the {@link #getMessage()} method.
+	 */
+	FHFileNotArchiveException() {
+		super("The FHFile is not an archive. It contains a single hidden file.");
+	}
+
+}
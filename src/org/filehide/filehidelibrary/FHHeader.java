@@ -0,0 +1,512 @@
+package org.filehide.filehidelibrary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Immutable description of the structure of a FHFile, as read from its head and end.
+ * <p>
+ * A header is read with one positional read of the end and one of the head of the file, see {@link FHFile#probe(Path)}.
+ * A {@link FHFile} can be constructed from a header without reading the file again.
+ * @author alex1s
+ */
+public final class FHHeader {
+
+	/**
+	 * The outcome of reading a header.
+	 * @author alex1s
+	 */
+	enum Status {
+		/**
+		 * The file is a FHFile.
+		 */
+		FH_FILE,
+		/**
+		 * The file does not end with the ending magic number.
+		 */
+		NOT_FH_FILE,
+		/**
+		 * The file ends with the ending magic number but does not follow the structure of a FHFile.
+		 */
+		CORRUPT,
+		/**
+		 * The file version or flags are not supported by this version of FileHide.
+		 */
+		INCOMPATIBLE_VERSION
+	}
+
+	/**
+	 * The largest head of any supported version.
+	 */
+	static final int MAX_HEAD_LENGTH = FHFile.FH_START.length + 3 * Integer.BYTES + FHChunkCipher.NONCE_BYTES + FHKeySlots.LENGTH;
+
+	/**
+	 * The outcome of reading the header.
+	 */
+	private final Status status;
+
+	/**
+	 * The path of the file.
+	 */
+	private final Path path;
+	/**
+	 * The length of the file when the header has been read.
+	 */
+	private final long size;
+	/**
+	 * The length of the file before the hidden data has been added.
+	 */
+	private final long originalFileLength;
+	/**
+	 * The version of the file.
+	 */
+	private final int version;
+	/**
+	 * The flags of the file, 0 before version 2.
+	 */
+	private final int flags;
+	/**
+	 * The number of bytes of the hidden file in each chunk, 0 for version 0.
+	 */
+	private final int chunkSize;
+	/**
+	 * The nonce of the file, null for version 0.
+	 */
+	private final byte[] nonce;
+	/**
+	 * The crypto bytes of the file, null if the file is unencrypted.
+	 */
+	private final byte[] cryptoBytes;
+	/**
+	 * The offset that points to the beginning of the hidden data.
+	 */
+	private final long offsetStart;
+	/**
+	 * The offset that points to the end of the hidden data, which is the start of the table of contents for archives or of the frame table for compressed files.
+	 */
+	private final long offsetEnd;
+	/**
+	 * The length of the table of contents of an archive or of the frame table of a compressed file, 0 otherwise.
+	 */
+	private final long tocLength;
+
+	/**
+	 * The number of bytes read from the file to read the header.
+	 */
+	private final int bytesRead;
+
+	/**
+	 * Constructs a header of a FHFile.
+	 */
+	FHHeader(Path path, long size, long originalFileLength, int version, int flags, int chunkSize, byte[] nonce, byte[] cryptoBytes, long offsetStart, long offsetEnd, long tocLength, int bytesRead) {
+		this.status = Status.FH_FILE;
+		this.path = path;
+		this.size = size;
+		this.originalFileLength = originalFileLength;
+		this.version = version;
+		this.flags = flags;
+		this.chunkSize = chunkSize;
+		this.nonce = nonce;
+		this.cryptoBytes = cryptoBytes;
+		this.offsetStart = offsetStart;
+		this.offsetEnd = offsetEnd;
+		this.tocLength = tocLength;
+		this.bytesRead = bytesRead;
+	}
+
+	/**
+	 * Constructs the header of a file that can not be read as FHFile.
+	 * @param status why the file can not be read
+	 * @param path the path of the file
+	 * @param bytesRead the number of bytes read from the file
+	 */
+	FHHeader(Status status, Path path, int bytesRead) {
+		this.status = status;
+		this.path = path;
+		this.size = -1;
+		this.originalFileLength = -1;
+		this.version = -1;
+		this.flags = 0;
+		this.chunkSize = 0;
+		this.nonce = null;
+		this.cryptoBytes = null;
+		this.offsetStart = -1;
+		this.offsetEnd = -1;
+		this.tocLength = 0;
+		this.bytesRead = bytesRead;
+	}
+
+	// MARK reading
+
+	/**
+	 * Reads the header of a file without throwing if it is not a FHFile.
+	 * <p>
+	 * The time it takes is reported to the installed {@link FHMetrics}.
+	 * @param channel a channel of the file
+	 * @param path the path of the file
+	 * @return the header, check {@link #status()} before using it
+	 * @throws IOException if an I/O error occurs
+	 */
+	static FHHeader read(FileChannel channel, Path path) throws IOException {
+		long start = FHInstrumentation.start();
+		try {
+			return parse(channel, path);
+		} finally {
+			FHInstrumentation.headerParsed(start);
+		}
+	}
+
+	/**
+	 * Reads and checks the end and the head of a file.
+	 * @param channel a channel of the file
+	 * @param path the path of the file
+	 * @return the header
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static FHHeader parse(FileChannel channel, Path path) throws IOException {
+		long size = channel.size();
+		ByteBuffer end = end(size);
+		if(end != null) FHChannels.readFully(channel, end, size - end.capacity());
+		ByteBuffer head = head(size, end);
+		if(head != null) FHChannels.readFully(channel, head, originalFileLength(end));
+		return parse(path, size, end, head);
+	}
+
+	/**
+	 * Allocates the buffer for the end of a file, which has to be filled with the last bytes of the file.
+	 * @param size the length of the file
+	 * @return the buffer, null if the file is too short to be a FHFile
+	 */
+	static ByteBuffer end(long size) {
+		if(size < FHFile.FH_END_LENGTH()) return null;
+		// ending magic number and original file length, preceded by the lengths of the table and of the checksum table if the file has them
+		return ByteBuffer.allocate((int) Math.min(size, 2 * Long.BYTES + FHFile.FH_END_LENGTH()));
+	}
+
+	/**
+	 * Allocates the buffer for the head of a file, which has to be filled starting at {@link #originalFileLength(ByteBuffer)}.
+	 * <p>
+	 * The head is read at once even if it is shorter than the largest one.
+	 * @param size the length of the file
+	 * @param end the filled buffer of the end of the file, null if there is none
+	 * @return the buffer, null if the end shows that the file is no FHFile or corrupt
+	 */
+	static ByteBuffer head(long size, ByteBuffer end) {
+		if(end == null || !Arrays.equals(FHFile.FH_END, 0, FHFile.FH_END.length, end.array(), end.capacity() - FHFile.FH_END.length, end.capacity())) return null;
+		long offsetEnd = size - FHFile.FH_END_LENGTH();
+		long originalFileLength = originalFileLength(end);
+		if(originalFileLength < 0 || originalFileLength > offsetEnd - FHFile.FH_START.length - Integer.BYTES) return null;
+		return ByteBuffer.allocate((int) Math.min(MAX_HEAD_LENGTH, offsetEnd - originalFileLength));
+	}
+
+	/**
+	 * The original file length stored in the end of a file.
+	 * @param end the filled buffer of the end of the file
+	 * @return the original file length, the offset of the head
+	 */
+	static long originalFileLength(ByteBuffer end) {
+		return end.getLong(end.capacity() - FHFile.FH_END_LENGTH());
+	}
+
+	/**
+	 * Checks the end and the head of a file that have been read.
+	 * @param path the path of the file
+	 * @param size the length of the file
+	 * @param end the filled buffer of {@link #end(long)}
+	 * @param head the filled buffer of {@link #head(long, ByteBuffer)}
+	 * @return the header
+	 */
+	static FHHeader parse(Path path, long size, ByteBuffer end, ByteBuffer head) {
+		if(end == null) return new FHHeader(Status.NOT_FH_FILE, path, 0);
+		int bytesRead = end.capacity();
+		if(!Arrays.equals(FHFile.FH_END, 0, FHFile.FH_END.length, end.array(), end.capacity() - FHFile.FH_END.length, end.capacity())) return new FHHeader(Status.NOT_FH_FILE, path, bytesRead);
+		long offsetEnd = size - FHFile.FH_END_LENGTH();
+		long originalFileLength = originalFileLength(end);
+		if(head == null) return new FHHeader(Status.CORRUPT, path, bytesRead);
+		FHHeader parsed = parseHead(path, size, originalFileLength, head, bytesRead + head.capacity());
+		if(parsed.status != Status.FH_FILE) return parsed;
+		bytesRead = parsed.bytesRead;
+		int version = parsed.version;
+		int flags = parsed.flags;
+		int chunkSize = parsed.chunkSize;
+		byte[] nonce = parsed.nonce;
+		byte[] cryptoBytes = parsed.cryptoBytes;
+		long offsetStart = parsed.offsetStart;
+
+		// the lengths of the table and of the checksum table come before the end, the checksum table follows the table
+		boolean table = (flags & (FHFile.FLAG_ARCHIVE | FHFile.FLAG_COMPRESSED | FHFile.FLAG_SEGMENTED)) != 0;
+		boolean checksums = (flags & FHFile.FLAG_CHECKSUMS) != 0;
+		int lengths = (table ? Long.BYTES : 0) + (checksums ? Long.BYTES : 0);
+		if(end.capacity() < lengths + FHFile.FH_END_LENGTH()) return new FHHeader(Status.CORRUPT, path, bytesRead);
+		offsetEnd -= lengths;
+		if(checksums) {
+			long checksumsLength = end.getLong(end.capacity() - FHFile.FH_END_LENGTH() - Long.BYTES);
+			if(checksumsLength < 0 || checksumsLength > offsetEnd - offsetStart) return new FHHeader(Status.CORRUPT, path, bytesRead);
+			offsetEnd -= checksumsLength;
+			if(checksumsLength != FHChecksums.length(offsetEnd - offsetStart, FHChecksums.blockSize(chunkSize, cryptoBytes != null)))
+				return new FHHeader(Status.CORRUPT, path, bytesRead);
+		}
+
+		// the entries of an archive, the frames of a compressed file and the segments of a file that has been appended to are checked once their table is read
+		if(table) {
+			long tocLength = end.getLong(end.capacity() - FHFile.FH_END_LENGTH() - lengths);
+			if(tocLength < Integer.BYTES || tocLength > offsetEnd - offsetStart) return new FHHeader(Status.CORRUPT, path, bytesRead);
+			offsetEnd -= tocLength;
+			// only encrypted files are split into segments, their chunks follow each other like in files with a single segment
+			if((flags & FHFile.FLAG_SEGMENTED) != 0 && (cryptoBytes == null || FHChunkCipher.plainLength(offsetEnd - offsetStart, chunkSize) < 0))
+				return new FHHeader(Status.CORRUPT, path, bytesRead);
+			return new FHHeader(path, size, originalFileLength, version, flags, chunkSize, nonce, cryptoBytes, offsetStart, offsetEnd, tocLength, bytesRead);
+		}
+
+		if(!hiddenDataLength(version, chunkSize, cryptoBytes != null, offsetEnd - offsetStart)) return new FHHeader(Status.CORRUPT, path, bytesRead);
+
+		return new FHHeader(path, size, originalFileLength, version, flags, chunkSize, nonce, cryptoBytes, offsetStart, offsetEnd, 0, bytesRead);
+	}
+
+	/**
+	 * Checks the length of the hidden data of a FHFile without a table.
+	 * @param version the version of the file
+	 * @param chunkSize the number of plain text bytes in a chunk
+	 * @param encrypted weather the file is encrypted
+	 * @param hiddenDataLength the length of the hidden data
+	 * @return weather the hidden data can have this length
+	 */
+	static boolean hiddenDataLength(int version, int chunkSize, boolean encrypted, long hiddenDataLength) {
+		return hiddenDataLength > 0
+				&& !(encrypted && version == 0 && hiddenDataLength % FHCipher.BYTES != 0)
+				&& !(encrypted && version >= 1 && FHChunkCipher.plainLength(hiddenDataLength, chunkSize) < 0);
+	}
+
+	/**
+	 * Checks the head of a file that has been read, the part of the header that does not depend on the end of the file.
+	 * @param path the path of the file
+	 * @param size the length of the file
+	 * @param originalFileLength the offset of the head
+	 * @param head the filled buffer of the head, starting with the starting magic number
+	 * @param bytesRead the number of bytes read from the file
+	 * @return the header without the end of the hidden data, or the header of a file that can not be read as FHFile
+	 */
+	static FHHeader parseHead(Path path, long size, long originalFileLength, ByteBuffer head, int bytesRead) {
+		head.flip();
+
+		// starting magic number
+		if(!Arrays.equals(FHFile.FH_START, 0, FHFile.FH_START.length, head.array(), 0, FHFile.FH_START.length)) return new FHHeader(Status.CORRUPT, path, bytesRead);
+		head.position(FHFile.FH_START.length);
+
+		// file version
+		int version = head.getInt();
+		if(version < 0) return new FHHeader(Status.CORRUPT, path, bytesRead);
+		if(version > FHFile.CURRENT_FILE_VERSION) return new FHHeader(Status.INCOMPATIBLE_VERSION, path, bytesRead);
+
+		// flags, chunk size and nonce
+		int flags = 0;
+		int chunkSize = 0;
+		byte[] nonce = null;
+		if(version >= 1) {
+			if(head.remaining() < 2 * Integer.BYTES + FHChunkCipher.NONCE_BYTES) return new FHHeader(Status.CORRUPT, path, bytesRead);
+			flags = head.getInt();
+			if((version == 1 && flags != 0) || (flags & ~FHFile.SUPPORTED_FLAGS) != 0) return new FHHeader(Status.INCOMPATIBLE_VERSION, path, bytesRead);
+			// flags of later versions, archives that are compressed and segments of archives or compressed files are not written
+			if(FHFile.fileVersion(flags) > version || Integer.bitCount(flags & (FHFile.FLAG_ARCHIVE | FHFile.FLAG_COMPRESSED | FHFile.FLAG_SEGMENTED)) > 1)
+				return new FHHeader(Status.CORRUPT, path, bytesRead);
+			chunkSize = head.getInt();
+			if(chunkSize <= 0 || chunkSize > FHChunkCipher.MAX_CHUNK_SIZE) return new FHHeader(Status.CORRUPT, path, bytesRead);
+			nonce = new byte[FHChunkCipher.NONCE_BYTES];
+			head.get(nonce);
+		}
+
+		// crypto bytes, the encrypted FH_CRYPT is followed by its padding block (version 0) or its tag (version 1), or the key slots (version 5)
+		if(head.remaining() < FHCipher.BYTES) return new FHHeader(Status.CORRUPT, path, bytesRead);
+		byte[] cryptoBytes = null;
+		if((flags & FHFile.FLAG_KEY_SLOTS) != 0) {
+			if(head.remaining() < FHKeySlots.LENGTH) return new FHHeader(Status.CORRUPT, path, bytesRead);
+			cryptoBytes = new byte[FHKeySlots.LENGTH];
+			head.get(cryptoBytes);
+			if(FHKeySlots.count(cryptoBytes) == 0) return new FHHeader(Status.CORRUPT, path, bytesRead);
+		} else if(Arrays.equals(FHFile.FH_CRYPT, 0, FHFile.FH_CRYPT.length, head.array(), head.position(), head.position() + FHCipher.BYTES)) {
+			head.position(head.position() + FHCipher.BYTES);
+		} else {
+			if(head.remaining() < 2 * FHCipher.BYTES) return new FHHeader(Status.CORRUPT, path, bytesRead);
+			cryptoBytes = new byte[2 * FHCipher.BYTES];
+			head.get(cryptoBytes);
+		}
+
+		long offsetStart = originalFileLength + head.position();
+
+		return new FHHeader(path, size, originalFileLength, version, flags, chunkSize, nonce, cryptoBytes, offsetStart, -1, 0, bytesRead);
+	}
+
+	// MARK getters
+
+	/**
+	 * getter for status
+	 * @return the outcome of reading the header
+	 */
+	Status status() {
+		return this.status;
+	}
+
+	/**
+	 * getter for path
+	 * @return the path of the file
+	 */
+	public Path path() {
+		return this.path;
+	}
+
+	/**
+	 * getter for size
+	 * @return the length of the file when the header has been read
+	 */
+	public long size() {
+		return this.size;
+	}
+
+	/**
+	 * getter for originalFileLength
+	 * @return the length of the file before the hidden data has been added, which is also the offset of the starting magic number
+	 */
+	public long originalFileLength() {
+		return this.originalFileLength;
+	}
+
+	/**
+	 * getter for version
+	 * @return the version of the file
+	 */
+	public int version() {
+		return this.version;
+	}
+
+	/**
+	 * getter for flags
+	 * @return the flags of the file, 0 before version 2
+	 */
+	int flags() {
+		return this.flags;
+	}
+
+	/**
+	 * Whether the file is an archive of several named entries instead of a single hidden file.
+	 * @return true if the file is an archive
+	 */
+	public boolean archive() {
+		return (this.flags & FHFile.FLAG_ARCHIVE) != 0;
+	}
+
+	/**
+	 * Whether the hidden file is compressed.
+	 * @return true if the hidden file is compressed
+	 */
+	public boolean compressed() {
+		return (this.flags & FHFile.FLAG_COMPRESSED) != 0;
+	}
+
+	/**
+	 * Whether data has been appended to the encrypted hidden file, which splits its chunks into segments.
+	 * @return true if the chunks are split into segments
+	 */
+	boolean segmented() {
+		return (this.flags & FHFile.FLAG_SEGMENTED) != 0;
+	}
+
+	/**
+	 * Whether the file has a checksum table, which allows to check its hidden data for damage.
+	 * @return true if the file has checksums
+	 */
+	public boolean checksums() {
+		return (this.flags & FHFile.FLAG_CHECKSUMS) != 0;
+	}
+
+	/**
+	 * getter for encrypted
+	 * @return weather the hidden data is encrypted
+	 */
+	public boolean encrypted() {
+		return this.cryptoBytes != null;
+	}
+
+	/**
+	 * getter for offsetStart
+	 * @return the offset that points to the beginning of the hidden data
+	 */
+	public long offsetStart() {
+		return this.offsetStart;
+	}
+
+	/**
+	 * getter for offsetEnd
+	 * @return the offset that points to the end of the hidden data, which is the start of the table of contents for archives or of the frame table for compressed files
+	 */
+	public long offsetEnd() {
+		return this.offsetEnd;
+	}
+
+	/**
+	 * getter for tocLength
+	 * @return the length of the table of contents of an archive or of the frame table of a compressed file, 0 otherwise
+	 */
+	long tocLength() {
+		return this.tocLength;
+	}
+
+	/**
+	 * getter for chunkSize
+	 * @return the number of bytes of the hidden file in each chunk, 0 for version 0
+	 */
+	public int chunkSize() {
+		return this.chunkSize;
+	}
+
+	/**
+	 * getter for nonce
+	 * @return the nonce of the file, null for version 0
+	 */
+	byte[] nonce() {
+		return this.nonce;
+	}
+
+	/**
+	 * getter for cryptoBytes
+	 * @return a copy of the crypto bytes, null if the file is unencrypted
+	 */
+	public byte[] cryptoBytes() {
+		return this.cryptoBytes == null ? null : this.cryptoBytes.clone();
+	}
+
+	/**
+	 * getter for bytesRead
+	 * @return the number of bytes read from the file to read the header
+	 */
+	int bytesRead() {
+		return this.bytesRead;
+	}
+
+	// MARK object
+
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj) return true;
+		if(!(obj instanceof FHHeader)) return false;
+		FHHeader other = (FHHeader) obj;
+		return this.status == other.status && Objects.equals(this.path, other.path) && this.size == other.size
+				&& this.originalFileLength == other.originalFileLength && this.version == other.version && this.flags == other.flags && this.chunkSize == other.chunkSize
+				&& Arrays.equals(this.nonce, other.nonce) && Arrays.equals(this.cryptoBytes, other.cryptoBytes)
+				&& this.offsetStart == other.offsetStart && this.offsetEnd == other.offsetEnd && this.tocLength == other.tocLength;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(this.status, this.path, this.size, this.originalFileLength, this.version, this.offsetStart, this.offsetEnd);
+	}
+
+	@Override
+	public String toString() {
+		return "FHHeader[path=" + this.path + ", version=" + this.version + ", encrypted=" + encrypted() + ", archive=" + archive() + ", compressed=" + compressed()
+				+ ", segmented=" + segmented() + ", checksums=" + checksums() + ", offsetStart=" + this.offsetStart + ", offsetEnd=" + this.offsetEnd + "]";
+	}
+}
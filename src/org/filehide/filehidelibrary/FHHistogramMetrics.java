@@ -0,0 +1,302 @@
+package org.filehide.filehidelibrary;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics that count the bytes and record the times in histograms, without any locks.
+ * <p>
+ * Install them with {@link FHMetrics#install(FHMetrics)} and read them at any time, e.g. to export them to a monitoring system.
+ * @author alex1s
+ */
+public final class FHHistogramMetrics implements FHMetrics {
+
+	/**
+	 * The number of bytes read from files.
+	 */
+	private final LongAdder bytesRead = new LongAdder();
+	/**
+	 * The number of bytes written to files.
+	 */
+	private final LongAdder bytesWritten = new LongAdder();
+	/**
+	 * The number of bytes de- or encrypted.
+	 */
+	private final LongAdder cipherBytes = new LongAdder();
+	/**
+	 * The times headers took to read.
+	 */
+	private final Histogram headerParse = new Histogram();
+	/**
+	 * The times key material took to derive.
+	 */
+	private final Histogram keyDerivation = new Histogram();
+	/**
+	 * The latencies of each operation, by its ordinal.
+	 */
+	private final Histogram[] operations = new Histogram[Operation.values().length];
+
+	/**
+	 * Constructs empty metrics.
+	 */
+	public FHHistogramMetrics() {
+		for(int i = 0; i < this.operations.length; i++)
+			this.operations[i] = new Histogram();
+	}
+
+	// MARK recording
+
+	@Override
+	public void bytesRead(long bytes) {
+		this.bytesRead.add(bytes);
+	}
+
+	@Override
+	public void bytesWritten(long bytes) {
+		this.bytesWritten.add(bytes);
+	}
+
+	@Override
+	public void cipherBytes(long bytes) {
+		this.cipherBytes.add(bytes);
+	}
+
+	@Override
+	public void headerParsed(long nanos) {
+		this.headerParse.record(nanos);
+	}
+
+	@Override
+	public void keyDerived(long nanos) {
+		this.keyDerivation.record(nanos);
+	}
+
+	@Override
+	public void operation(Operation operation, long nanos) {
+		this.operations[operation.ordinal()].record(nanos);
+	}
+
+	// MARK getters
+
+	/**
+	 * getter for bytesRead
+	 * @return the number of bytes read from files
+	 */
+	public long bytesRead() {
+		return this.bytesRead.sum();
+	}
+
+	/**
+	 * getter for bytesWritten
+	 * @return the number of bytes written to files
+	 */
+	public long bytesWritten() {
+		return this.bytesWritten.sum();
+	}
+
+	/**
+	 * getter for cipherBytes
+	 * @return the number of bytes de- or encrypted
+	 */
+	public long cipherBytes() {
+		return this.cipherBytes.sum();
+	}
+
+	/**
+	 * getter for headerParse
+	 * @return the times headers took to read in nanoseconds
+	 */
+	public Histogram headerParse() {
+		return this.headerParse;
+	}
+
+	/**
+	 * getter for keyDerivation
+	 * @return the times key material took to derive in nanoseconds
+	 */
+	public Histogram keyDerivation() {
+		return this.keyDerivation;
+	}
+
+	/**
+	 * The latencies of an operation.
+	 * @param operation the operation
+	 * @return the times the operation took in nanoseconds
+	 */
+	public Histogram latency(Operation operation) {
+		return this.operations[operation.ordinal()];
+	}
+
+	/**
+	 * Resets all counters and histograms.
+	 * <p>
+	 * Values recorded while resetting may or may not be kept.
+	 */
+	public void reset() {
+		this.bytesRead.reset();
+		this.bytesWritten.reset();
+		this.cipherBytes.reset();
+		this.headerParse.reset();
+		this.keyDerivation.reset();
+		for(Histogram histogram : this.operations)
+			histogram.reset();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("FHHistogramMetrics[bytesRead=").append(bytesRead())
+				.append(", bytesWritten=").append(bytesWritten())
+				.append(", cipherBytes=").append(cipherBytes())
+				.append(", headerParse=").append(this.headerParse)
+				.append(", keyDerivation=").append(this.keyDerivation);
+		for(Operation operation : Operation.values())
+			builder.append(", ").append(operation).append('=').append(latency(operation));
+		return builder.append(']').toString();
+	}
+
+	// MARK histogram
+
+	/**
+	 * Histogram of non negative values, e.g. times in nanoseconds.
+	 * <p>
+	 * Values below 16 have a bucket each, above that every power of two is split into 16 buckets,
+	 * so a percentile is at most 6.25% larger than the value that has actually been recorded.
+	 * Recording only increments counters and does not lock.
+	 * @author alex1s
+	 */
+	public static final class Histogram {
+
+		/**
+		 * The number of buckets every power of two is split into, as power of two.
+		 */
+		private static final int SUB_BUCKET_BITS = 4;
+		/**
+		 * The number of buckets every power of two is split into.
+		 */
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		/**
+		 * The number of buckets, enough for every non negative long.
+		 */
+		private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+		/**
+		 * The number of values in each bucket.
+		 */
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		/**
+		 * The number of values.
+		 */
+		private final LongAdder count = new LongAdder();
+		/**
+		 * The sum of the values.
+		 */
+		private final LongAdder sum = new LongAdder();
+		/**
+		 * The largest value.
+		 */
+		private final AtomicLong max = new AtomicLong();
+
+		/**
+		 * Constructs an empty histogram.
+		 */
+		Histogram() {}
+
+		/**
+		 * Records a value.
+		 * @param value the value, negative values are recorded as 0
+		 */
+		public void record(long value) {
+			value = Math.max(0, value);
+			this.counts.incrementAndGet(bucket(value));
+			this.count.increment();
+			this.sum.add(value);
+			if(value > this.max.get()) this.max.accumulateAndGet(value, Math::max);
+		}
+
+		/**
+		 * The number of recorded values.
+		 * @return the number of values
+		 */
+		public long count() {
+			return this.count.sum();
+		}
+
+		/**
+		 * The mean of the recorded values.
+		 * @return the mean, 0 if no values have been recorded
+		 */
+		public double mean() {
+			long count = count();
+			return count == 0 ? 0 : (double) this.sum.sum() / count;
+		}
+
+		/**
+		 * The largest recorded value.
+		 * @return the largest value, 0 if no values have been recorded
+		 */
+		public long max() {
+			return this.max.get();
+		}
+
+		/**
+		 * The value below or at which the given percentage of the recorded values are.
+		 * @param percentile the percentage, from 0 to 100
+		 * @return the largest value of the bucket of the percentile but at most {@link #max()}, 0 if no values have been recorded
+		 */
+		public long percentile(double percentile) {
+			if(percentile < 0 || percentile > 100) throw new IllegalArgumentException();
+			long total = 0;
+			long[] counts = new long[BUCKETS];
+			for(int i = 0; i < BUCKETS; i++)
+				total += counts[i] = this.counts.get(i);
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+			long seen = 0;
+			for(int i = 0; i < BUCKETS; i++) {
+				seen += counts[i];
+				if(seen >= rank) return Math.min(highestValue(i), max());
+			}
+			return 0;
+		}
+
+		/**
+		 * Removes all recorded values.
+		 */
+		void reset() {
+			for(int i = 0; i < BUCKETS; i++)
+				this.counts.set(i, 0);
+			this.count.reset();
+			this.sum.reset();
+			this.max.set(0);
+		}
+
+		/**
+		 * The bucket of a value.
+		 * @param value a non negative value
+		 * @return the index of the bucket
+		 */
+		private static int bucket(long value) {
+			if(value < SUB_BUCKETS) return (int) value;
+			int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+			int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+			return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+		}
+
+		/**
+		 * The largest value of a bucket.
+		 * @param bucket the index of the bucket
+		 * @return the largest value
+		 */
+		private static long highestValue(int bucket) {
+			if(bucket < SUB_BUCKETS) return bucket;
+			int shift = bucket / SUB_BUCKETS - 1;
+			long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+			return lowest + (1L << shift) - 1;
+		}
+
+		@Override
+		public String toString() {
+			return "Histogram[count=" + count() + ", mean=" + Math.round(mean()) + ", p50=" + percentile(50) + ", p99=" + percentile(99) + ", max=" + max() + "]";
+		}
+	}
+}
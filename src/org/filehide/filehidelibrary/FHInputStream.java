@@ -1,132 +1,357 @@
 package org.filehide.filehidelibrary;
 
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
-import java.io.FilterInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.Objects;
 
-import javax.crypto.CipherInputStream;
+import org.filehide.filehidelibrary.FHCipher.OperationMode;
 
-// FIXME javax.crypto.IllegalBlockSizeException thrown when closing stream
 /**
  * InputStream to read the hidden data out of a FHFile.
+ * <p>
+ * The hidden data is read with positional reads of the file´s channel into a buffer that is reused for the whole lifetime of the stream,
+ * so reading does not allocate.
  * @author alex1s
  *
  */
-class FHInputStream extends FilterInputStream {
+class FHInputStream extends InputStream {
+	/**
+	 * The size of the buffer the hidden data is read into.
+	 */
+	static final int BUFFER_SIZE = 64 * 1024;
+
 	/**
 	 * The file which the hidden data will be read from.
 	 */
 	FHFile file;
-	
+
+	/**
+	 * The channel of the file.
+	 */
+	private final FileChannel channel;
+	/**
+	 * The cipher to decrypt the hidden data of a version 0 file with, null if the file is unencrypted.
+	 */
+	private final FHCipher cipher;
+	/**
+	 * The cipher to decrypt the chunks of a file since version 1 with, null if the file is unencrypted.
+	 */
+	private final FHChunkCipher chunkCipher;
+	/**
+	 * The number of bytes of hidden data, only known in advance if the file is unencrypted or has chunks.
+	 */
+	private final long length;
+
 	/**
 	 * The current pointer in the file.
 	 */
 	private long read;
+	/**
+	 * The number of plain text bytes the cipher has returned so far.
+	 */
+	private long decrypted = 0;
 	/**
 	 * Information about wheather the EOF is reached or not.
 	 */
 	private boolean EOF = false;
-	
+
+	/**
+	 * The bytes that have been read (and decrypted) but not yet been returned.
+	 */
+	private final byte[] buffer;
+	/**
+	 * The index of the next byte in the buffer to return.
+	 */
+	private int bufferPosition = 0;
+	/**
+	 * The index of the first byte in the buffer that has not been filled.
+	 */
+	private int bufferLimit = 0;
+	/**
+	 * The bytes read from the file, {@link #buffer} for unencrypted files and space for the cipher text for encrypted files.
+	 * <p>
+	 * The cipher text space is one block smaller than the buffer, so the cipher can always decrypt it at once.
+	 * For files with chunks it holds exactly one chunk.
+	 */
+	private final ByteBuffer input;
+	/**
+	 * A reusable wrapper of the last array that has been read to directly.
+	 */
+	private ByteBuffer wrapper;
+
 	//# MARK - init
-	
+
 	/**
 	 * Constructs a FHInputStream from a unencrypted FHFile.
 	 * @param file - a unencrypted FHFile
 	 * @throws IOException - if an I/O error occurs
-	 * @throws FHFileEncryptedException 
+	 * @throws FHFileEncryptedException
 	 */
 	FHInputStream(FHFile file) throws IOException, FHFileEncryptedException {
-		super(initSuper(file, null));
 		if(file.encrypted()) throw new FHFileEncryptedException();
-		
+
 		this.file = file;
+		this.cipher = null;
+		this.chunkCipher = null;
+		this.length = file.offsetEnd() - file.offsetStart();
+		this.buffer = new byte[BUFFER_SIZE];
+		this.input = ByteBuffer.wrap(this.buffer);
 		this.read = file.offsetStart();
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
 	}
-	
+
 	/**
 	 * Constructs a FHInoutStream from a encrypted FHFile and a FHCipher.
-	 * @param file - a encrpyted FHFile
+	 * @param file - a encrpyted FHFile of version 0
 	 * @param cipher - a fully FHCipher
-	 * @throws IOException if an I/O error occurs
-	 * @throws FHFileUnencryptedException 
+	 * @throws IOException if an I/O error occurs or the file has chunks, which can not be decrypted by a FHCipher
+	 * @throws FHFileUnencryptedException
 	 */
 	FHInputStream(FHFile file, FHCipher cipher) throws IOException, FHFileUnencryptedException {
-		super(initSuper(file, cipher));
 		if(!file.encrypted()) throw new FHFileUnencryptedException();
-		
+		if(file.version() >= 1) throw new IOException(new IncompatibleFHFileVersionException());
+
 		this.file = file;
+		this.cipher = cipher;
+		this.chunkCipher = null;
+		this.length = -1;
+		this.buffer = new byte[BUFFER_SIZE];
+		this.input = ByteBuffer.allocate(BUFFER_SIZE - FHCipher.BYTES);
 		this.read = file.offsetStart();
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
 	}
 	
 	/**
-	 * Help function to initialize super.<br>
-	 * NOTE: Wheather a encrypted super or a unecrypted super is created depends
-	 * upon wheather the given cipher is null or not.
-	 * @param file - a FHFile
-	 * @param cipher - a FHCipher (should be null if the FHFile is unencrpyted)
-	 * @return - the InputStream to initialize super with
-	 * @throws IOException - if an I/O error occurs
-	 * @throws FHFileUnencryptedException 
-	 * @throws FHFileEncryptedException 
-	 */
-	private static InputStream initSuper(FHFile file, FHCipher cipher) throws IOException {
-		FileInputStream fileIs = new FileInputStream(file);
-		fileIs.skip(file.offsetStart());
-		
-		FilterInputStream in;
-		if(cipher != null) {
-			in = new CipherInputStream(fileIs, cipher.getCipher());
-		} else {
-			in = new BufferedInputStream(fileIs);
-		}
-		return in;
+	 * Constructs a FHInoutStream from a encrypted FHFile with chunks and a FHChunkCipher.
+	 * @param file - a encrpyted FHFile since version 1
+	 * @param cipher - the FHChunkCipher of the file
+	 * @throws IOException if an I/O error occurs
+	 * @throws FHFileUnencryptedException
+	 */
+	FHInputStream(FHFile file, FHChunkCipher cipher) throws IOException, FHFileUnencryptedException {
+		if(!file.encrypted()) throw new FHFileUnencryptedException();
+
+		this.file = file;
+		this.cipher = null;
+		this.chunkCipher = cipher;
+		this.length = FHChunkCipher.plainLength(file.offsetEnd() - file.offsetStart(), file.chunkSize());
+		this.buffer = new byte[file.chunkSize()];
+		this.input = ByteBuffer.allocate(file.chunkSize() + FHChunkCipher.TAG_BYTES);
+		this.read = file.offsetStart();
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
 	}
 
 	//# MARK - overwriting super
-	
+
 	@Override
 	public int read() throws IOException {
-		byte[] b = new byte[1];
-		int response = read(b);
-		
-		if(response < 0)
-			return response;
-		else
-			return b[0];
+		if(!fill()) return -1;
+		return this.buffer[this.bufferPosition++] & 0xFF;
 	}
-	
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		Objects.checkFromIndexSize(off, len, b.length);
+		if(len == 0) return 0;
+
+		// large reads of unencrypted data go directly to the given array
+		if(!this.file.encrypted() && this.bufferPosition == this.bufferLimit && len >= this.buffer.length) {
+			int n = (int) Math.min(len, this.file.offsetEnd() - this.read);
+			if(n == 0) {
+				this.EOF = true;
+				return -1;
+			}
+			if(this.wrapper == null || this.wrapper.array() != b)
+				this.wrapper = ByteBuffer.wrap(b);
+			readAt(this.wrapper, off, n);
+			return n;
+		}
+
+		if(!fill()) return -1;
+		int n = Math.min(len, this.bufferLimit - this.bufferPosition);
+		System.arraycopy(this.buffer, this.bufferPosition, b, off, n);
+		this.bufferPosition += n;
+		return n;
+	}
+
 	@Override
-	public int read(byte[] b) throws IOException {
-		return this.read(b, 0, b.length);
+	public int readNBytes(byte[] b, int off, int len) throws IOException {
+		Objects.checkFromIndexSize(off, len, b.length);
+		int n = 0;
+		while(n < len) {
+			int count = read(b, off + n, len - n);
+			if(count < 0) break;
+			n += count;
+		}
+		return n;
 	}
-	
+
 	@Override
-	public int read(byte[] b, int off, int len) throws IOException {
-		if(this.EOF) return -1;
-		return super.read(b, off, checkLen(len));
+	public long skip(long n) throws IOException {
+		if(n <= 0) return 0;
+
+		long skipped = Math.min(n, this.bufferLimit - this.bufferPosition);
+		this.bufferPosition += skipped;
+		if(skipped == n || this.EOF) return skipped;
+
+		if(!this.file.encrypted()) {
+			long count = Math.min(n - skipped, this.file.offsetEnd() - this.read);
+			this.read += count;
+			return skipped + count;
+		}
+
+		if(this.chunkCipher != null) {
+			// skip whole chunks by starting at the chunk that contains the target
+			long target = Math.min(this.decrypted + (n - skipped), this.length);
+			long chunk = target / this.file.chunkSize();
+			if(chunk * this.file.chunkSize() > this.decrypted) {
+				skipped += chunk * this.file.chunkSize() - this.decrypted;
+				this.decrypted = chunk * this.file.chunkSize();
+				this.read = this.file.offsetStart() + chunk * (this.file.chunkSize() + FHChunkCipher.TAG_BYTES);
+			}
+			return skipped + skipDecrypted(n - skipped);
+		}
+
+		// skip whole blocks by restarting the chain at the cipher text block before the target, the last block is needed to remove the padding
+		long next = this.file.offsetStart() + this.decrypted;
+		long target = Math.min(next + (n - skipped) / FHCipher.BYTES * FHCipher.BYTES, this.file.offsetEnd() - FHCipher.BYTES);
+		if(target > next) {
+			byte[] iv = null;
+			if(target > this.file.offsetStart()) {
+				iv = new byte[FHCipher.BYTES];
+				FHChannels.readFully(this.channel, ByteBuffer.wrap(iv), target - FHCipher.BYTES);
+			}
+			this.cipher.reinit(iv);
+			skipped += target - next;
+			this.read = target;
+			this.decrypted = target - this.file.offsetStart();
+		}
+
+		return skipped + skipDecrypted(n - skipped);
 	}
-	
+
+	@Override
+	public int available() throws IOException {
+		long available = this.bufferLimit - this.bufferPosition;
+		if(!this.file.encrypted())
+			available += this.file.offsetEnd() - this.read;
+		else if(this.chunkCipher != null)
+			available += this.length - this.decrypted;
+		else if(!this.EOF)
+			available += Math.max(0, this.file.offsetEnd() - this.read - FHCipher.BYTES); // up to one block is padding
+		return (int) Math.min(available, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public long transferTo(OutputStream out) throws IOException {
+		Objects.requireNonNull(out);
+		long transferred = this.bufferLimit - this.bufferPosition;
+		out.write(this.buffer, this.bufferPosition, this.bufferLimit - this.bufferPosition);
+		this.bufferPosition = this.bufferLimit;
+
+		// unencrypted data can be transferred to files without passing through the heap
+		if(!this.file.encrypted() && out.getClass() == FileOutputStream.class) {
+			long count = this.file.offsetEnd() - this.read;
+			FHChannels.transferFully(this.channel, this.read, count, ((FileOutputStream) out).getChannel());
+			this.read += count;
+			this.EOF = true;
+			return transferred + count;
+		}
+
+		while(fill()) {
+			out.write(this.buffer, this.bufferPosition, this.bufferLimit - this.bufferPosition);
+			transferred += this.bufferLimit - this.bufferPosition;
+			this.bufferPosition = this.bufferLimit;
+		}
+		return transferred;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
 	//# MARK - help
-	
+
+	/**
+	 * Refills the buffer if all of its bytes have been returned.
+	 * @return false if there are no more bytes to return, true otherwise
+	 * @throws IOException if an I/O error occurs or the hidden data can not be decrypted
+	 */
+	private boolean fill() throws IOException {
+		while(this.bufferPosition == this.bufferLimit) {
+			if(this.EOF) return false;
+
+			int n = (int) Math.min(this.input.capacity(), this.file.offsetEnd() - this.read);
+			readAt(this.input, 0, n);
+			this.bufferPosition = 0;
+			if(!this.file.encrypted()) {
+				this.bufferLimit = n;
+				if(this.read == this.file.offsetEnd()) this.EOF = true;
+			} else if(this.chunkCipher != null) {
+				if(n == 0) {
+					// skipped to the end
+					this.bufferLimit = 0;
+					this.EOF = true;
+					continue;
+				}
+				try {
+					long chunk = (this.read - n - this.file.offsetStart()) / (this.file.chunkSize() + FHChunkCipher.TAG_BYTES);
+					this.bufferLimit = this.chunkCipher.crypt(OperationMode.DECRYPT_MODE, chunk, this.read == this.file.offsetEnd(), this.input.array(), 0, n, this.buffer, 0);
+				} catch (GeneralSecurityException e) {
+					throw new IOException(e);
+				}
+				this.decrypted += this.bufferLimit;
+				if(this.read == this.file.offsetEnd()) this.EOF = true;
+			} else {
+				try {
+					this.bufferLimit = this.cipher.getCipher().update(this.input.array(), 0, n, this.buffer, 0);
+					FHInstrumentation.crypted(n);
+					this.decrypted += this.bufferLimit;
+					if(this.read == this.file.offsetEnd()) {
+						this.bufferLimit += this.cipher.getCipher().doFinal(this.buffer, this.bufferLimit);
+						this.EOF = true;
+					}
+				} catch (GeneralSecurityException e) {
+					throw new IOException(e);
+				}
+			}
+		}
+		return true;
+	}
+
 	/**
-	 * Helper function to check wheather the given length is acceptable and does not go further
-	 * than the point where the hidden data ends within the hosting file.
-	 * @param len - the length to check
-	 * @return the eventually modified length that should be read
+	 * Reads exactly {@code len} bytes at the current pointer in the file into the given buffer and advances the pointer.
+	 * @param buffer the buffer to read into
+	 * @param off the offset in the buffer to start at
+	 * @param len the number of bytes to read
+	 * @throws IOException if an I/O error occurs
 	 */
-	private int checkLen(int len) {
+	private void readAt(ByteBuffer buffer, int off, int len) throws IOException {
+		buffer.clear().position(off).limit(off + len);
+		FHChannels.readFully(this.channel, buffer, this.read);
 		this.read += len;
-		long diff = this.file.offsetEnd() - this.read;
-		
-		int response; 
-		if(diff <= 0) {
-			this.EOF = true;
-			response = len + (int) diff;
-		} else 
-			response = len;
-		System.out.println("respose: " + response);
-		return response;
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Skips bytes by decrypting and discarding them.
+	 * @param n the number of bytes to skip
+	 * @return the number of bytes skipped
+	 * @throws IOException if an I/O error occurs or the hidden data can not be decrypted
+	 */
+	private long skipDecrypted(long n) throws IOException {
+		long skipped = 0;
+		while(skipped < n && fill()) {
+			int count = (int) Math.min(n - skipped, this.bufferLimit - this.bufferPosition);
+			this.bufferPosition += count;
+			skipped += count;
+		}
+		return skipped;
+	}
+}
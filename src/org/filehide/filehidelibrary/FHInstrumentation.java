@@ -0,0 +1,77 @@
+package org.filehide.filehidelibrary;
+
+/**
+ * Helper functions the hot paths report to the installed {@link FHMetrics} with.
+ * <p>
+ * Times are only taken if metrics are installed, {@link #start()} returns 0 otherwise and the elapsed time is never computed.
+ * @author alex1s
+ */
+final class FHInstrumentation {
+
+	/**
+	 * The installed metrics.
+	 */
+	static volatile FHMetrics metrics = FHMetrics.NONE;
+
+	/**
+	 * Not instantiable.
+	 */
+	private FHInstrumentation() {}
+
+	/**
+	 * Starts measuring a time.
+	 * @return the current time in nanoseconds, 0 if no metrics are installed
+	 */
+	static long start() {
+		return metrics == FHMetrics.NONE ? 0 : System.nanoTime();
+	}
+
+	/**
+	 * Reports bytes read from a file.
+	 * @param bytes the number of bytes
+	 */
+	static void read(long bytes) {
+		metrics.bytesRead(bytes);
+	}
+
+	/**
+	 * Reports bytes written to a file.
+	 * @param bytes the number of bytes
+	 */
+	static void written(long bytes) {
+		metrics.bytesWritten(bytes);
+	}
+
+	/**
+	 * Reports bytes de- or encrypted.
+	 * @param bytes the number of input bytes of the cipher
+	 */
+	static void crypted(long bytes) {
+		metrics.cipherBytes(bytes);
+	}
+
+	/**
+	 * Reports the time a header took to read.
+	 * @param start the time returned by {@link #start()}
+	 */
+	static void headerParsed(long start) {
+		if(start != 0) metrics.headerParsed(System.nanoTime() - start);
+	}
+
+	/**
+	 * Reports the time key material took to derive.
+	 * @param start the time returned by {@link #start()}
+	 */
+	static void keyDerived(long start) {
+		if(start != 0) metrics.keyDerived(System.nanoTime() - start);
+	}
+
+	/**
+	 * Reports the time an operation took.
+	 * @param operation the operation
+	 * @param start the time returned by {@link #start()}
+	 */
+	static void operation(FHMetrics.Operation operation, long start) {
+		if(start != 0) metrics.operation(operation, System.nanoTime() - start);
+	}
+}
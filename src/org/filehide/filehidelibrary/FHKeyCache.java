@@ -0,0 +1,193 @@
+package org.filehide.filehidelibrary;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the key material derived from passwords.
+ * <p>
+ * Deriving the secret key and the iv of a password takes several SHA-256 hashes, which adds up when many FHFiles are opened with the same password.
+ * The cache keeps the key material of the most recently used passwords. It is keyed by a salted fingerprint of the password, so the password itself is never kept.
+ * Key material that is evicted or cleared is overwritten with zeros.
+ * @author alex1s
+ */
+public final class FHKeyCache {
+
+	/**
+	 * The number of passwords the cache keeps if nothing else is specified.
+	 */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	/**
+	 * The algorithm used to fingerprint passwords with.
+	 */
+	private static final String HASH_ALGORITHM = "SHA-256";
+
+	/**
+	 * The salt of the fingerprints, random for every run.
+	 */
+	private static final byte[] SALT = new byte[16];
+	static {
+		new SecureRandom().nextBytes(SALT);
+	}
+
+	/**
+	 * The digest of each thread.
+	 */
+	private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new FHRuntimeException(e.toString());
+		}
+	});
+
+	/**
+	 * The number of passwords the cache keeps.
+	 */
+	private static int capacity = DEFAULT_CAPACITY;
+
+	/**
+	 * The key material of each fingerprint, in the order of their last use.
+	 */
+	private static final LinkedHashMap<ByteBuffer, byte[]> CACHE = new LinkedHashMap<ByteBuffer, byte[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ByteBuffer, byte[]> eldest) {
+			if(size() <= capacity) return false;
+			Arrays.fill(eldest.getValue(), (byte) 0);
+			return true;
+		}
+	};
+
+	/**
+	 * The number of lookups that have found the key material in the cache.
+	 */
+	private static final LongAdder HITS = new LongAdder();
+	/**
+	 * The number of lookups that had to derive the key material.
+	 */
+	private static final LongAdder MISSES = new LongAdder();
+
+	/**
+	 * Not instantiable.
+	 */
+	private FHKeyCache() {}
+
+	// MARK lookup
+
+	/**
+	 * Returns the key material of a password, the secret key followed by the iv.
+	 * <p>
+	 * The returned array is a copy, the caller should overwrite it with zeros once it is not needed anymore.
+	 * @param password the password
+	 * @return the key material
+	 */
+	static byte[] keyMaterial(byte[] password) {
+		MessageDigest digest = DIGEST.get();
+		digest.update(SALT);
+		ByteBuffer fingerprint = ByteBuffer.wrap(digest.digest(password));
+
+		synchronized(CACHE) {
+			byte[] keyMaterial = CACHE.get(fingerprint);
+			if(keyMaterial != null) {
+				HITS.increment();
+				return keyMaterial.clone();
+			}
+		}
+
+		MISSES.increment();
+		byte[] keyMaterial = FHCipher.deriveKeyMaterial(password);
+		byte[] copy = keyMaterial.clone();
+		synchronized(CACHE) {
+			// another thread may have derived the same key material meanwhile, the one replaced is not reachable anymore
+			byte[] replaced = CACHE.put(fingerprint, keyMaterial);
+			if(replaced != null) Arrays.fill(replaced, (byte) 0);
+		}
+		return copy;
+	}
+
+	/**
+	 * Hashes the data with the SHA-256 digest of the current thread.
+	 * @param data the data to hash
+	 * @return the hash
+	 */
+	static byte[] digest(byte[] data) {
+		return DIGEST.get().digest(data);
+	}
+
+	// MARK management
+
+	/**
+	 * Sets the number of passwords the cache keeps, evicting the least recently used ones if there are more.
+	 * @param capacity the number of passwords, 0 to disable the cache
+	 */
+	public static void setCapacity(int capacity) {
+		if(capacity < 0) throw new IllegalArgumentException();
+		synchronized(CACHE) {
+			FHKeyCache.capacity = capacity;
+			Iterator<byte[]> iterator = CACHE.values().iterator();
+			while(CACHE.size() > capacity && iterator.hasNext()) {
+				Arrays.fill(iterator.next(), (byte) 0);
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * getter for capacity
+	 * @return the number of passwords the cache keeps
+	 */
+	public static int capacity() {
+		synchronized(CACHE) {
+			return capacity;
+		}
+	}
+
+	/**
+	 * The number of passwords in the cache.
+	 * @return the number of passwords
+	 */
+	public static int size() {
+		synchronized(CACHE) {
+			return CACHE.size();
+		}
+	}
+
+	/**
+	 * Removes all key material from the cache and overwrites it with zeros.
+	 */
+	public static void clear() {
+		synchronized(CACHE) {
+			for(byte[] keyMaterial : CACHE.values())
+				Arrays.fill(keyMaterial, (byte) 0);
+			CACHE.clear();
+		}
+	}
+
+	// MARK statistics
+
+	/**
+	 * The number of lookups that have found the key material in the cache.
+	 * @return the number of hits
+	 */
+	public static long hits() {
+		return HITS.sum();
+	}
+
+	/**
+	 * The number of lookups that had to derive the key material.
+	 * @return the number of misses
+	 */
+	public static long misses() {
+		return MISSES.sum();
+	}
+}
@@ -0,0 +1,187 @@
+package org.filehide.filehidelibrary;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+
+import org.filehide.filehidelibrary.FHCipher.OperationMode;
+
+/**
+ * The key slots of FHFiles since version 5, which allow to change the passwords of a FHFile without encrypting its hidden data again.
+ * <p>
+ * The chunks of such a file are encrypted with a random content key. Instead of the encrypted FH_CRYPT the head holds {@link #SLOTS} key slots of {@link #SLOT_BYTES} bytes each.
+ * A used slot holds the content key encrypted with AES/GCM with the key of a password, the nonce of the file and the index {@link #SLOT_INDEX} plus the number of the slot, followed by its tag.
+ * An unused slot is filled with zeros. A password is checked by decrypting the used slots until the tag of one matches, which only derives the key of the password once.
+ * @author alex1s
+ */
+final class FHKeySlots {
+
+	/**
+	 * The number of key slots of a file.
+	 */
+	static final int SLOTS = 8;
+	/**
+	 * The length of the content key.
+	 */
+	static final int KEY_BYTES = FHCipher.BYTES;
+	/**
+	 * The length of a key slot, the encrypted content key followed by its tag.
+	 */
+	static final int SLOT_BYTES = KEY_BYTES + FHChunkCipher.TAG_BYTES;
+	/**
+	 * The length of all key slots, which take the place of the crypto bytes in the head.
+	 */
+	static final int LENGTH = SLOTS * SLOT_BYTES;
+	/**
+	 * The index used to encrypt the content key in the first slot, the other slots use the following ones.
+	 */
+	private static final long SLOT_INDEX = 0xFFFFFFF0L;
+
+	/**
+	 * Source of the content keys.
+	 */
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	/**
+	 * Not instantiable.
+	 */
+	private FHKeySlots() {}
+
+	/**
+	 * Creates a random content key for a new file and puts it into the first slot.
+	 * @param password the password of the file
+	 * @param nonce the nonce of the file
+	 * @param chunkSize the number of plain text bytes in a chunk
+	 * @param slots the key slots to fill, {@link #LENGTH} bytes
+	 * @return the cipher of the chunks, which uses the content key
+	 * @throws GeneralSecurityException if the content key can not be encrypted
+	 */
+	static FHChunkCipher create(byte[] password, byte[] nonce, int chunkSize, byte[] slots) throws GeneralSecurityException {
+		byte[] contentKey = new byte[KEY_BYTES];
+		RANDOM.nextBytes(contentKey);
+		try {
+			FHChunkCipher passwordCipher = new FHChunkCipher(password, nonce, chunkSize);
+			Arrays.fill(slots, (byte) 0);
+			put(slots, 0, passwordCipher, contentKey);
+			return passwordCipher.withKey(contentKey);
+		} finally {
+			Arrays.fill(contentKey, (byte) 0);
+		}
+	}
+
+	/**
+	 * Creates the cipher of the chunks of a file, using the content key if the file has key slots.
+	 * @param password the password of the file
+	 * @param nonce the nonce of the file
+	 * @param chunkSize the number of plain text bytes in a chunk
+	 * @param flags the flags of the file
+	 * @param cryptoBytes the crypto bytes of the file, its key slots if it has some
+	 * @return the cipher
+	 * @throws IOException if no key slot can be decrypted with the password
+	 */
+	static FHChunkCipher cipher(byte[] password, byte[] nonce, int chunkSize, int flags, byte[] cryptoBytes) throws IOException {
+		FHChunkCipher passwordCipher = new FHChunkCipher(password, nonce, chunkSize);
+		if((flags & FHFile.FLAG_KEY_SLOTS) == 0) return passwordCipher;
+
+		byte[] contentKey = new byte[KEY_BYTES];
+		try {
+			if(find(cryptoBytes, passwordCipher, contentKey) < 0) throw new IOException(new AEADBadTagException("No key slot matches the password"));
+			return passwordCipher.withKey(contentKey);
+		} finally {
+			Arrays.fill(contentKey, (byte) 0);
+		}
+	}
+
+	// MARK slots
+
+	/**
+	 * Finds the slot a password can decrypt.
+	 * @param slots the key slots
+	 * @param passwordCipher the cipher with the key of the password and the nonce of the file
+	 * @param contentKey the array to decrypt the content key into, {@link #KEY_BYTES} bytes
+	 * @return the number of the slot, -1 if there is none
+	 */
+	static int find(byte[] slots, FHChunkCipher passwordCipher, byte[] contentKey) {
+		byte[] plainText = new byte[SLOT_BYTES];
+		for(int slot = 0; slot < SLOTS; slot++) {
+			if(!used(slots, slot)) continue;
+			try {
+				passwordCipher.crypt(OperationMode.DECRYPT_MODE, SLOT_INDEX + slot, false, slots, slot * SLOT_BYTES, SLOT_BYTES, plainText, 0);
+				System.arraycopy(plainText, 0, contentKey, 0, KEY_BYTES);
+				Arrays.fill(plainText, (byte) 0);
+				return slot;
+			} catch (GeneralSecurityException e) {
+				// another password
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Encrypts the content key into a slot.
+	 * @param slots the key slots
+	 * @param slot the number of the slot
+	 * @param passwordCipher the cipher with the key of the password and the nonce of the file
+	 * @param contentKey the content key
+	 * @throws GeneralSecurityException if the content key can not be encrypted
+	 */
+	static void put(byte[] slots, int slot, FHChunkCipher passwordCipher, byte[] contentKey) throws GeneralSecurityException {
+		passwordCipher.crypt(OperationMode.ENCRYPT_MODE, SLOT_INDEX + slot, false, contentKey, 0, KEY_BYTES, slots, slot * SLOT_BYTES);
+	}
+
+	/**
+	 * Clears a slot.
+	 * @param slots the key slots
+	 * @param slot the number of the slot
+	 */
+	static void clear(byte[] slots, int slot) {
+		Arrays.fill(slots, slot * SLOT_BYTES, (slot + 1) * SLOT_BYTES, (byte) 0);
+	}
+
+	/**
+	 * Weather a slot is used.
+	 * @param slots the key slots
+	 * @param slot the number of the slot
+	 * @return true if the slot holds a content key
+	 */
+	static boolean used(byte[] slots, int slot) {
+		for(int i = slot * SLOT_BYTES; i < (slot + 1) * SLOT_BYTES; i++)
+			if(slots[i] != 0) return true;
+		return false;
+	}
+
+	/**
+	 * Finds an unused slot.
+	 * @param slots the key slots
+	 * @return the number of the first unused slot, -1 if all are used
+	 */
+	static int free(byte[] slots) {
+		for(int slot = 0; slot < SLOTS; slot++)
+			if(!used(slots, slot)) return slot;
+		return -1;
+	}
+
+	/**
+	 * The number of used slots.
+	 * @param slots the key slots
+	 * @return the number of passwords of the file
+	 */
+	static int count(byte[] slots) {
+		int count = 0;
+		for(int slot = 0; slot < SLOTS; slot++)
+			if(used(slots, slot)) count++;
+		return count;
+	}
+
+	/**
+	 * The offset of a slot from the starting magic number.
+	 * @param slot the number of the slot
+	 * @return the offset
+	 */
+	static int offset(int slot) {
+		return FHFile.FH_HEAD_LENGTH() - FHFile.FH_CRYPT.length + slot * SLOT_BYTES;
+	}
+}
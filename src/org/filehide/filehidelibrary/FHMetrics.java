@@ -0,0 +1,103 @@
+package org.filehide.filehidelibrary;
+
+import java.util.Objects;
+
+/**
+ * Listener for the work done by FileHide, to find out where the time goes.
+ * <p>
+ * The installed metrics are called on the hot paths of reading, writing, de- and encrypting and opening FHFiles, possibly from many threads at once,
+ * so implementations have to be thread safe and should return quickly. All methods do nothing by default.
+ * As long as {@link #NONE} is installed no times are taken at all.
+ * @author alex1s
+ */
+public interface FHMetrics {
+
+	/**
+	 * The operations whose latency is reported.
+	 * @author alex1s
+	 */
+	enum Operation {
+		/**
+		 * Hiding data inside of a file, including archives and compressed data.
+		 */
+		HIDE,
+		/**
+		 * Extracting the hidden data of a FHFile to a file.
+		 */
+		EXTRACT,
+		/**
+		 * Opening a FHFile, which reads its header.
+		 */
+		OPEN,
+		/**
+		 * Checking the password of a FHFile.
+		 */
+		CHECK_PASSWORD,
+		/**
+		 * Checking the hidden data of a FHFile against its checksums.
+		 */
+		VERIFY,
+		/**
+		 * Searching a FHFile whose end has been damaged for its hidden data.
+		 */
+		RECOVER
+	}
+
+	/**
+	 * Metrics that do nothing, installed by default.
+	 */
+	FHMetrics NONE = new FHMetrics() {};
+
+	/**
+	 * Called after bytes have been read from a file.
+	 * @param bytes the number of bytes
+	 */
+	default void bytesRead(long bytes) {}
+
+	/**
+	 * Called after bytes have been written to a file.
+	 * @param bytes the number of bytes
+	 */
+	default void bytesWritten(long bytes) {}
+
+	/**
+	 * Called after bytes have been de- or encrypted.
+	 * @param bytes the number of input bytes of the cipher
+	 */
+	default void cipherBytes(long bytes) {}
+
+	/**
+	 * Called after the header of a file has been read, whether it is a FHFile or not.
+	 * @param nanos the time it took in nanoseconds
+	 */
+	default void headerParsed(long nanos) {}
+
+	/**
+	 * Called after the key material of a password has been derived, which does not happen if it is found in the {@link FHKeyCache}.
+	 * @param nanos the time it took in nanoseconds
+	 */
+	default void keyDerived(long nanos) {}
+
+	/**
+	 * Called after an operation has finished, whether it succeeded or not.
+	 * @param operation the operation
+	 * @param nanos the time it took in nanoseconds
+	 */
+	default void operation(Operation operation, long nanos) {}
+
+	/**
+	 * Installs the metrics that are called by all FHFiles from now on.
+	 * @param metrics the metrics, {@link #NONE} to disable them
+	 */
+	static void install(FHMetrics metrics) {
+		FHInstrumentation.metrics = Objects.requireNonNull(metrics);
+	}
+
+	/**
+	 * The metrics that are installed.
+	 * @return the metrics, {@link #NONE} if they are disabled
+	 */
+	static FHMetrics installed() {
+		return FHInstrumentation.metrics;
+	}
+}
@@ -1,41 +1,110 @@
 package org.filehide.filehidelibrary;
 
-import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FilterOutputStream;
 import java.io.IOException;
-
-import javax.crypto.CipherOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import org.filehide.filehidelibrary.FHCipher.OperationMode;
 /**
  * OutputStream to write the hidden data in of a file.
+ * <p>
+ * Everything is written through a single FileChannel with explicit positions, starting at the end of the original file.
+ * Unencrypted hidden data is collected in a direct buffer. Encrypted hidden data is collected in batches of chunks in a direct buffer,
+ * which are encrypted in parallel into another direct buffer and written in order.
+ * Compressed hidden data is collected the same way, every chunk of a batch is compressed and then encrypted as a frame in parallel, see {@link FHCompression}.
+ * The buffers are borrowed from the {@link FHBufferPool} and given back when the stream is closed.
  * @author alex1s
  *
  */
-class FHOutputStream extends FilterOutputStream {
+class FHOutputStream extends OutputStream {
 	/**
 	 * The file where the hidden data will be written to.
 	 */
-	private File file;
+	private final File file;
+	/**
+	 * The channel of the file.
+	 */
+	private final FileChannel channel;
 	/**
-	 * The cipher that which the hidden data will be encrypted with.
+	 * Weather the channel has been opened by this stream and should be closed with it.
 	 */
-	private FHCipher cipher;
+	private final boolean ownsChannel;
+	/**
+	 * The cipher that which the hidden data will be encrypted with, null if the hidden data should not be encrypted.
+	 */
+	private final FHChunkCipher cipher;
 	/**
 	 * The original length of data before the hidden data has been added to it.
 	 */
-	private long originalFileLength;
-	
+	private final long originalFileLength;
+	/**
+	 * The position in the file to write the next bytes at.
+	 */
+	private long position;
+
+	/**
+	 * The number of bytes of hidden data in each chunk.
+	 */
+	private final int chunkSize = FHChunkCipher.DEFAULT_CHUNK_SIZE;
+	/**
+	 * The index of the first chunk in the batch.
+	 */
+	private long chunkIndex = 0;
+	/**
+	 * The hidden data that has not been written yet, for encrypted hidden data the batch that has not been encrypted yet.
+	 */
+	private final ByteBuffer plainText;
+	/**
+	 * The encrypted or compressed batch, null if the hidden data should neither be encrypted nor compressed.
+	 */
+	private final ByteBuffer cipherText;
+
+	/**
+	 * The compression level, {@link FHCompression#NONE} if the hidden data should not be compressed.
+	 */
+	private final int level;
+	/**
+	 * The compressed chunks of the batch before they are encrypted, null if the hidden data should not be compressed.
+	 */
+	private final ByteBuffer packed;
+	/**
+	 * The lengths of the frames written so far, as written to the frame table.
+	 */
+	private int[] frameLengths = new int[0];
+	/**
+	 * The number of bytes of hidden data written so far.
+	 */
+	private long size = 0;
+	/**
+	 * The index of the first chunk that will be tried to be compressed again.
+	 */
+	private long skipUntil = 0;
+	/**
+	 * The number of chunks that have been stored raw without trying to compress them the last time a batch could not be compressed.
+	 */
+	private int skipped = 0;
+
+	/**
+	 * Weather the hidden data is forced to the storage device before the end is written, and the end after it.
+	 */
+	private boolean sync = false;
+
 	/**
-	 * Weather the next written data should be encrypted or not.
+	 * Weather the stream has been closed.
 	 */
-	private boolean encrypt = false;
-	
+	private boolean closed = false;
+
 	//# MARK - constructors
-	
+
 	/**
 	 * Constructor for an unencrpyted output stream.
 	 * @param file the file to write the hidden data to
@@ -44,7 +113,7 @@ class FHOutputStream extends FilterOutputStream {
 	FHOutputStream(File file) throws IOException {
 		this(file, null, false);
 	}
-	
+
 	/**
 	 * Constructor for an encrypted output stream using a String as password.
 	 * @param file file the file to write the hidden data to
@@ -54,7 +123,7 @@ class FHOutputStream extends FilterOutputStream {
 	FHOutputStream(File file, String password) throws IOException {
 		this(file, password.getBytes(FHCipher.CHARSET));
 	}
-	
+
 	/**
 	 * Constructor for an encrypted output stream using raw bytes as password.
 	 * @param file file the file to write the hidden data to
@@ -62,81 +131,314 @@ class FHOutputStream extends FilterOutputStream {
 	 * @throws IOException if an I/O error occurs
 	 */
 	FHOutputStream(File file, byte[] password) throws IOException {
-		this(file, new FHCipher(OperationMode.ENCRYPT_MODE, password), false);
+		this(file, password, false);
 	}
-	
+
 	/**
-	 * The private main constructor that is beeing by the public ones.
+	 * The private constructor that is beeing used by the ones taking a file.
 	 * @param file the file to write the hidden data to
-	 * @param cipher the cipher used to decrypt with hidden data
+	 * @param password the password to encrypt the hidden data with, null if it should not be encrypted
 	 * @param dummy	is just there to avoid it ambiguosity: {@code this(x, null)}
 	 * @throws IOException if an I/O error occurs
 	 */
-	private FHOutputStream(File file, FHCipher cipher, boolean dummy) throws IOException {
-		super(new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true))));
-		this.file = file;
-		this.cipher = cipher;
-		this.originalFileLength = file.length();
-		
-		writeFHHead();
-		
-		writeEncrypted(true);
+	private FHOutputStream(File file, byte[] password, boolean dummy) throws IOException {
+		this(file, FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE), true, password, FHCompression.NONE);
 	}
-	
 
-	
-	
-	@Override // writes the end of the FHFile and then closes the stream
-	public void close() throws IOException {
-		writeFHEnd();
-		super.close();
-	}
-	
 	/**
-	 * Writes the head of the FHFile, takes all needed information from {@code this.file}.
+	 * Constructor for an output stream writing to a channel that is already open.
+	 * <p>
+	 * The hidden data is added at the end of the channel, which is left open when the stream is closed.
+	 * @param file the file of the channel
+	 * @param channel the channel of the file
+	 * @param password the password to encrypt the hidden data with, null if it should not be encrypted
 	 * @throws IOException if an I/O error occurs
 	 */
-	private void writeFHHead() throws IOException {
-		out.write(FHFile.FH_START);
-		((DataOutputStream) out).writeInt(FHFile.CURRENT_FILE_VERSION);
-		
-		writeEncrypted(true);
-		out.write(FHFile.FH_CRYPT);
-		writeEncrypted(false); // need to stop here so that padding will be written so that it can be read on its own later
+	FHOutputStream(File file, FileChannel channel, byte[] password) throws IOException {
+		this(file, channel, false, password, FHCompression.NONE);
 	}
-	
+
 	/**
-	 * Writes the end of the FHFile, takes all needed information from {@code this.file}.
+	 * Constructor for an output stream compressing the hidden data and writing it to a channel that is already open.
+	 * <p>
+	 * The hidden data is added at the end of the channel, which is left open when the stream is closed.
+	 * @param file the file of the channel
+	 * @param channel the channel of the file
+	 * @param password the password to encrypt the hidden data with, null if it should not be encrypted
+	 * @param level the compression level, {@link FHCompression#NONE} if the hidden data should not be compressed
 	 * @throws IOException if an I/O error occurs
 	 */
-	 private void writeFHEnd() throws IOException {
-		 writeEncrypted(false);
-		 
-		 ((DataOutputStream) out).writeLong(originalFileLength);
-		 out.write(FHFile.FH_END);
-	 }
-	 
-	 /**
-	  * Dis- or enable encrypted writing.
-	  * @param encrypt weather to encrypt or not
+	FHOutputStream(File file, FileChannel channel, byte[] password, int level) throws IOException {
+		this(file, channel, false, password, level);
+	}
+
+	/**
+	 * The main constructor.
+	 * @param file the file of the channel
+	 * @param channel the channel of the file
+	 * @param ownsChannel weather the channel should be closed with the stream
+	 * @param password the password to encrypt the hidden data with, null if it should not be encrypted
+	 * @param level the compression level, {@link FHCompression#NONE} if the hidden data should not be compressed
 	 * @throws IOException if an I/O error occurs
-	  */
-	 private void writeEncrypted(boolean encrypt) throws IOException {
-			if(encrypt) {
-				if(this.cipher == null) return; // return as there is no cipher eg. it is not wished that the data should get encrypted
-				if(this.encrypt) return; // return if already writing encrypted
-				
-				this.out.flush();
-				this.out.close();
-				this.out = new DataOutputStream(new CipherOutputStream(new BufferedOutputStream(new FileOutputStream(this.file, true)), this.cipher.getCipher()));
-				this.encrypt = true;
+	 */
+	private FHOutputStream(File file, FileChannel channel, boolean ownsChannel, byte[] password, int level) throws IOException {
+		this.file = file;
+		this.channel = channel;
+		this.ownsChannel = ownsChannel;
+		this.level = level;
+		ByteBuffer plainText = null;
+		ByteBuffer cipherText = null;
+		ByteBuffer packed = null;
+		boolean created = false;
+		try {
+			this.originalFileLength = channel.size();
+			this.position = this.originalFileLength;
+
+			byte[] nonce = new byte[FHChunkCipher.NONCE_BYTES];
+			byte[] cryptoBytes = FHFile.FH_CRYPT;
+			if(password != null) {
+				nonce = FHChunkCipher.newNonce();
+				cryptoBytes = new byte[FHKeySlots.LENGTH];
+				this.cipher = FHKeySlots.create(password, nonce, this.chunkSize, cryptoBytes);
+			} else {
+				this.cipher = null;
+			}
+
+			if(password != null || level != FHCompression.NONE) {
+				int chunks = Math.max(1, FHChunkCipher.POOL.getParallelism());
+				plainText = FHBufferPool.borrow(chunks * this.chunkSize);
+				cipherText = FHBufferPool.borrow(chunks * (this.chunkSize + FHChunkCipher.TAG_BYTES));
 			} else {
-				if(!this.encrypt) return; // return if already not writing encrypted
-				
-				this.out.flush();
-				this.out.close();
-				this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file, true)));
-				this.encrypt = false;
+				plainText = FHBufferPool.borrow(FHChannels.TRANSFER_BUFFER_SIZE);
 			}
-	 }
-}
\ No newline at end of file
+			packed = level == FHCompression.NONE ? null : FHBufferPool.borrow(plainText.capacity());
+
+			int flags = (level == FHCompression.NONE ? 0 : FHFile.FLAG_COMPRESSED) | (password == null ? 0 : FHFile.FLAG_KEY_SLOTS);
+			this.position += FHChannels.writeFully(channel, FHFile.FHHead(flags, this.chunkSize, nonce, cryptoBytes), this.position);
+			created = true;
+		} catch (IOException | GeneralSecurityException | RuntimeException e) {
+			throw e instanceof IOException ? (IOException) e : new IOException(e);
+		} finally {
+			// the buffers of a stream that could not be created are given back, as it is never closed
+			if(!created) {
+				FHBufferPool.giveBack(plainText);
+				FHBufferPool.giveBack(cipherText);
+				FHBufferPool.giveBack(packed);
+				if(ownsChannel) channel.close();
+			}
+		}
+		this.plainText = plainText;
+		this.cipherText = cipherText;
+		this.packed = packed;
+	}
+
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		if(!this.plainText.hasRemaining()) drain(false);
+		this.plainText.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if((off | len | (b.length - (off + len))) < 0) throw new IndexOutOfBoundsException();
+
+		while(len > 0) {
+			// a full batch is only written once more data follows, as the last chunk has to be marked
+			if(!this.plainText.hasRemaining()) drain(false);
+			int n = Math.min(len, this.plainText.remaining());
+			this.plainText.put(b, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Writes all remaining bytes of a channel, read directly into the buffer of the stream.
+	 * @param source the channel to read from, read until its end
+	 * @return the number of bytes written
+	 * @throws IOException if an I/O error occurs
+	 */
+	long transferFrom(ReadableByteChannel source) throws IOException {
+		ensureOpen();
+		long transferred = 0;
+		while(true) {
+			if(!this.plainText.hasRemaining()) drain(false);
+			int n = source.read(this.plainText);
+			if(n < 0) return transferred;
+			FHInstrumentation.read(n);
+			transferred += n;
+		}
+	}
+
+	@Override // writes the collected unencrypted hidden data, encrypted hidden data is written in whole chunks only
+	public void flush() throws IOException {
+		ensureOpen();
+		if(this.cipher == null && this.level == FHCompression.NONE) drain(false);
+	}
+
+	@Override // writes the end of the FHFile and then closes the stream
+	public void close() throws IOException {
+		if(this.closed) return;
+		this.closed = true;
+
+		try {
+			drain(true);
+			if(this.level != FHCompression.NONE) writeFrameTable();
+			if(this.sync) this.channel.force(false);
+			writeFHEnd();
+			if(this.sync) this.channel.force(true);
+		} finally {
+			FHBufferPool.giveBack(this.plainText);
+			FHBufferPool.giveBack(this.cipherText);
+			FHBufferPool.giveBack(this.packed);
+			if(this.ownsChannel) this.channel.close();
+		}
+	}
+
+	/**
+	 * Makes the stream force the hidden data to the storage device before it writes the end on close, and the end after it.
+	 * <p>
+	 * The file then only ends like a FHFile once all of its hidden data has been stored, even if the system crashes while it is written.
+	 * @param sync weather to force the hidden data and the end to the storage device
+	 */
+	void sync(boolean sync) {
+		this.sync = sync;
+	}
+
+	/**
+	 * Writes the frame table of compressed hidden data and its length.
+	 * @throws IOException if an I/O error occurs or the frame table can not be encrypted
+	 */
+	private void writeFrameTable() throws IOException {
+		ByteBuffer table = FHCompression.Frames.write(this.size, this.frameLengths, (int) this.chunkIndex);
+		if(this.cipher != null) {
+			ByteBuffer encrypted = ByteBuffer.allocate(table.remaining() + FHChunkCipher.TAG_BYTES);
+			try {
+				this.cipher.crypt(OperationMode.ENCRYPT_MODE, FHChunkCipher.TOC_INDEX, true, table, encrypted);
+			} catch (GeneralSecurityException e) {
+				throw new IOException(e);
+			}
+			encrypted.flip();
+			table = encrypted;
+		}
+		long tableLength = table.remaining();
+		this.position += FHChannels.writeFully(this.channel, table, this.position);
+		this.position += FHChannels.writeFully(this.channel, ByteBuffer.allocate(Long.BYTES).putLong(0, tableLength), this.position);
+	}
+
+	/**
+	 * Writes the end of the FHFile.
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void writeFHEnd() throws IOException {
+		this.position += FHChannels.writeFully(this.channel, FHFile.FHEnd(this.originalFileLength), this.position);
+	}
+
+	/**
+	 * Writes the collected hidden data, encrypting its chunks in parallel first if the hidden data is encrypted.
+	 * @param last weather the collected data contains the last chunk
+	 * @throws IOException if an I/O error occurs or the chunks can not be encrypted
+	 */
+	private void drain(boolean last) throws IOException {
+		this.plainText.flip();
+		if(this.level != FHCompression.NONE) {
+			drainFrames();
+			return;
+		}
+		if(this.cipher == null) {
+			this.position += FHChannels.writeFully(this.channel, this.plainText, this.position);
+			this.plainText.clear();
+			return;
+		}
+
+		int chunks = Math.max(1, (this.plainText.remaining() + this.chunkSize - 1) / this.chunkSize);
+		if(this.chunkIndex + chunks > FHChunkCipher.MAX_CHUNKS) throw new IOException("Too much data to hide in " + this.file);
+
+		this.cipherText.clear();
+		try {
+			this.cipher.crypt(OperationMode.ENCRYPT_MODE, this.chunkIndex, this.plainText, last, this.cipherText);
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e);
+		}
+		this.cipherText.flip();
+		this.position += FHChannels.writeFully(this.channel, this.cipherText, this.position);
+		this.chunkIndex += chunks;
+		this.plainText.clear();
+	}
+
+	/**
+	 * Compresses the chunks of the collected hidden data in parallel, encrypts them if the hidden data is encrypted and writes them as frames.
+	 * <p>
+	 * Once a batch could not be compressed at all, the following chunks are stored raw without trying to compress them,
+	 * for twice as many chunks every time up to {@link FHCompression#MAX_SKIPPED_CHUNKS}, so incompressible data costs little time.
+	 * @throws IOException if an I/O error occurs or the chunks can not be encrypted
+	 */
+	private void drainFrames() throws IOException {
+		int length = this.plainText.remaining();
+		// only empty hidden data has an empty frame
+		if(length == 0 && this.chunkIndex > 0) return;
+		int chunks = Math.max(1, (length + this.chunkSize - 1) / this.chunkSize);
+		if(this.chunkIndex + chunks > Integer.MAX_VALUE) throw new IOException("Too much data to hide in " + this.file);
+		int frame = (int) this.chunkIndex;
+		if(this.frameLengths.length < frame + chunks) this.frameLengths = Arrays.copyOf(this.frameLengths, Math.max(frame + chunks, 2 * this.frameLengths.length));
+
+		final int[] storedLengths = new int[chunks];
+		final boolean[] deflated = new boolean[chunks];
+		final boolean compress = this.chunkIndex >= this.skipUntil;
+		int frameSize = this.chunkSize + FHChunkCipher.TAG_BYTES;
+		List<Callable<Integer>> tasks = new ArrayList<>(chunks);
+		for(int i = 0; i < chunks; i++) {
+			final int chunk = i;
+			final ByteBuffer src = this.plainText.duplicate();
+			src.position(chunk * this.chunkSize).limit(Math.min(length, (chunk + 1) * this.chunkSize));
+			final ByteBuffer packed = this.packed.duplicate();
+			packed.position(chunk * this.chunkSize);
+			final ByteBuffer dst = this.cipherText.duplicate();
+			dst.position(chunk * frameSize);
+			tasks.add(() -> {
+				int n = compress ? FHCompression.deflate(this.level, src, packed) : -1;
+				ByteBuffer record = src;
+				if(n >= 0) {
+					record = packed;
+					record.limit(record.position() + n);
+				}
+				int stored = record.remaining();
+				if(this.cipher != null) stored = this.cipher.crypt(OperationMode.ENCRYPT_MODE, frame + chunk, false, record, dst);
+				else dst.put(record);
+				storedLengths[chunk] = stored;
+				deflated[chunk] = n >= 0;
+				return n >= 0 ? 1 : 0;
+			});
+		}
+		int compressed = FHCompression.invokeAll(tasks);
+
+		// the frames are written in order, each from the start of its part of the buffer
+		for(int i = 0; i < chunks; i++) {
+			ByteBuffer stored = this.cipherText.duplicate();
+			stored.position(i * frameSize).limit(i * frameSize + storedLengths[i]);
+			this.position += FHChannels.writeFully(this.channel, stored, this.position);
+			this.frameLengths[frame + i] = FHCompression.Frames.encode(storedLengths[i], deflated[i]);
+		}
+
+		if(compress && compressed == 0) {
+			this.skipped = Math.min(FHCompression.MAX_SKIPPED_CHUNKS, Math.max(chunks, 2 * this.skipped));
+			this.skipUntil = this.chunkIndex + chunks + this.skipped;
+		} else if(compressed > 0) {
+			this.skipped = 0;
+		}
+		this.size += length;
+		this.chunkIndex += chunks;
+		this.plainText.clear();
+	}
+
+	/**
+	 * Checks wheather this stream is still open.
+	 * @throws IOException if the stream has been closed
+	 */
+	private void ensureOpen() throws IOException {
+		if(this.closed) throw new IOException("Stream closed");
+	}
+}
@@ -0,0 +1,205 @@
+package org.filehide.filehidelibrary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publisher of the hidden data of a FHFile, in buffers of up to {@link #BUFFER_SIZE} bytes.
+ * <p>
+ * Every subscription opens its own channel over the hidden data (see {@link FHChannel}), which decrypts it where needed.
+ * A buffer is only read once the subscriber has requested it, so a slow subscriber holds back the reading instead of buffers piling up.
+ * The buffer passed to {@link Flow.Subscriber#onNext(Object)} is only valid until that call returns, afterwards it is reused for the next bytes
+ * and given back to the {@link FHBufferPool} when the subscription ends, so subscribers that keep the bytes have to copy them.
+ * All signals to a subscriber are sent from the executor of the publisher, one after the other.
+ * @author alex1s
+ */
+final class FHPublisher implements Flow.Publisher<ByteBuffer> {
+
+	/**
+	 * The number of bytes of hidden data in each buffer, except for the last one.
+	 */
+	static final int BUFFER_SIZE = FHChannel.WINDOW_SIZE;
+
+	/**
+	 * Opens a channel over the hidden data.
+	 */
+	private final Callable<SeekableByteChannel> opener;
+	/**
+	 * The executor the channels are read and the subscribers are signaled on.
+	 */
+	private final Executor executor;
+
+	/**
+	 * Constructor for a FHPublisher.
+	 * @param opener opens a channel over the hidden data, called once for every subscription
+	 * @param executor the executor the channels are read and the subscribers are signaled on
+	 */
+	FHPublisher(Callable<SeekableByteChannel> opener, Executor executor) {
+		this.opener = opener;
+		this.executor = executor;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+		Objects.requireNonNull(subscriber);
+		Subscription subscription = new Subscription(subscriber);
+		subscriber.onSubscribe(subscription);
+	}
+
+	// MARK subscription
+
+	/**
+	 * A subscription that reads a buffer of hidden data for each requested item.
+	 * <p>
+	 * Requests and cancellations only schedule a drain on the executor, only one drain runs at a time.
+	 * @author alex1s
+	 */
+	private final class Subscription implements Flow.Subscription {
+
+		/**
+		 * the subscriber
+		 */
+		private final Flow.Subscriber<? super ByteBuffer> subscriber;
+		/**
+		 * the number of requested items that have not been sent
+		 */
+		private final AtomicLong demand = new AtomicLong();
+		/**
+		 * the number of times a drain has been scheduled since the running drain has started
+		 */
+		private final AtomicInteger pending = new AtomicInteger();
+		/**
+		 * weather the subscription has been cancelled
+		 */
+		private volatile boolean cancelled = false;
+		/**
+		 * the error of an invalid request, sent by the next drain
+		 */
+		private volatile Throwable invalidRequest = null;
+		/**
+		 * weather the subscriber has been completed or failed, only used by the drains
+		 */
+		private boolean done = false;
+		/**
+		 * the channel over the hidden data, opened by the first drain that has demand
+		 */
+		private SeekableByteChannel channel = null;
+		/**
+		 * the buffer the hidden data is read into
+		 */
+		private ByteBuffer buffer = null;
+
+		/**
+		 * Constructor for a subscription.
+		 * @param subscriber the subscriber
+		 */
+		Subscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+			if(n <= 0) this.invalidRequest = new IllegalArgumentException("non-positive request: " + n);
+			else this.demand.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			this.cancelled = true;
+			schedule();
+		}
+
+		/**
+		 * Runs a drain on the executor, unless one is running already which then runs again.
+		 */
+		private void schedule() {
+			if(this.pending.getAndIncrement() == 0) FHPublisher.this.executor.execute(this::drain);
+		}
+
+		/**
+		 * Sends as many buffers as have been requested, and completes the subscriber right after the last one.
+		 */
+		private void drain() {
+			int missed = 1;
+			do {
+				while(!this.done) {
+					if(this.cancelled) {
+						close();
+						break;
+					}
+					if(this.invalidRequest != null) {
+						close();
+						this.subscriber.onError(this.invalidRequest);
+						break;
+					}
+					if(this.demand.get() == 0) break;
+
+					boolean end = false;
+					try {
+						if(this.channel == null) {
+							this.channel = FHPublisher.this.opener.call();
+							this.buffer = FHBufferPool.borrow(BUFFER_SIZE);
+						}
+						this.buffer.clear();
+						while(this.buffer.hasRemaining() && !end)
+							end = this.channel.read(this.buffer) < 0;
+						// a buffer that has been filled up to the end of the hidden data is the last one as well
+						end |= this.channel.position() >= this.channel.size();
+						this.buffer.flip();
+					} catch (Exception e) {
+						close();
+						this.subscriber.onError(e);
+						break;
+					}
+
+					if(!this.buffer.hasRemaining()) {
+						close();
+						this.subscriber.onComplete();
+						break;
+					}
+					this.demand.decrementAndGet();
+					try {
+						this.subscriber.onNext(this.buffer);
+					} catch (RuntimeException e) {
+						// a subscriber that throws is treated as cancelled
+						close();
+						break;
+					}
+					// the subscriber is completed right after the last buffer, without waiting for it to request more
+					if(end && !this.cancelled) {
+						close();
+						this.subscriber.onComplete();
+					}
+				}
+				missed = this.pending.addAndGet(-missed);
+			} while(missed != 0);
+		}
+
+		/**
+		 * Ends the subscription, closes the channel and returns the buffer to the pool.
+		 */
+		private void close() {
+			this.done = true;
+			if(this.buffer != null) {
+				FHBufferPool.giveBack(this.buffer);
+				this.buffer = null;
+			}
+			if(this.channel != null) {
+				try {
+					this.channel.close();
+				} catch (IOException e) {
+					// nothing has been written
+				}
+				this.channel = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,273 @@
+package org.filehide.filehidelibrary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.filehide.filehidelibrary.FHCipher.OperationMode;
+
+/**
+ * Recovery of the hidden data of FHFiles whose end has been damaged or cut off, see {@link FHFile#recover(Path, String)}.
+ * <p>
+ * The file is mapped into memory in windows, which are searched in parallel on the {@link FHChunkCipher#POOL} for the starting magic number
+ * with the Boyer-Moore-Horspool algorithm. Every head found is checked like the head of a FHFile that is opened,
+ * the end of its hidden data is inferred from the bytes left of the end of the file.
+ * @author alex1s
+ */
+final class FHRecovery {
+
+	/**
+	 * The number of bytes of the file searched by a task.
+	 */
+	private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+	/**
+	 * How far the search may skip ahead after a byte of the file, by the value of the byte.
+	 */
+	private static final int[] SHIFT = new int[256];
+
+	static {
+		Arrays.fill(SHIFT, FHFile.FH_START.length);
+		for(int i = 0; i < FHFile.FH_START.length - 1; i++)
+			SHIFT[FHFile.FH_START[i] & 0xFF] = FHFile.FH_START.length - 1 - i;
+	}
+
+	/**
+	 * Not instantiable.
+	 */
+	private FHRecovery() {}
+
+	// MARK recovery
+
+	/**
+	 * Searches a file for the heads of FHFiles and infers the end of their hidden data.
+	 * <p>
+	 * The header of a FHFile whose end is intact is returned as read. A head whose end can not be told apart from its hidden data yields a header for every length
+	 * the hidden data can have, longest first. If a password is given, only the lengths of encrypted hidden data whose last chunk or block can be decrypted are kept.
+	 * @param channel a channel of the file
+	 * @param path the path of the file
+	 * @param password the password to check the lengths of encrypted hidden data with, null to keep all of them
+	 * @return the headers of the FHFiles found, in the order of their heads
+	 * @throws IOException if an I/O error occurs
+	 */
+	static List<FHHeader> recover(FileChannel channel, Path path, byte[] password) throws IOException {
+		long size = channel.size();
+		FHHeader intact = FHHeader.read(channel, path);
+		List<FHHeader> headers = new ArrayList<>();
+		for(long offset : find(channel, size)) {
+			if(intact.status() == FHHeader.Status.FH_FILE && intact.originalFileLength() == offset) {
+				headers.add(intact);
+				continue;
+			}
+			headers.addAll(candidates(channel, path, size, offset, password));
+		}
+		return headers;
+	}
+
+	/**
+	 * Checks the head at an offset and infers the end of its hidden data.
+	 * @param channel a channel of the file
+	 * @param path the path of the file
+	 * @param size the length of the file
+	 * @param offset the offset of the starting magic number
+	 * @param password the password to check the lengths of encrypted hidden data with, null to keep all of them
+	 * @return the headers for the lengths the hidden data can have, longest first, empty if the head is invalid or its hidden data can not be recovered
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static List<FHHeader> candidates(FileChannel channel, Path path, long size, long offset, byte[] password) throws IOException {
+		List<FHHeader> headers = new ArrayList<>();
+		if(size - offset < FHFile.FH_START.length + Integer.BYTES) return headers;
+		ByteBuffer head = ByteBuffer.allocate((int) Math.min(FHHeader.MAX_HEAD_LENGTH, size - offset));
+		FHChannels.readFully(channel, head, offset);
+		FHHeader header = FHHeader.parseHead(path, size, offset, head, head.capacity());
+		// the tables of archives, compressed files and segmented files are lost with the end
+		if(header.status() != FHHeader.Status.FH_FILE || (header.flags() & (FHFile.FLAG_ARCHIVE | FHFile.FLAG_COMPRESSED | FHFile.FLAG_SEGMENTED)) != 0)
+			return headers;
+
+		for(long hiddenDataLength : hiddenDataLengths(channel, header))
+			// the checksum table can not be trusted without the end, so the recovered file has none
+			headers.add(new FHHeader(path, size, offset, header.version(), header.flags() & ~FHFile.FLAG_CHECKSUMS, header.chunkSize(), header.nonce(),
+					header.cryptoBytes(), header.offsetStart(), header.offsetStart() + hiddenDataLength, 0, head.capacity()));
+		if(password != null && header.encrypted() && !headers.isEmpty()) headers = decryptable(channel, headers, password);
+		return headers;
+	}
+
+	/**
+	 * Infers the lengths the hidden data can have from the bytes after the head.
+	 * <p>
+	 * The bytes left of the end of the file, the lengths of the checksum table and the original file length followed by the ending magic number, are cut off
+	 * as long as they match the end the hidden data would have. The hidden data may as well reach up to the end of the file or of the checksum table,
+	 * cut to the last length it can have, as nothing of the end may be left.
+	 * <p>
+	 * Only if all of the lengths are left the end is told apart from the hidden data. Otherwise the bytes that match may belong to the hidden data,
+	 * e.g. as the leading bytes of the lengths are zeros, so every length found is returned.
+	 * @param channel a channel of the file
+	 * @param header the header without the end of the hidden data
+	 * @return the lengths of the hidden data, longest first, empty if there is none
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static long[] hiddenDataLengths(FileChannel channel, FHHeader header) throws IOException {
+		boolean checksums = (header.flags() & FHFile.FLAG_CHECKSUMS) != 0;
+		int blockSize = FHChecksums.blockSize(header.chunkSize(), header.encrypted());
+		long available = header.size() - header.offsetStart();
+		int endLength = (checksums ? Long.BYTES : 0) + FHFile.FH_END_LENGTH();
+		if(available <= 0) return new long[0];
+
+		// a padding block or a tag is at most 16 bytes long, so cutting off less than that finds the last possible length
+		long[] lengths = new long[0];
+		long longest = checksums ? FHChecksums.covered(available, blockSize) : available;
+		for(long hiddenDataLength = longest; hiddenDataLength > 0 && longest - hiddenDataLength < FHCipher.BYTES; hiddenDataLength--) {
+			if(FHHeader.hiddenDataLength(header.version(), header.chunkSize(), header.encrypted(), hiddenDataLength)) {
+				lengths = new long[] {hiddenDataLength};
+				break;
+			}
+		}
+
+		ByteBuffer tail = ByteBuffer.allocate((int) Math.min(available, endLength));
+		FHChannels.readFully(channel, tail, header.size() - tail.capacity());
+		for(int left = 1; left <= tail.capacity(); left++) {
+			long stored = available - left;
+			long hiddenDataLength = checksums ? FHChecksums.covered(stored, blockSize) : stored;
+			if(checksums && hiddenDataLength + FHChecksums.length(hiddenDataLength, blockSize) != stored) continue;
+			if(!FHHeader.hiddenDataLength(header.version(), header.chunkSize(), header.encrypted(), hiddenDataLength)) continue;
+
+			ByteBuffer end = ByteBuffer.allocate(endLength);
+			if(checksums) end.putLong(FHChecksums.length(hiddenDataLength, blockSize));
+			end.put(FHFile.FHEnd(header.originalFileLength()));
+			if(!Arrays.equals(end.array(), 0, left, tail.array(), tail.capacity() - left, tail.capacity())) continue;
+
+			if(left >= endLength - FHFile.FH_END.length) return new long[] {hiddenDataLength};
+			if(lengths.length == 0 || lengths[lengths.length - 1] != hiddenDataLength) {
+				lengths = Arrays.copyOf(lengths, lengths.length + 1);
+				lengths[lengths.length - 1] = hiddenDataLength;
+			}
+		}
+		return lengths;
+	}
+
+	/**
+	 * Keeps the headers of encrypted hidden data whose last chunk, or last block of version 0, can be decrypted with a password.
+	 * <p>
+	 * The last chunk is authenticated as such, so it only decrypts if the hidden data has the right length. The padding of the last block of version 0
+	 * is only checked, which may accept a wrong length by chance.
+	 * @param channel a channel of the file
+	 * @param headers the headers of the lengths of one head
+	 * @param password the password of the hidden data
+	 * @return the headers that can be decrypted, empty if the password is wrong
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static List<FHHeader> decryptable(FileChannel channel, List<FHHeader> headers, byte[] password) throws IOException {
+		List<FHHeader> decryptable = new ArrayList<>();
+		FHHeader first = headers.get(0);
+		if(first.version() < 1) {
+			for(FHHeader header : headers) {
+				try {
+					new FHChannel(new FHFile(header), new FHCipher(OperationMode.DECRYPT_MODE, password, false, true)).close();
+					decryptable.add(header);
+				} catch (IOException e) {
+					// the padding does not match
+				}
+			}
+			return decryptable;
+		}
+
+		FHChunkCipher cipher;
+		try {
+			cipher = FHKeySlots.cipher(password, first.nonce(), first.chunkSize(), first.flags(), first.cryptoBytes());
+		} catch (IOException e) {
+			return decryptable;
+		}
+		int storedChunk = first.chunkSize() + FHChunkCipher.TAG_BYTES;
+		ByteBuffer cipherText = FHBufferPool.borrow(storedChunk);
+		ByteBuffer plainText = FHBufferPool.borrow(first.chunkSize());
+		try {
+			for(FHHeader header : headers) {
+				long hiddenDataLength = header.offsetEnd() - header.offsetStart();
+				long index = (hiddenDataLength - 1) / storedChunk;
+				long position = header.offsetStart() + index * storedChunk;
+				cipherText.clear().limit((int) (header.offsetEnd() - position));
+				FHChannels.readFully(channel, cipherText, position);
+				cipherText.flip();
+				try {
+					cipher.crypt(OperationMode.DECRYPT_MODE, index, true, cipherText, plainText.clear());
+					decryptable.add(header);
+				} catch (GeneralSecurityException e) {
+					// the chunk is not the last one
+				}
+			}
+		} finally {
+			FHBufferPool.giveBack(cipherText);
+			FHBufferPool.giveBack(plainText);
+		}
+		return decryptable;
+	}
+
+	// MARK search
+
+	/**
+	 * Finds the offsets of the starting magic number in a file.
+	 * <p>
+	 * The windows overlap by one byte less than the magic number, so every occurrence is found in exactly one window.
+	 * They are searched in batches of as many windows as the pool has threads.
+	 * @param channel a channel of the file
+	 * @param size the length of the file
+	 * @return the offsets, in ascending order
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static long[] find(FileChannel channel, long size) throws IOException {
+		long windows = (size + WINDOW_SIZE - 1) / WINDOW_SIZE;
+		int batch = Math.max(1, FHChunkCipher.POOL.getParallelism());
+		long[] offsets = new long[0];
+		for(long window = 0; window < windows; window += batch) {
+			long[][] found = new long[(int) Math.min(batch, windows - window)][];
+			List<Callable<Integer>> tasks = new ArrayList<>();
+			for(int i = 0; i < found.length; i++) {
+				final int index = i;
+				final long position = (window + i) * WINDOW_SIZE;
+				final long length = Math.min(WINDOW_SIZE + FHFile.FH_START.length - 1, size - position);
+				tasks.add(() -> {
+					found[index] = search(channel.map(FileChannel.MapMode.READ_ONLY, position, length), position);
+					FHInstrumentation.read(length);
+					return found[index].length;
+				});
+			}
+			int count = FHCompression.invokeAll(tasks);
+
+			int n = offsets.length;
+			offsets = Arrays.copyOf(offsets, n + count);
+			for(long[] part : found) {
+				System.arraycopy(part, 0, offsets, n, part.length);
+				n += part.length;
+			}
+		}
+		return offsets;
+	}
+
+	/**
+	 * Searches a window of a file for the starting magic number.
+	 * @param window the mapped window
+	 * @param position the offset of the window in the file
+	 * @return the offsets in the file of the starting magic numbers found, in ascending order
+	 */
+	private static long[] search(MappedByteBuffer window, long position) {
+		byte[] pattern = FHFile.FH_START;
+		int last = pattern.length - 1;
+		long[] found = new long[0];
+		for(int i = 0; i + last < window.limit(); i += SHIFT[window.get(i + last) & 0xFF]) {
+			if(window.get(i + last) != pattern[last]) continue;
+			int j = 0;
+			while(j < last && window.get(i + j) == pattern[j]) j++;
+			if(j == last) {
+				found = Arrays.copyOf(found, found.length + 1);
+				found[found.length - 1] = position + i;
+			}
+		}
+		return found;
+	}
+}
@@ -0,0 +1,347 @@
+package org.filehide.filehidelibrary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index of the results of previous scans, so unchanged files do not have to be probed again.
+ * <p>
+ * Every probed file is recorded with its size and modification time, together with its header if it is a FHFile.
+ * A file is considered unchanged while both are the same, see {@link FHScanner#scan(Path, FHScanIndex, java.util.function.Consumer)}.
+ * The index is stored in a compact binary file:<br>
+ * 1. 4 bytes: magic number ({@code 0x46 0x48 0x49 0x58})<br>
+ * 2. 4 byte two´s-complement integer: the version of the index file<br>
+ * 3. 4 byte two´s-complement integer: the number of entries<br>
+ * 4. the entries, each: the length of the UTF-8 encoded path (4 bytes), the path, the size (8 bytes), the modification time in nanoseconds (8 bytes), the status (1 byte)
+ * and for FHFiles: the original file length (8 bytes), the version (4 bytes), the flags (4 bytes), the chunk size (4 bytes), the offsets of the start and the end of the hidden data (8 bytes each),
+ * the length of the table of contents (8 bytes),
+ * a byte telling whether a nonce (bit 0) and crypto bytes (bit 1) follow and these
+ * @author alex1s
+ */
+public class FHScanIndex {
+
+	/**
+	 * The magic number of an index file.
+	 */
+	private static final int MAGIC = 0x46484958;
+	/**
+	 * The version of the index file written by this version of FileHide.
+	 */
+	private static final int INDEX_VERSION = 2;
+	/**
+	 * The longest encoded path an entry of a valid index file can have, longer ones are taken as a corrupt index.
+	 */
+	private static final int MAX_PATH_LENGTH = 64 * 1024;
+
+	/**
+	 * The entries of the index by the absolute path of their file.
+	 */
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructs an empty index.
+	 */
+	public FHScanIndex() {}
+
+	// MARK persistence
+
+	/**
+	 * Loads an index from a file.
+	 * <p>
+	 * If the file does not exist, is not an index of a supported version or is corrupt, an empty index is returned, as every file will just be probed again.
+	 * @param file the index file
+	 * @return the index
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static FHScanIndex load(Path file) throws IOException {
+		FHScanIndex index = new FHScanIndex();
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if(in.readInt() != MAGIC || in.readInt() != INDEX_VERSION) return index;
+			int count = in.readInt();
+			for(int i = 0; i < count; i++) {
+				int length = in.readInt();
+				Entry entry = null;
+				byte[] path = null;
+				if(length >= 0 && length <= MAX_PATH_LENGTH) {
+					path = new byte[length];
+					in.readFully(path);
+					entry = Entry.read(in);
+				}
+				if(entry == null) {
+					index.entries.clear();
+					return index;
+				}
+				index.entries.put(new String(path, StandardCharsets.UTF_8), entry);
+			}
+		} catch (NoSuchFileException | EOFException e) {
+			// a missing or truncated index is rebuilt by the next scan
+			index.entries.clear();
+		}
+		return index;
+	}
+
+	/**
+	 * Saves this index to a file.
+	 * <p>
+	 * The index is written to a temporary file next to the given one first, which then replaces it.
+	 * @param file the index file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void save(Path file) throws IOException {
+		Path absolute = file.toAbsolutePath();
+		Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+		try {
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				// the map may change while saving, so the count is taken from a snapshot
+				Map<String, Entry> snapshot = Map.copyOf(this.entries);
+				out.writeInt(MAGIC);
+				out.writeInt(INDEX_VERSION);
+				out.writeInt(snapshot.size());
+				for(Map.Entry<String, Entry> entry : snapshot.entrySet()) {
+					byte[] path = entry.getKey().getBytes(StandardCharsets.UTF_8);
+					out.writeInt(path.length);
+					out.write(path);
+					entry.getValue().write(out);
+				}
+			}
+			Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * The number of files in this index.
+	 * @return the number of files
+	 */
+	public int size() {
+		return this.entries.size();
+	}
+
+	// MARK lookup
+
+	/**
+	 * Looks up the header of a file if it has not changed since it has been recorded.
+	 * @param file the file
+	 * @param attrs the current attributes of the file
+	 * @return the recorded header, null if the file is not in the index or has changed
+	 */
+	FHHeader lookup(Path file, BasicFileAttributes attrs) {
+		Entry entry = this.entries.get(key(file));
+		if(entry == null || entry.size != attrs.size() || entry.modified != modified(attrs)) return null;
+		return entry.header(file);
+	}
+
+	/**
+	 * Records the header of a file.
+	 * @param file the file
+	 * @param attrs the attributes of the file, read before the header
+	 * @param header the header read from the file
+	 */
+	void record(Path file, BasicFileAttributes attrs, FHHeader header) {
+		// a file that has changed between reading its attributes and its header is probed again next time
+		if(header.status() == FHHeader.Status.FH_FILE && header.size() != attrs.size()) {
+			this.entries.remove(key(file));
+			return;
+		}
+		this.entries.put(key(file), new Entry(attrs.size(), modified(attrs), header));
+	}
+
+	/**
+	 * Removes the files in a tree that have not been seen by a scan of it.
+	 * @param root the root of the tree
+	 * @param seen the absolute paths of the files seen
+	 */
+	void retain(Path root, Set<String> seen) {
+		Path absoluteRoot = root.toAbsolutePath().normalize();
+		this.entries.keySet().removeIf(key -> !seen.contains(key) && Path.of(key).startsWith(absoluteRoot));
+	}
+
+	/**
+	 * The key of a file in the index.
+	 * @param file the file
+	 * @return the absolute path of the file
+	 */
+	static String key(Path file) {
+		return file.toAbsolutePath().normalize().toString();
+	}
+
+	/**
+	 * The modification time of a file as stored in the index.
+	 * @param attrs the attributes of the file
+	 * @return the modification time in nanoseconds
+	 */
+	private static long modified(BasicFileAttributes attrs) {
+		return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+	}
+
+	// MARK entries
+
+	/**
+	 * The recorded state of a single file.
+	 * @author alex1s
+	 */
+	private static class Entry {
+		/**
+		 * The size of the file.
+		 */
+		final long size;
+		/**
+		 * The modification time of the file in nanoseconds.
+		 */
+		final long modified;
+		/**
+		 * The outcome of probing the file.
+		 */
+		final FHHeader.Status status;
+		/**
+		 * The original file length, only set for FHFiles.
+		 */
+		final long originalFileLength;
+		/**
+		 * The version, only set for FHFiles.
+		 */
+		final int version;
+		/**
+		 * The flags, only set for FHFiles.
+		 */
+		final int flags;
+		/**
+		 * The chunk size, only set for FHFiles.
+		 */
+		final int chunkSize;
+		/**
+		 * The offset of the hidden data, only set for FHFiles.
+		 */
+		final long offsetStart;
+		/**
+		 * The offset of the end of the hidden data, only set for FHFiles.
+		 */
+		final long offsetEnd;
+		/**
+		 * The length of the table of contents, only set for archives.
+		 */
+		final long tocLength;
+		/**
+		 * The nonce, may be null.
+		 */
+		final byte[] nonce;
+		/**
+		 * The crypto bytes, may be null.
+		 */
+		final byte[] cryptoBytes;
+
+		/**
+		 * Constructs an entry from a probed header.
+		 * @param size the size of the file
+		 * @param modified the modification time of the file in nanoseconds
+		 * @param header the header read from the file
+		 */
+		Entry(long size, long modified, FHHeader header) {
+			this(size, modified, header.status(), header.originalFileLength(), header.version(), header.flags(), header.chunkSize(),
+					header.offsetStart(), header.offsetEnd(), header.tocLength(), header.nonce(), header.cryptoBytes());
+		}
+
+		/**
+		 * Constructs an entry.
+		 */
+		private Entry(long size, long modified, FHHeader.Status status, long originalFileLength, int version, int flags, int chunkSize,
+				long offsetStart, long offsetEnd, long tocLength, byte[] nonce, byte[] cryptoBytes) {
+			this.size = size;
+			this.modified = modified;
+			this.status = status;
+			this.originalFileLength = originalFileLength;
+			this.version = version;
+			this.flags = flags;
+			this.chunkSize = chunkSize;
+			this.offsetStart = offsetStart;
+			this.offsetEnd = offsetEnd;
+			this.tocLength = tocLength;
+			this.nonce = nonce;
+			this.cryptoBytes = cryptoBytes;
+		}
+
+		/**
+		 * Rebuilds the header of the file.
+		 * @param file the path of the file
+		 * @return the header
+		 */
+		FHHeader header(Path file) {
+			if(this.status != FHHeader.Status.FH_FILE) return new FHHeader(this.status, file, 0);
+			return new FHHeader(file, this.size, this.originalFileLength, this.version, this.flags, this.chunkSize, this.nonce,
+					this.cryptoBytes, this.offsetStart, this.offsetEnd, this.tocLength, 0);
+		}
+
+		/**
+		 * Writes this entry.
+		 * @param out the output
+		 * @throws IOException if an I/O error occurs
+		 */
+		void write(DataOutputStream out) throws IOException {
+			out.writeLong(this.size);
+			out.writeLong(this.modified);
+			out.writeByte(this.status.ordinal());
+			if(this.status != FHHeader.Status.FH_FILE) return;
+
+			out.writeLong(this.originalFileLength);
+			out.writeInt(this.version);
+			out.writeInt(this.flags);
+			out.writeInt(this.chunkSize);
+			out.writeLong(this.offsetStart);
+			out.writeLong(this.offsetEnd);
+			out.writeLong(this.tocLength);
+			out.writeByte((this.nonce != null ? 1 : 0) | (this.cryptoBytes != null ? 2 : 0));
+			if(this.nonce != null) out.write(this.nonce);
+			if(this.cryptoBytes != null) out.write(this.cryptoBytes);
+		}
+
+		/**
+		 * Reads an entry.
+		 * @param in the input
+		 * @return the entry, null if it is invalid
+		 * @throws IOException if an I/O error occurs
+		 */
+		static Entry read(DataInputStream in) throws IOException {
+			long size = in.readLong();
+			long modified = in.readLong();
+			int ordinal = in.readUnsignedByte();
+			if(ordinal >= FHHeader.Status.values().length) return null;
+			FHHeader.Status status = FHHeader.Status.values()[ordinal];
+			if(status != FHHeader.Status.FH_FILE) return new Entry(size, modified, status, -1, -1, 0, 0, -1, -1, 0, null, null);
+
+			long originalFileLength = in.readLong();
+			int version = in.readInt();
+			int flags = in.readInt();
+			int chunkSize = in.readInt();
+			long offsetStart = in.readLong();
+			long offsetEnd = in.readLong();
+			long tocLength = in.readLong();
+			int present = in.readUnsignedByte();
+			byte[] nonce = null;
+			byte[] cryptoBytes = null;
+			if((present & 1) != 0) {
+				nonce = new byte[FHChunkCipher.NONCE_BYTES];
+				in.readFully(nonce);
+			}
+			if((present & 2) != 0) {
+				cryptoBytes = new byte[(flags & FHFile.FLAG_KEY_SLOTS) != 0 ? FHKeySlots.LENGTH : 2 * FHCipher.BYTES];
+				in.readFully(cryptoBytes);
+			}
+			return new Entry(size, modified, status, originalFileLength, version, flags, chunkSize, offsetStart, offsetEnd, tocLength, nonce, cryptoBytes);
+		}
+	}
+}
@@ -0,0 +1,384 @@
+package org.filehide.filehidelibrary;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Scanner that finds the FHFiles in a directory tree.
+ * <p>
+ * The tree is walked on the calling thread while the files are probed on a bounded pool, as probing is dominated by the latency of the two reads of every file.
+ * Every FHFile found is passed to the consumer right away, from the thread that probed it.
+ * When the pool falls behind, the walking thread probes files itself, so the number of pending files stays bounded.
+ * With a {@link FHScanIndex} files that have not changed since a previous scan are not read at all.
+ * @author alex1s
+ */
+public class FHScanner {
+
+	/**
+	 * The number of threads probing files if nothing else is specified.
+	 */
+	public static final int DEFAULT_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * The number of files that may wait to be probed for each thread.
+	 */
+	private static final int QUEUE_PER_THREAD = 64;
+
+	/**
+	 * The number of threads probing files.
+	 */
+	private final int threads;
+
+	/**
+	 * Constructs a FHScanner using {@link #DEFAULT_THREADS} threads.
+	 */
+	public FHScanner() {
+		this(DEFAULT_THREADS);
+	}
+
+	/**
+	 * Constructs a FHScanner.
+	 * @param threads the number of threads probing files
+	 */
+	public FHScanner(int threads) {
+		if(threads < 1) throw new IllegalArgumentException();
+		this.threads = threads;
+	}
+
+	// MARK scanning
+
+	/**
+	 * Scans a directory tree for FHFiles.
+	 * <p>
+	 * Symbolic links are not followed. Files that can not be read are counted as errors and skipped.
+	 * @param root the root of the tree, may also be a single file
+	 * @param consumer receives the header of every FHFile found, may be called from several threads at once
+	 * @return the statistics of the scan
+	 * @throws IOException if the scan has been interrupted
+	 */
+	public Statistics scan(Path root, Consumer<? super FHHeader> consumer) throws IOException {
+		return scan(root, null, consumer);
+	}
+
+	/**
+	 * Scans a directory tree for FHFiles, skipping the files that have not changed since the index has recorded them.
+	 * <p>
+	 * The index is updated with the files probed and files of the tree that have not been found anymore are removed from it.
+	 * A file is considered unchanged while its size and modification time are the same.
+	 * @param root the root of the tree, may also be a single file
+	 * @param index the index of previous scans, null to probe every file
+	 * @param consumer receives the header of every FHFile found, may be called from several threads at once
+	 * @return the statistics of the scan
+	 * @throws IOException if the scan has been interrupted
+	 */
+	public Statistics scan(Path root, FHScanIndex index, Consumer<? super FHHeader> consumer) throws IOException {
+		Counters counters = new Counters();
+		Set<String> seen = index == null ? null : ConcurrentHashMap.newKeySet();
+		AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		AtomicInteger threadNumber = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(this.threads * QUEUE_PER_THREAD),
+				runnable -> {
+					Thread thread = new Thread(runnable, "FHScanner-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				},
+				new ThreadPoolExecutor.CallerRunsPolicy());
+
+		long start = System.nanoTime();
+		try {
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					if(failure.get() != null) return FileVisitResult.TERMINATE;
+					if(!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+					if(seen != null) seen.add(FHScanIndex.key(file));
+
+					// unchanged files are answered from the index right away, only the others are handed to the pool
+					FHHeader header = index == null ? null : index.lookup(file, attrs);
+					if(header != null) {
+						counters.indexed.increment();
+						found(header, consumer, counters, failure);
+					} else {
+						pool.execute(() -> {
+							FHHeader probed = probe(file, attrs, index, counters);
+							if(probed != null) found(probed, consumer, counters, failure);
+						});
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException exc) {
+					counters.errors.increment();
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+					if(exc != null) counters.errors.increment();
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} finally {
+			pool.shutdown();
+			try {
+				while(!pool.awaitTermination(1, TimeUnit.SECONDS));
+			} catch (InterruptedException e) {
+				pool.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+
+		// exceptions of the consumer are passed on to the caller
+		if(failure.get() != null) throw failure.get();
+		if(index != null) index.retain(root, seen);
+		return new Statistics(counters, System.nanoTime() - start);
+	}
+
+	/**
+	 * Probes a single file and records it in the index.
+	 * @param file the file to probe
+	 * @param attrs the attributes of the file, as found while walking the tree
+	 * @param index the index of previous scans, may be null
+	 * @param counters the counters of the scan
+	 * @return the header of the file, null if it could not be read
+	 */
+	private static FHHeader probe(Path file, BasicFileAttributes attrs, FHScanIndex index, Counters counters) {
+		FHHeader header;
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			header = FHHeader.read(channel, file);
+		} catch (IOException e) {
+			counters.errors.increment();
+			return null;
+		}
+		if(index != null) index.record(file, attrs, header);
+		return header;
+	}
+
+	/**
+	 * Counts a scanned file and passes its header on if it is a FHFile.
+	 * @param header the header of the file
+	 * @param consumer receives the header if the file is a FHFile
+	 * @param counters the counters of the scan
+	 * @param failure receives the first exception thrown by the consumer
+	 */
+	private static void found(FHHeader header, Consumer<? super FHHeader> consumer, Counters counters, AtomicReference<RuntimeException> failure) {
+		counters.count(header);
+		if(header.status() != FHHeader.Status.FH_FILE) return;
+		try {
+			consumer.accept(header);
+		} catch (RuntimeException e) {
+			failure.compareAndSet(null, e);
+		}
+	}
+
+	// MARK statistics
+
+	/**
+	 * The counters of a running scan, updated from several threads.
+	 * @author alex1s
+	 */
+	static class Counters {
+		/**
+		 * The number of files scanned, including the ones found in the index.
+		 */
+		final LongAdder files = new LongAdder();
+		/**
+		 * The number of files found unchanged in the index.
+		 */
+		final LongAdder indexed = new LongAdder();
+		/**
+		 * The number of FHFiles found.
+		 */
+		final LongAdder fhFiles = new LongAdder();
+		/**
+		 * The number of corrupt FHFiles.
+		 */
+		final LongAdder corrupt = new LongAdder();
+		/**
+		 * The number of FHFiles with an incompatible version.
+		 */
+		final LongAdder incompatible = new LongAdder();
+		/**
+		 * The number of files and directories that could not be read.
+		 */
+		final LongAdder errors = new LongAdder();
+		/**
+		 * The number of bytes read.
+		 */
+		final LongAdder bytesRead = new LongAdder();
+
+		/**
+		 * Counts a probed file.
+		 * @param header the header read from the file
+		 */
+		void count(FHHeader header) {
+			this.files.increment();
+			this.bytesRead.add(header.bytesRead());
+			switch(header.status()) {
+			case FH_FILE:
+				this.fhFiles.increment();
+				break;
+			case CORRUPT:
+				this.corrupt.increment();
+				break;
+			case INCOMPATIBLE_VERSION:
+				this.incompatible.increment();
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * The statistics of a finished scan.
+	 * @author alex1s
+	 */
+	public static final class Statistics {
+		/**
+		 * The number of files scanned, including the ones found in the index.
+		 */
+		private final long files;
+		/**
+		 * The number of files found unchanged in the index.
+		 */
+		private final long indexed;
+		/**
+		 * The number of FHFiles found.
+		 */
+		private final long fhFiles;
+		/**
+		 * The number of corrupt FHFiles.
+		 */
+		private final long corrupt;
+		/**
+		 * The number of FHFiles with an incompatible version.
+		 */
+		private final long incompatible;
+		/**
+		 * The number of files and directories that could not be read.
+		 */
+		private final long errors;
+		/**
+		 * The number of bytes read.
+		 */
+		private final long bytesRead;
+		/**
+		 * The duration of the scan in nanoseconds.
+		 */
+		private final long nanos;
+
+		/**
+		 * Constructs the statistics from the counters of a scan.
+		 * @param counters the counters of the scan
+		 * @param nanos the duration of the scan in nanoseconds
+		 */
+		Statistics(Counters counters, long nanos) {
+			this.files = counters.files.sum();
+			this.indexed = counters.indexed.sum();
+			this.fhFiles = counters.fhFiles.sum();
+			this.corrupt = counters.corrupt.sum();
+			this.incompatible = counters.incompatible.sum();
+			this.errors = counters.errors.sum();
+			this.bytesRead = counters.bytesRead.sum();
+			this.nanos = nanos;
+		}
+
+		/**
+		 * getter for files
+		 * @return the number of files scanned, including the ones found in the index
+		 */
+		public long files() {
+			return this.files;
+		}
+
+		/**
+		 * getter for indexed
+		 * @return the number of files that have not been probed, as they have been found unchanged in the index
+		 */
+		public long indexed() {
+			return this.indexed;
+		}
+
+		/**
+		 * getter for fhFiles
+		 * @return the number of FHFiles found
+		 */
+		public long fhFiles() {
+			return this.fhFiles;
+		}
+
+		/**
+		 * getter for corrupt
+		 * @return the number of files that end like a FHFile but are corrupt
+		 */
+		public long corrupt() {
+			return this.corrupt;
+		}
+
+		/**
+		 * getter for incompatible
+		 * @return the number of FHFiles with a version not supported by this version of FileHide
+		 */
+		public long incompatible() {
+			return this.incompatible;
+		}
+
+		/**
+		 * getter for errors
+		 * @return the number of files and directories that could not be read
+		 */
+		public long errors() {
+			return this.errors;
+		}
+
+		/**
+		 * getter for bytesRead
+		 * @return the number of bytes read from the probed files
+		 */
+		public long bytesRead() {
+			return this.bytesRead;
+		}
+
+		/**
+		 * getter for nanos
+		 * @return the duration of the scan in nanoseconds
+		 */
+		public long nanos() {
+			return this.nanos;
+		}
+
+		/**
+		 * The throughput of the scan.
+		 * @return the number of files scanned per second
+		 */
+		public double filesPerSecond() {
+			return this.nanos == 0 ? 0 : this.files * 1e9 / this.nanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d files (%d indexed, %d FHFiles, %d corrupt, %d incompatible, %d errors), %d bytes read, %.0f files/s",
+					this.files, this.indexed, this.fhFiles, this.corrupt, this.incompatible, this.errors, this.bytesRead, filesPerSecond());
+		}
+	}
+}
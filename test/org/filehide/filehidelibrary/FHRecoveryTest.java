@@ -0,0 +1,144 @@
+package org.filehide.filehidelibrary;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of {@link FHFile#recover(Path)} with hidden data ending in zeros, which look like the leading bytes of the lengths at the end of a FHFile.
+ * @author alex1s
+ */
+class FHRecoveryTest {
+
+	/**
+	 * The length of the carrier.
+	 */
+	private static final int CARRIER_LENGTH = 3000;
+	/**
+	 * The numbers of bytes cut off of the end of a FHFile, none, parts of the lengths and the whole end.
+	 */
+	private static final int[] CUTS = {0, 1, 3, 6, 8, 13, FHFile.FH_END_LENGTH()};
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void unencryptedDataEndingInZerosIsAmongTheLengths() throws Exception {
+		for(int zeros : new int[] {1, 6, 8, 30}) {
+			byte[] payload = payload(1000, zeros);
+			Path hidden = FHFile.hide(new ByteArrayInputStream(payload), carrier(), this.directory.resolve("hidden")).toPath();
+			for(int cut : CUTS) {
+				List<FHHeader> headers = recovered(cut(hidden, cut), null);
+				assertTrue(headers.size() >= 1, "zeros " + zeros + " cut " + cut);
+				for(int i = 1; i < headers.size(); i++)
+					assertTrue(headers.get(i - 1).offsetEnd() > headers.get(i).offsetEnd(), "longest first");
+				boolean found = false;
+				for(FHHeader header : headers)
+					found |= Arrays.equals(payload, extract(header, null));
+				assertTrue(found, "zeros " + zeros + " cut " + cut);
+			}
+		}
+	}
+
+	@Test
+	void encryptedDataEndingInZerosIsRecoveredExactlyWithThePassword() throws Exception {
+		for(int zeros : new int[] {1, 6, 8, 30}) {
+			byte[] payload = payload(300000, zeros);
+			FHFile file = FHFile.hide(new ByteArrayInputStream(payload), carrier(), this.directory.resolve("hidden"), "password");
+			for(boolean checksums : new boolean[] {false, true}) {
+				if(checksums) file.addChecksums();
+				for(int cut : CUTS) {
+					Path damaged = cut(file.toPath(), cut);
+					List<FHHeader> headers = recovered(damaged, "password");
+					assertEquals(1, headers.size(), "zeros " + zeros + " cut " + cut + " checksums " + checksums);
+					assertArrayEquals(payload, extract(headers.get(0), "password"));
+					if(cut > 0) assertTrue(recovered(damaged, "wrong").isEmpty());
+				}
+			}
+		}
+	}
+
+	// MARK helpers
+
+	/**
+	 * Creates random data ending in zeros.
+	 * @param length the length of the data
+	 * @param zeros the number of zeros at the end
+	 * @return the data
+	 */
+	private static byte[] payload(int length, int zeros) {
+		byte[] payload = new byte[length];
+		new Random(length + zeros).nextBytes(payload);
+		Arrays.fill(payload, length - zeros, length, (byte) 0);
+		return payload;
+	}
+
+	/**
+	 * Creates the carrier of random bytes.
+	 * @return the path of the carrier
+	 * @throws IOException if an I/O error occurs
+	 */
+	private Path carrier() throws IOException {
+		byte[] carrier = new byte[CARRIER_LENGTH];
+		new Random(0).nextBytes(carrier);
+		return Files.write(this.directory.resolve("carrier"), carrier);
+	}
+
+	/**
+	 * Copies a file without its last bytes.
+	 * @param file the file
+	 * @param cut the number of bytes cut off
+	 * @return the path of the copy
+	 * @throws IOException if an I/O error occurs
+	 */
+	private Path cut(Path file, int cut) throws IOException {
+		Path damaged = Files.copy(file, this.directory.resolve("damaged"), StandardCopyOption.REPLACE_EXISTING);
+		try(FileChannel channel = FileChannel.open(damaged, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - cut);
+		}
+		return damaged;
+	}
+
+	/**
+	 * Recovers the hidden data of a damaged file hidden in the carrier.
+	 * @param damaged the damaged file
+	 * @param password the password of the hidden data, null if it is unencrypted
+	 * @return the headers of the hidden data whose head is right after the carrier
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static List<FHHeader> recovered(Path damaged, String password) throws IOException {
+		List<FHHeader> headers = new ArrayList<>();
+		for(FHHeader header : password == null ? FHFile.recover(damaged) : FHFile.recover(damaged, password))
+			if(header.originalFileLength() == CARRIER_LENGTH) headers.add(header);
+		return headers;
+	}
+
+	/**
+	 * Extracts recovered hidden data.
+	 * @param header the recovered header
+	 * @param password the password of the hidden data, null if it is unencrypted
+	 * @return the hidden data
+	 * @throws IOException if an I/O error occurs
+	 */
+	private byte[] extract(FHHeader header, String password) throws IOException {
+		Path destination = this.directory.resolve("extracted");
+		if(password == null) new FHFile(header).extractHiddenData(destination.toFile());
+		else new FHFile(header).extractHiddenData(destination.toFile(), password);
+		return Files.readAllBytes(destination);
+	}
+}